@@ -0,0 +1,295 @@
+package ch.zhaw.prog2.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writer which encodes the characters written to it into several target streams, each with its own charset.<br>
+ * The characters are handed over once as a {@link CharBuffer} and every target encodes a read-only view of the
+ * same buffer into its own byte buffer. Larger chunks are encoded for all targets in parallel.<br>
+ * Target buffers are only written to the underlying streams if they are full or if the targets are flushed
+ * as a group, according to the {@link FlushPolicy}.<br>
+ * Characters which can not be mapped to a target charset are replaced by the replacement bytes of the encoder
+ * and counted per target.
+ */
+public class FanOutWriter extends Writer {
+    // Default size of the byte buffer of each target
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    // Minimal number of chars in a chunk, before the targets are encoded in parallel
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * Defines when the buffers of all targets are written and flushed to the underlying streams.
+     */
+    public enum FlushPolicy {
+        /** Only flush on explicit call of {@link #flush()} or {@link #close()}. */
+        EXPLICIT,
+        /** Flush all targets after each chunk containing a line feed. */
+        LINE,
+        /** Flush all targets after each written chunk. */
+        ALWAYS
+    }
+
+    /**
+     * Encoding target of the writer, consisting of an output stream and the charset to encode into.
+     * Each target has its own encoder and byte buffer and counts the written bytes and replaced chars.
+     */
+    public static final class Target {
+        private final OutputStream out;
+        private final CharsetEncoder encoder;
+        private final ByteBuffer buffer;
+        private final byte[] replacement;
+        private long bytesWritten = 0;
+        private long unmappableChars = 0;
+
+        /**
+         * Creates a target with the default buffer size.
+         * @param out stream to write the encoded bytes to
+         * @param charset charset to encode the characters
+         */
+        public Target(OutputStream out, Charset charset) {
+            this(out, charset, DEFAULT_BUFFER_SIZE);
+        }
+
+        /**
+         * Creates a target with the given buffer size.
+         * @param out stream to write the encoded bytes to
+         * @param charset charset to encode the characters
+         * @param bufferSize size of the byte buffer in bytes
+         */
+        public Target(OutputStream out, Charset charset, int bufferSize) {
+            this.out = Objects.requireNonNull(out, "out must not be null");
+            this.encoder = Objects.requireNonNull(charset, "charset must not be null").newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+            this.replacement = encoder.replacement();
+            this.buffer = ByteBuffer.allocate(Math.max(bufferSize, (int) Math.ceil(encoder.maxBytesPerChar()) * 2));
+        }
+
+        /**
+         * Returns the charset of this target.
+         * @return charset used to encode the characters
+         */
+        public Charset getCharset() {
+            return encoder.charset();
+        }
+
+        /**
+         * Returns the number of bytes written to the underlying stream so far.
+         * Bytes still kept in the buffer are not included.
+         * @return number of bytes written
+         */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * Returns the number of chars, which could not be encoded and were replaced by the replacement bytes.
+         * @return number of replaced chars
+         */
+        public long getUnmappableChars() {
+            return unmappableChars;
+        }
+
+        private void encode(CharBuffer in, boolean endOfInput) throws IOException {
+            while (true) {
+                CoderResult result = encoder.encode(in, buffer, endOfInput);
+                if (result.isUnderflow()) {
+                    return;
+                } else if (result.isOverflow()) {
+                    drain();
+                } else {
+                    // malformed input or unmappable character: write replacement and skip input
+                    if (buffer.remaining() < replacement.length) {
+                        drain();
+                    }
+                    buffer.put(replacement);
+                    in.position(in.position() + result.length());
+                    unmappableChars += result.length();
+                }
+            }
+        }
+
+        private void finish() throws IOException {
+            encode(CharBuffer.allocate(0), true);
+            while (encoder.flush(buffer).isOverflow()) {
+                drain();
+            }
+            encoder.reset();
+        }
+
+        private void drain() throws IOException {
+            if (buffer.position() > 0) {
+                out.write(buffer.array(), 0, buffer.position());
+                bytesWritten += buffer.position();
+                buffer.clear();
+            }
+        }
+
+        private void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+        @Override
+        public String toString() {
+            return "%s: %d bytes written, %d unmappable chars".formatted(getCharset(), bytesWritten, unmappableChars);
+        }
+    }
+
+    private final List<Target> targets;
+    private final FlushPolicy flushPolicy;
+    // high surrogate at the end of the last chunk, which has to be encoded together with the next chunk
+    private char pendingHighSurrogate = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a writer encoding all written characters to the given targets.
+     * @param flushPolicy defines when all targets are flushed as a group
+     * @param targets targets to encode the characters to
+     */
+    public FanOutWriter(FlushPolicy flushPolicy, List<Target> targets) {
+        this.flushPolicy = Objects.requireNonNull(flushPolicy, "flushPolicy must not be null");
+        this.targets = List.copyOf(targets);
+        if (this.targets.isEmpty()) {
+            throw new IllegalArgumentException("At least one target is required");
+        }
+    }
+
+    /**
+     * Returns the targets of this writer, e.g. to read the counters.
+     * @return unmodifiable list of targets
+     */
+    public List<Target> getTargets() {
+        return targets;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, cbuf.length);
+        synchronized (lock) {
+            ensureOpen();
+            if (len > 0) {
+                encode(cbuf, off, len);
+            }
+        }
+    }
+
+    private void encode(char[] cbuf, int off, int len) throws IOException {
+        if (pendingHighSurrogate != 0) {
+            char[] joined = new char[len + 1];
+            joined[0] = pendingHighSurrogate;
+            System.arraycopy(cbuf, off, joined, 1, len);
+            cbuf = joined;
+            off = 0;
+            len = joined.length;
+            pendingHighSurrogate = 0;
+        }
+        if (Character.isHighSurrogate(cbuf[off + len - 1])) {
+            pendingHighSurrogate = cbuf[off + len - 1];
+            len--;
+        }
+
+        CharBuffer chunk = CharBuffer.wrap(cbuf, off, len).asReadOnlyBuffer();
+        if (len >= PARALLEL_THRESHOLD && targets.size() > 1) {
+            try {
+                targets.parallelStream().forEach(target -> {
+                    try {
+                        target.encode(chunk.duplicate(), false);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            for (Target target : targets) {
+                target.encode(chunk.duplicate(), false);
+            }
+        }
+
+        if (flushPolicy == FlushPolicy.ALWAYS || (flushPolicy == FlushPolicy.LINE && containsLineFeed(chunk))) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            for (Target target : targets) {
+                target.flush();
+            }
+        }
+    }
+
+    /**
+     * Finishes the encoding of all targets, flushes and closes the underlying streams.
+     * All targets are closed, even if closing one of them fails.
+     * @throws IOException if an error occurs writing or closing a target
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            IOException error = null;
+            for (Target target : targets) {
+                try {
+                    if (pendingHighSurrogate != 0) {
+                        target.encode(CharBuffer.wrap(new char[]{pendingHighSurrogate}), true);
+                    }
+                    target.finish();
+                    target.flush();
+                } catch (IOException e) {
+                    error = collect(error, e);
+                } finally {
+                    try {
+                        target.out.close();
+                    } catch (IOException e) {
+                        error = collect(error, e);
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    private static IOException collect(IOException error, IOException e) {
+        if (error == null) {
+            return e;
+        }
+        error.addSuppressed(e);
+        return error;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+
+    private static boolean containsLineFeed(CharBuffer chunk) {
+        for (int i = chunk.position(); i < chunk.limit(); i++) {
+            if (chunk.get(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -3,6 +3,7 @@ package ch.zhaw.prog2.io;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 
 public class UnderstandingCharsets {
@@ -42,15 +43,37 @@ public class UnderstandingCharsets {
 
         File defaultFile = new File("./CharSetEvaluation_Default.txt");
         File usAsciiFile = new File("./CharSetEvaluation_ASCII.txt");
+        File utf8File = new File("./CharSetEvaluation_UTF8.txt");
+        File win1252File = new File("./CharSetEvaluation_WIN1252.txt");
 
-        try (OutputStreamWriter defaultWriter = new OutputStreamWriter(new FileOutputStream(defaultFile), Charset.defaultCharset());
-             OutputStreamWriter asciiWriter = new OutputStreamWriter(new FileOutputStream(usAsciiFile), StandardCharsets.US_ASCII))
+        // read the input once and encode it into all files, instead of flushing one writer per file and char
+        // the streams are resources of their own, so they are closed even if opening a later one fails
+        try (OutputStream defaultOut = new FileOutputStream(defaultFile);
+             OutputStream usAsciiOut = new FileOutputStream(usAsciiFile);
+             OutputStream utf8Out = new FileOutputStream(utf8File);
+             OutputStream win1252Out = new FileOutputStream(win1252File);
+             FanOutWriter writer = new FanOutWriter(FanOutWriter.FlushPolicy.LINE, List.of(
+                 new FanOutWriter.Target(defaultOut, Charset.defaultCharset()),
+                 new FanOutWriter.Target(usAsciiOut, StandardCharsets.US_ASCII),
+                 new FanOutWriter.Target(utf8Out, StandardCharsets.UTF_8),
+                 new FanOutWriter.Target(win1252Out, Charset.forName("windows-1252")))))
         {
             BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-            char c;
-            while ((c = (char) reader.read()) != 'q') {
-                defaultWriter.write(c);
-                asciiWriter.write(c);
+            char[] chunk = new char[1024];
+            int length;
+            boolean reading = true;
+            while (reading && (length = reader.read(chunk)) >= 0) {
+                for (int i = 0; i < length; i++) {
+                    if (chunk[i] == 'q') {
+                        length = i;
+                        reading = false;
+                    }
+                }
+                writer.write(chunk, 0, length);
+            }
+            writer.flush();
+            for (FanOutWriter.Target target : writer.getTargets()) {
+                System.out.println(target);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -0,0 +1,71 @@
+package ch.zhaw.prog2.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FanOutWriterTest {
+    // ü is not in US-ASCII, € not in ISO-8859-1, the emoji (a surrogate pair) in none of the single byte charsets
+    private static final String TEXT = "Grüezi 5 € 😀\n";
+    private static final List<Charset> CHARSETS = List.of(StandardCharsets.US_ASCII, StandardCharsets.ISO_8859_1,
+        Charset.forName("windows-1252"), StandardCharsets.UTF_8);
+
+    private final List<ByteArrayOutputStream> outputs = List.of(
+        new ByteArrayOutputStream(), new ByteArrayOutputStream(), new ByteArrayOutputStream(), new ByteArrayOutputStream());
+
+    private FanOutWriter createWriter(FanOutWriter.FlushPolicy flushPolicy) {
+        return new FanOutWriter(flushPolicy, List.of(
+            new FanOutWriter.Target(outputs.get(0), CHARSETS.get(0)),
+            new FanOutWriter.Target(outputs.get(1), CHARSETS.get(1)),
+            new FanOutWriter.Target(outputs.get(2), CHARSETS.get(2)),
+            new FanOutWriter.Target(outputs.get(3), CHARSETS.get(3))));
+    }
+
+    @Test
+    void replaceUnmappableCharsPerCharset() throws IOException {
+        FanOutWriter writer = createWriter(FanOutWriter.FlushPolicy.EXPLICIT);
+        writer.write(TEXT);
+        writer.close();
+        for (int i = 0; i < CHARSETS.size(); i++) {
+            // String.getBytes uses the same replacement as the encoders
+            assertArrayEquals(TEXT.getBytes(CHARSETS.get(i)), outputs.get(i).toByteArray());
+            assertEquals(outputs.get(i).size(), writer.getTargets().get(i).getBytesWritten(), CHARSETS.get(i).name());
+        }
+        assertEquals(4, writer.getTargets().get(0).getUnmappableChars(), "US-ASCII: ü, € and the surrogate pair");
+        assertEquals(3, writer.getTargets().get(1).getUnmappableChars(), "ISO-8859-1: € and the surrogate pair");
+        assertEquals(2, writer.getTargets().get(2).getUnmappableChars(), "windows-1252: the surrogate pair");
+        assertEquals(0, writer.getTargets().get(3).getUnmappableChars(), "UTF-8 maps all chars");
+    }
+
+    @Test
+    void surrogatePairSplitAcrossWrites() throws IOException {
+        FanOutWriter writer = createWriter(FanOutWriter.FlushPolicy.ALWAYS);
+        String emoji = "😀";
+        writer.write(emoji.charAt(0));
+        assertEquals(0, outputs.get(3).size(), "High surrogate must wait for the low surrogate");
+        writer.write(emoji.charAt(1));
+        writer.close();
+        assertArrayEquals(emoji.getBytes(StandardCharsets.UTF_8), outputs.get(3).toByteArray());
+        assertArrayEquals("?".getBytes(StandardCharsets.US_ASCII), outputs.get(0).toByteArray());
+    }
+
+    @Test
+    void encodeLargeChunksInParallel() throws IOException {
+        String text = TEXT.repeat(1000);
+        FanOutWriter writer = createWriter(FanOutWriter.FlushPolicy.LINE);
+        writer.write(text.toCharArray());
+        // the line policy flushed all targets, so the counters are complete without closing
+        for (int i = 0; i < CHARSETS.size(); i++) {
+            assertArrayEquals(text.getBytes(CHARSETS.get(i)), outputs.get(i).toByteArray());
+        }
+        assertEquals(4000, writer.getTargets().get(0).getUnmappableChars());
+        writer.close();
+        assertThrows(IOException.class, () -> writer.write("closed"));
+    }
+}
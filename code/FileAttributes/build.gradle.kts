@@ -1,3 +1,5 @@
+import org.gradle.api.tasks.testing.logging.TestLogEvent.*
+
 plugins {
     application
 }
@@ -13,7 +15,8 @@ repositories {
 }
 
 dependencies {
-
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.+")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 // Plugin configurations
@@ -32,6 +35,13 @@ application {
 
 
 // Task configuration
+tasks.test {
+    useJUnitPlatform()
+    testLogging {
+        events(FAILED, PASSED, SKIPPED)
+    }
+}
+
 tasks.run<JavaExec> {
     // enable console input when running with gradle
     standardInput = System.`in`
@@ -1,36 +1,134 @@
 package ch.zhaw.prog2.io;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class DirList {
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final MetadataFormatter formatter = new MetadataFormatter();
 
     /**
      * Print metadata of a given file, resp. all of its files if it is a directory.
-     * Use {@link #printFileMetadata(File)} to print file metadata.
+     * With option '-r' the directory is listed recursively, processing the subdirectories in parallel.
+     * With option '-s' the directory tree is compared with the snapshot in the given file and only the added ('+'),
+     * removed ('-') and modified ('*') entries are printed. Afterwards, the snapshot is updated.
+     * With option '-u' the disk usage of the directory tree is printed instead of the entries, including the
+     * largest directories and files (10 by default, or the number given with option '-n').
+     * Use {@link #printFileMetadata(FileMetadata)} to print file metadata.
      *
-     * @param args path to file or directory to print metadata of (optional)
+     * @param args [-r] [-s snapshot-file] [-u [-n count]] path to file or directory to print metadata of (optional)
      */
     public static void main(String[] args) {
-        String pathName = args.length >= 1 ? args[0] : ".";
-        File file = new File(pathName);
-        if (!file.exists()) {
+        boolean recursive = false;
+        String snapshotName = null;
+        boolean diskUsage = false;
+        int topCount = DiskUsage.DEFAULT_TOP_COUNT;
+        boolean topCountGiven = false;
+        String pathName = ".";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-r" -> recursive = true;
+                case "-s" -> {
+                    if (++i >= args.length) {
+                        System.err.println("Missing snapshot file after option -s");
+                        System.exit(1);
+                    }
+                    snapshotName = args[i];
+                }
+                case "-u" -> diskUsage = true;
+                case "-n" -> {
+                    try {
+                        topCount = Integer.parseInt(args[++i]);
+                        topCountGiven = true;
+                    } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                        System.err.println("Missing or invalid count after option -n");
+                        System.exit(1);
+                    }
+                }
+                default -> pathName = args[i];
+            }
+        }
+        if (topCountGiven && !diskUsage) {
+            System.err.println("Option -n is only allowed together with option -u");
+            System.exit(1);
+        }
+        Path path = Path.of(pathName);
+        if (!Files.exists(path)) {
             System.err.println("File or directory does not exist: " + pathName);
             System.exit(1);
         }
 
-        if (file.isDirectory()) {
-            File[] files = file.listFiles();
-            if (files != null) {
-                for (File f : files) {
-                    System.out.println(printFileMetadata(f));
-                }
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+            if (diskUsage && Files.isDirectory(path)) {
+                printDiskUsage(new DiskUsage(topCount).compute(path, System.err), out);
+            } else if (snapshotName != null && Files.isDirectory(path)) {
+                printChanges(path, Path.of(snapshotName), out);
+            } else if (Files.isDirectory(path)) {
+                new DirWalker(out, formatter::appendTo, recursive ? Integer.MAX_VALUE : 1).walk(path);
+            } else {
+                Path fileName = path.getFileName();
+                out.write(printFileMetadata(FileMetadata.read(path, fileName != null ? fileName.toString() : pathName)));
+                out.write(System.lineSeparator());
+                out.flush();
             }
-        } else {
-            System.out.println(printFileMetadata(file));
+        } catch (IOException e) {
+            System.err.println("Failed to list " + pathName + ": " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Print the changes of the directory tree compared to the given snapshot and update the snapshot.
+     *
+     * @param directory root directory of the tree to compare
+     * @param snapshotFile file containing the snapshot of the previous run
+     * @param out writer to print the changes to
+     * @throws IOException if the snapshot or the directory can not be accessed
+     */
+    private static void printChanges(Path directory, Path snapshotFile, Writer out) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        try {
+            new DirSnapshot(directory, true).update(snapshotFile, change -> {
+                line.setLength(0);
+                line.append(change.type().getSymbol()).append(' ');
+                formatter.appendTo(change.metadata(), line);
+                line.append(System.lineSeparator());
+                try {
+                    out.append(line);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+        out.flush();
+    }
+
+    /**
+     * Print the totals and the largest directories and files of a disk usage report.
+     *
+     * @param report disk usage report to print
+     * @param out writer to print the report to
+     * @throws IOException if writing fails
+     */
+    private static void printDiskUsage(DiskUsage.Report report, Writer out) throws IOException {
+        out.write("Total: %d bytes in %d files and %d directories%n".formatted(report.size(), report.files(), report.directories()));
+        out.write("Largest directories:" + System.lineSeparator());
+        for (DiskUsage.Usage usage : report.largestDirectories()) {
+            out.write("%15d %s%n".formatted(usage.size(), usage.path()));
+        }
+        out.write("Largest files:" + System.lineSeparator());
+        for (DiskUsage.Usage usage : report.largestFiles()) {
+            out.write("%15d %s%n".formatted(usage.size(), usage.path()));
+        }
+        out.flush();
     }
 
     /** Write metadata of given file on a line with the following format:<br>
@@ -47,18 +145,17 @@ public class DirList {
      * @return String formatted as described above.
      */
     public static String printFileMetadata(File file) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(file.isDirectory() ? 'd' : 'f');
-        sb.append(file.canRead() ? 'r' : '-');
-        sb.append(file.canWrite() ? 'w' : '-');
-        sb.append(file.canExecute() ? 'x' : '-');
-        sb.append(file.isHidden() ? 'h' : '-');
-        sb.append(" ");
-        sb.append(dateFormat.format(file.lastModified()));
-        sb.append(" ");
-        sb.append(String.format("%10d", file.length()));
-        sb.append(" ");
-        sb.append(file.getName());
-        return sb.toString();
+        return printFileMetadata(new FileMetadata(file.getName(), file.isDirectory(), file.canRead(), file.canWrite(),
+            file.canExecute(), file.isHidden(), file.lastModified(), file.length()));
+    }
+
+    /**
+     * Write the given metadata on a line, using the format described in {@link #printFileMetadata(File)}.
+     *
+     * @param metadata metadata of the file to print
+     * @return String formatted as described above.
+     */
+    public static String printFileMetadata(FileMetadata metadata) {
+        return formatter.format(metadata);
     }
 }
@@ -0,0 +1,340 @@
+package ch.zhaw.prog2.io;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Compares a directory tree with a snapshot of a previous run and reports the added, removed and modified entries.<br>
+ * The snapshot is stored in a compact binary index file, containing the relative path, size, modified time and
+ * permission flags of each entry. The entries are stored in depth-first order with the entries of each directory
+ * sorted by name, and each path only stores the suffix which differs from the previous path.
+ * As the tree is walked in the same order, the snapshot is compared by merging both sequences, so neither the
+ * old nor the new snapshot is held in memory.<br>
+ * If pruning is enabled, a directory whose modified time did not change since the snapshot is not listed again,
+ * because adding, removing or renaming an entry updates the modified time of its directory.
+ * Instead, only the entries known from the snapshot are checked.
+ */
+public class DirSnapshot {
+    // Magic number ("DLS1") at the start of each snapshot file
+    private static final int MAGIC = 0x444C5331;
+    // Separator used for relative paths in the snapshot, independent of the platform
+    private static final char SEPARATOR = '/';
+
+    private static final int FLAG_DIRECTORY = 1;
+    private static final int FLAG_READABLE = 2;
+    private static final int FLAG_WRITABLE = 4;
+    private static final int FLAG_EXECUTABLE = 8;
+    private static final int FLAG_HIDDEN = 16;
+
+    /**
+     * Type of change of an entry compared to the snapshot.
+     */
+    public enum ChangeType {
+        ADDED('+'), REMOVED('-'), MODIFIED('*');
+
+        private final char symbol;
+
+        ChangeType(char symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * Returns the symbol used to mark the change in a listing.
+         * @return '+' for added, '-' for removed and '*' for modified entries
+         */
+        public char getSymbol() {
+            return symbol;
+        }
+    }
+
+    /**
+     * Change of an entry compared to the snapshot.
+     * @param type type of the change
+     * @param metadata current metadata of the entry, resp. metadata from the snapshot for removed entries
+     */
+    public record Change(ChangeType type, FileMetadata metadata) { }
+
+    private final Path root;
+    private final boolean pruneUnchanged;
+
+    /**
+     * Creates a snapshot handler for the given directory tree.
+     * @param root root directory of the tree
+     * @param pruneUnchanged true to skip listing directories whose modified time did not change
+     */
+    public DirSnapshot(Path root, boolean pruneUnchanged) {
+        this.root = Objects.requireNonNull(root, "root must not be null");
+        this.pruneUnchanged = pruneUnchanged;
+    }
+
+    /**
+     * Compares the directory tree with the given snapshot file and reports each change to the listener.
+     * If the snapshot file does not exist, all entries are reported as added.
+     * Afterwards, the snapshot file is replaced with a snapshot of the current tree.
+     *
+     * @param snapshotFile file containing the snapshot of the previous run
+     * @param listener consumer receiving the changes in the order of the tree
+     * @throws IOException if the snapshot can not be read or written, or the root directory can not be listed
+     */
+    public void update(Path snapshotFile, Consumer<Change> listener) throws IOException {
+        Path absoluteFile = snapshotFile.toAbsolutePath();
+        Path tempFile = Files.createTempFile(absoluteFile.getParent(), "snapshot-", ".tmp");
+        try {
+            try (SnapshotReader previous = new SnapshotReader(Files.exists(snapshotFile) ? snapshotFile : null);
+                 SnapshotWriter next = new SnapshotWriter(tempFile)) {
+                Comparison comparison = new Comparison(previous, next, listener);
+                comparison.compareListed("", root, true);
+                comparison.reportRemoved(null);
+            }
+            Files.move(tempFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Compares two relative paths in the order of the snapshot, i.e. component by component.
+     * The separator sorts before all other chars, so the entries of a directory follow its name directly.
+     */
+    static int comparePaths(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb) {
+                if (ca == SEPARATOR) return -1;
+                if (cb == SEPARATOR) return 1;
+                return Character.compare(ca, cb);
+            }
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    private static boolean isBelow(String directory, String path) {
+        return directory.isEmpty()
+            || (path.length() > directory.length() && path.startsWith(directory) && path.charAt(directory.length()) == SEPARATOR);
+    }
+
+    private static String childPath(String directory, String name) {
+        return directory.isEmpty() ? name : directory + SEPARATOR + name;
+    }
+
+    private static String childName(String directory, String path) {
+        return directory.isEmpty() ? path : path.substring(directory.length() + 1);
+    }
+
+    /**
+     * Merges the current tree with the previous snapshot, writing the next snapshot on the way.
+     */
+    private class Comparison {
+        private final SnapshotReader previous;
+        private final SnapshotWriter next;
+        private final Consumer<Change> listener;
+
+        Comparison(SnapshotReader previous, SnapshotWriter next, Consumer<Change> listener) {
+            this.previous = previous;
+            this.next = next;
+            this.listener = listener;
+        }
+
+        /**
+         * Lists the given directory and compares all of its entries in sorted order.
+         */
+        void compareListed(String directoryPath, Path directory, boolean isRoot) throws IOException {
+            List<String> names = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    names.add(entry.getFileName().toString());
+                }
+            } catch (IOException e) {
+                if (isRoot) {
+                    throw e;
+                }
+                // keep the known state of a directory which can not be listed
+                System.err.println("Failed to list directory " + directory + ": " + e.getMessage());
+                carryOver(directoryPath);
+                return;
+            }
+            Collections.sort(names);
+            for (String name : names) {
+                Path file = directory.resolve(name);
+                try {
+                    compareEntry(FileMetadata.read(file, childPath(directoryPath, name)), file);
+                } catch (NoSuchFileException e) {
+                    // deleted while listing, will be reported as removed
+                }
+            }
+        }
+
+        /**
+         * Compares the entries of a directory, which did not change since the snapshot, without listing it.
+         * Only the entries known from the snapshot are read again.
+         */
+        private void compareKnown(String directoryPath, Path directory) throws IOException {
+            FileMetadata old;
+            while ((old = previous.peek()) != null && isBelow(directoryPath, old.name())) {
+                String name = childName(directoryPath, old.name());
+                if (name.indexOf(SEPARATOR) >= 0) {
+                    // entry of a subdirectory which does not exist anymore
+                    report(ChangeType.REMOVED, previous.next());
+                    continue;
+                }
+                Path file = directory.resolve(name);
+                try {
+                    compareEntry(FileMetadata.read(file, old.name()), file);
+                } catch (NoSuchFileException e) {
+                    report(ChangeType.REMOVED, previous.next());
+                }
+            }
+        }
+
+        private void compareEntry(FileMetadata current, Path file) throws IOException {
+            reportRemoved(current.name());
+            FileMetadata old = previous.peek();
+            boolean known = old != null && old.name().equals(current.name());
+            if (known) {
+                previous.next();
+                if (!old.equals(current)) {
+                    report(ChangeType.MODIFIED, current);
+                }
+            } else {
+                report(ChangeType.ADDED, current);
+            }
+            next.write(current);
+
+            if (current.directory()) {
+                if (pruneUnchanged && known && old.directory() && old.lastModified() == current.lastModified()) {
+                    compareKnown(current.name(), file);
+                } else {
+                    compareListed(current.name(), file, false);
+                }
+            }
+        }
+
+        /**
+         * Reports all entries of the previous snapshot sorting before the given path as removed.
+         * @param path path of the current entry, or null to report all remaining entries
+         */
+        void reportRemoved(String path) throws IOException {
+            FileMetadata old;
+            while ((old = previous.peek()) != null && (path == null || comparePaths(old.name(), path) < 0)) {
+                report(ChangeType.REMOVED, previous.next());
+            }
+        }
+
+        private void carryOver(String directoryPath) throws IOException {
+            FileMetadata old;
+            while ((old = previous.peek()) != null && isBelow(directoryPath, old.name())) {
+                next.write(previous.next());
+            }
+        }
+
+        private void report(ChangeType type, FileMetadata metadata) {
+            listener.accept(new Change(type, metadata));
+        }
+    }
+
+    /**
+     * Sequential reader of a snapshot file with one entry look ahead.
+     * Reads an empty snapshot, if no file is given.
+     */
+    private static class SnapshotReader implements Closeable {
+        private final DataInputStream in;
+        private String lastPath = "";
+        private FileMetadata current;
+
+        SnapshotReader(Path file) throws IOException {
+            if (file == null) {
+                in = null;
+                return;
+            }
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            current = read();
+        }
+
+        FileMetadata peek() {
+            return current;
+        }
+
+        FileMetadata next() throws IOException {
+            FileMetadata result = current;
+            current = read();
+            return result;
+        }
+
+        private FileMetadata read() throws IOException {
+            if (in == null || !in.readBoolean()) {
+                return null;
+            }
+            int shared = in.readUnsignedShort();
+            String path = lastPath.substring(0, shared) + in.readUTF();
+            int flags = in.readUnsignedByte();
+            long lastModified = in.readLong();
+            long size = in.readLong();
+            lastPath = path;
+            return new FileMetadata(path,
+                (flags & FLAG_DIRECTORY) != 0,
+                (flags & FLAG_READABLE) != 0,
+                (flags & FLAG_WRITABLE) != 0,
+                (flags & FLAG_EXECUTABLE) != 0,
+                (flags & FLAG_HIDDEN) != 0,
+                lastModified,
+                size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Sequential writer of a snapshot file.
+     */
+    private static class SnapshotWriter implements Closeable {
+        private final DataOutputStream out;
+        private String lastPath = "";
+
+        SnapshotWriter(Path file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            out.writeInt(MAGIC);
+        }
+
+        void write(FileMetadata metadata) throws IOException {
+            String path = metadata.name();
+            int shared = 0;
+            int maxShared = Math.min(Math.min(path.length(), lastPath.length()), 0xFFFF);
+            while (shared < maxShared && path.charAt(shared) == lastPath.charAt(shared)) {
+                shared++;
+            }
+            out.writeBoolean(true);
+            out.writeShort(shared);
+            out.writeUTF(path.substring(shared));
+            out.writeByte((metadata.directory() ? FLAG_DIRECTORY : 0)
+                | (metadata.readable() ? FLAG_READABLE : 0)
+                | (metadata.writable() ? FLAG_WRITABLE : 0)
+                | (metadata.executable() ? FLAG_EXECUTABLE : 0)
+                | (metadata.hidden() ? FLAG_HIDDEN : 0));
+            out.writeLong(metadata.lastModified());
+            out.writeLong(metadata.size());
+            lastPath = path;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeBoolean(false);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ch.zhaw.prog2.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+
+/**
+ * Walks a directory tree and writes one formatted line per entry to a writer.<br>
+ * Each directory is listed by its own fork/join task, so subtrees are processed in parallel.
+ * The tasks block on file system calls, so they run in a pool of their own instead of the common pool.
+ * The lines are collected per task in a small buffer, which is written to the output as soon as it is full.
+ * Therefore, the listing is streamed and never held in memory as a whole.
+ * The order of the lines of different directories is not defined.<br>
+ * Directories which can not be read are reported to {@link System#err} and skipped.
+ */
+public class DirWalker {
+    // Number of chars collected by a task before they are written to the output
+    private static final int FLUSH_THRESHOLD = 16 * 1024;
+    // Number of threads listing directories; more than the cores, as they mostly wait for the file system
+    private static final int PARALLELISM = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final Writer out;
+    private final BiConsumer<FileMetadata, StringBuilder> formatter;
+    private final int maxDepth;
+
+    /**
+     * Creates a walker writing the lines to the given writer.
+     * @param out writer to write the lines to. Access is synchronized on the writer.
+     * @param formatter appends the metadata of an entry as a line (without line separator) to the given builder
+     * @param maxDepth maximal depth of directories to list; 1 lists only the entries of the root directory
+     */
+    public DirWalker(Writer out, BiConsumer<FileMetadata, StringBuilder> formatter, int maxDepth) {
+        this.out = Objects.requireNonNull(out, "out must not be null");
+        this.formatter = Objects.requireNonNull(formatter, "formatter must not be null");
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be at least 1");
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Lists all entries below the given directory using a fork/join pool of its own.
+     * The names of the entries are written relative to the root directory.
+     * @param root directory to list
+     * @throws IOException if writing to the output fails
+     */
+    public void walk(Path root) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            pool.invoke(new DirectoryTask(root, root, 1));
+            synchronized (out) {
+                out.flush();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Task listing the entries of one directory, forking a new task for each subdirectory.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class DirectoryTask extends RecursiveAction {
+        private final Path root;
+        private final Path directory;
+        private final int depth;
+
+        DirectoryTask(Path root, Path directory, int depth) {
+            this.root = root;
+            this.directory = directory;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subTasks = new ArrayList<>();
+            StringBuilder lines = new StringBuilder(FLUSH_THRESHOLD + 256);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    FileMetadata metadata;
+                    try {
+                        metadata = FileMetadata.read(entry, root.relativize(entry).toString());
+                    } catch (IOException e) {
+                        System.err.println("Failed to read attributes of " + entry + ": " + e.getMessage());
+                        continue;
+                    }
+                    formatter.accept(metadata, lines);
+                    lines.append(System.lineSeparator());
+                    if (lines.length() >= FLUSH_THRESHOLD) {
+                        write(lines);
+                    }
+                    if (metadata.directory() && depth < maxDepth) {
+                        DirectoryTask subTask = new DirectoryTask(root, entry, depth + 1);
+                        subTask.fork();
+                        subTasks.add(subTask);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to list directory " + directory + ": " + e.getMessage());
+            }
+            write(lines);
+            for (DirectoryTask subTask : subTasks) {
+                subTask.join();
+            }
+        }
+
+        private void write(StringBuilder lines) {
+            if (lines.isEmpty()) {
+                return;
+            }
+            try {
+                synchronized (out) {
+                    out.append(lines);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            lines.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package ch.zhaw.prog2.io;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes the disk usage of a directory tree, like the unix command {@code du}.<br>
+ * Each directory is processed by its own fork/join task, which sums up the sizes and number of files of its entries
+ * and of the results of its subdirectory tasks. Work stealing of the fork/join pool spreads the subtrees evenly across
+ * all cores. The tasks block on file system calls, so they run in a pool of their own instead of the common pool.<br>
+ * The largest directories and files are collected in bounded heaps, which are merged from the leaves to the root,
+ * so only the top entries are kept in memory. The size of a directory includes all of its subdirectories.
+ * Symbolic links are not followed.
+ */
+public class DiskUsage {
+    // Default number of largest directories and files to report
+    public static final int DEFAULT_TOP_COUNT = 10;
+    // Number of threads scanning directories; more than the cores, as they mostly wait for the file system
+    private static final int PARALLELISM = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Size of a single directory or file.
+     * @param path path of the directory or file relative to the root
+     * @param size size in bytes
+     */
+    public record Usage(String path, long size) { }
+
+    /**
+     * Result of the disk usage computation of a directory tree.
+     * @param size total size of all files in bytes
+     * @param files number of files
+     * @param directories number of directories, not including the root
+     * @param largestDirectories largest directories, sorted by size descending
+     * @param largestFiles largest files, sorted by size descending
+     */
+    public record Report(long size, long files, long directories, List<Usage> largestDirectories, List<Usage> largestFiles) { }
+
+    private final int topCount;
+    private final LongAdder scannedEntries = new LongAdder();
+    private final LongAdder scannedBytes = new LongAdder();
+
+    /**
+     * Creates a disk usage computation reporting the given number of largest directories and files.
+     * @param topCount number of largest directories and files to report
+     */
+    public DiskUsage(int topCount) {
+        if (topCount < 1) {
+            throw new IllegalArgumentException("topCount must be at least 1");
+        }
+        this.topCount = topCount;
+    }
+
+    /**
+     * Computes the disk usage of the given directory tree using a fork/join pool of its own.
+     * @param root directory to compute the disk usage of
+     * @param progress stream to print the progress to every second, or null to not show progress
+     * @return report of the disk usage
+     */
+    public Report compute(Path root, PrintStream progress) {
+        ScheduledExecutorService progressPrinter = null;
+        if (progress != null) {
+            progressPrinter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "disk-usage-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progressPrinter.scheduleAtFixedRate(() -> progress.printf("Scanned %d entries, %d bytes%n",
+                scannedEntries.sum(), scannedBytes.sum()), 1, 1, TimeUnit.SECONDS);
+        }
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            Totals totals = pool.invoke(new DirectoryTask(root, root));
+            return new Report(totals.size, totals.files, totals.directories,
+                totals.largestDirectories.sorted(), totals.largestFiles.sorted());
+        } finally {
+            pool.shutdown();
+            if (progressPrinter != null) {
+                progressPrinter.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Task summing up the usage of one directory and all its subdirectories.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class DirectoryTask extends RecursiveTask<Totals> {
+        private final Path root;
+        private final Path directory;
+
+        DirectoryTask(Path root, Path directory) {
+            this.root = root;
+            this.directory = directory;
+        }
+
+        @Override
+        protected Totals compute() {
+            Totals totals = new Totals(topCount);
+            List<DirectoryTask> subTasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        System.err.println("Failed to read attributes of " + entry + ": " + e.getMessage());
+                        continue;
+                    }
+                    scannedEntries.increment();
+                    if (attributes.isDirectory()) {
+                        DirectoryTask subTask = new DirectoryTask(root, entry);
+                        subTask.fork();
+                        subTasks.add(subTask);
+                    } else {
+                        totals.size += attributes.size();
+                        totals.files++;
+                        scannedBytes.add(attributes.size());
+                        totals.largestFiles.offer(attributes.size(), entry, root);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to list directory " + directory + ": " + e.getMessage());
+            }
+            for (DirectoryTask subTask : subTasks) {
+                Totals subTotals = subTask.join();
+                totals.add(subTotals);
+                totals.directories++;
+                totals.largestDirectories.offer(subTotals.size, subTask.directory, root);
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * Mutable totals of a subtree, only accessed by the task computing it.
+     */
+    private static class Totals {
+        private long size = 0;
+        private long files = 0;
+        private long directories = 0;
+        private final TopUsages largestDirectories;
+        private final TopUsages largestFiles;
+
+        Totals(int topCount) {
+            largestDirectories = new TopUsages(topCount);
+            largestFiles = new TopUsages(topCount);
+        }
+
+        void add(Totals other) {
+            size += other.size;
+            files += other.files;
+            directories += other.directories;
+            largestDirectories.addAll(other.largestDirectories);
+            largestFiles.addAll(other.largestFiles);
+        }
+    }
+
+    /**
+     * Bounded min-heap keeping the largest usages offered.
+     * The relative path of an entry is only created if it is added to the heap.
+     * The heap is only created with the first usage, as most directories are leaves with few entries.
+     */
+    private static class TopUsages {
+        private static final Comparator<Usage> BY_SIZE = Comparator.comparingLong(Usage::size);
+        // Initial capacity of a heap, which grows up to the top count as needed
+        private static final int INITIAL_CAPACITY = 16;
+        private final int capacity;
+        private PriorityQueue<Usage> heap;
+
+        TopUsages(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void offer(long size, Path path, Path root) {
+            if (accepts(size)) {
+                add(new Usage(root.relativize(path).toString(), size));
+            }
+        }
+
+        void addAll(TopUsages other) {
+            if (other.heap == null) {
+                return;
+            }
+            for (Usage usage : other.heap) {
+                if (accepts(usage.size())) {
+                    add(usage);
+                }
+            }
+        }
+
+        private boolean accepts(long size) {
+            return heap == null || heap.size() < capacity || size > heap.peek().size();
+        }
+
+        private void add(Usage usage) {
+            if (heap == null) {
+                heap = new PriorityQueue<>(Math.min(capacity, INITIAL_CAPACITY) + 1, BY_SIZE);
+            }
+            heap.add(usage);
+            if (heap.size() > capacity) {
+                heap.poll();
+            }
+        }
+
+        List<Usage> sorted() {
+            if (heap == null) {
+                return new ArrayList<>();
+            }
+            List<Usage> result = new ArrayList<>(heap);
+            result.sort(BY_SIZE.reversed());
+            return result;
+        }
+    }
+}
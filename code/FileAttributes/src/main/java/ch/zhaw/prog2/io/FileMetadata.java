@@ -0,0 +1,64 @@
+package ch.zhaw.prog2.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+
+/**
+ * Metadata of a file or directory as printed by {@link DirList}.
+ * All values are read with a single call to {@link Files#readAttributes(Path, Class, LinkOption...)},
+ * instead of a separate file system call for each value as done by {@link java.io.File}.
+ *
+ * @param name name of the file, resp. path relative to the listed directory
+ * @param directory true if the file is a directory
+ * @param readable true if the file is readable
+ * @param writable true if the file is writable
+ * @param executable true if the file is executable
+ * @param hidden true if the file is hidden
+ * @param lastModified last modification time in milliseconds since the epoch
+ * @param size size of the file in bytes
+ */
+public record FileMetadata(String name, boolean directory, boolean readable, boolean writable, boolean executable,
+                           boolean hidden, long lastModified, long size) {
+
+    /**
+     * Reads the metadata of the given path. Symbolic links are not followed.<br>
+     * On POSIX file systems the permissions of the owner are used and files starting with '.' are hidden.
+     * On other file systems the DOS attributes are used, and the file system is asked for the access rights.
+     *
+     * @param path path of the file to read the metadata of
+     * @param name name to use for the file in the listing
+     * @return metadata of the file
+     * @throws IOException if the attributes can not be read
+     */
+    public static FileMetadata read(Path path, String name) throws IOException {
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            Set<PosixFilePermission> permissions = attributes.permissions();
+            Path fileName = path.getFileName();
+            return new FileMetadata(name,
+                attributes.isDirectory(),
+                permissions.contains(PosixFilePermission.OWNER_READ),
+                permissions.contains(PosixFilePermission.OWNER_WRITE),
+                permissions.contains(PosixFilePermission.OWNER_EXECUTE),
+                fileName != null && fileName.toString().startsWith("."),
+                attributes.lastModifiedTime().toMillis(),
+                attributes.size());
+        } else {
+            DosFileAttributes attributes = Files.readAttributes(path, DosFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new FileMetadata(name,
+                attributes.isDirectory(),
+                Files.isReadable(path),
+                !attributes.isReadOnly(),
+                Files.isExecutable(path),
+                attributes.isHidden(),
+                attributes.lastModifiedTime().toMillis(),
+                attributes.size());
+        }
+    }
+}
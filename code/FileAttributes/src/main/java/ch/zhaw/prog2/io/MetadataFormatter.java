@@ -0,0 +1,96 @@
+package ch.zhaw.prog2.io;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Objects;
+
+/**
+ * Thread-safe formatter for {@link FileMetadata}, appending the line directly to a given {@link StringBuilder}.<br>
+ * The format is described in {@link DirList#printFileMetadata(java.io.File)}.<br>
+ * The timestamp is formatted with an immutable {@link DateTimeFormatter}. As files in the same directory are often
+ * modified in the same second, each thread caches its last formatted timestamp and reuses it for the same second.
+ * Apart from that, formatting a line does not create any objects.
+ */
+public class MetadataFormatter {
+    // Date format used for the modified date
+    public static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    // Minimal width of the size column, which is padded with spaces on the left
+    private static final int SIZE_WIDTH = 10;
+
+    private final DateTimeFormatter dateFormatter;
+    private final ThreadLocal<TimestampCache> timestampCache = ThreadLocal.withInitial(TimestampCache::new);
+
+    /**
+     * Creates a formatter using the default time zone of the system.
+     */
+    public MetadataFormatter() {
+        this(ZoneId.systemDefault());
+    }
+
+    /**
+     * Creates a formatter using the given time zone for the modified date.
+     * @param zone time zone to format the modified date in
+     */
+    public MetadataFormatter(ZoneId zone) {
+        this.dateFormatter = DateTimeFormatter.ofPattern(DATE_FORMAT).withZone(Objects.requireNonNull(zone));
+    }
+
+    /**
+     * Returns the formatted line for the given metadata.
+     * @param metadata metadata to format
+     * @return formatted line without line separator
+     */
+    public String format(FileMetadata metadata) {
+        StringBuilder sb = new StringBuilder(64);
+        appendTo(metadata, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the formatted line for the given metadata to the given builder.
+     * @param metadata metadata to format
+     * @param sb builder to append the line to (without line separator)
+     */
+    public void appendTo(FileMetadata metadata, StringBuilder sb) {
+        sb.append(metadata.directory() ? 'd' : 'f');
+        sb.append(metadata.readable() ? 'r' : '-');
+        sb.append(metadata.writable() ? 'w' : '-');
+        sb.append(metadata.executable() ? 'x' : '-');
+        sb.append(metadata.hidden() ? 'h' : '-');
+        sb.append(' ');
+        sb.append(timestampCache.get().format(metadata.lastModified()));
+        sb.append(' ');
+        for (int padding = SIZE_WIDTH - digits(metadata.size()); padding > 0; padding--) {
+            sb.append(' ');
+        }
+        sb.append(metadata.size());
+        sb.append(' ');
+        sb.append(metadata.name());
+    }
+
+    private static int digits(long value) {
+        int digits = value < 0 ? 2 : 1;
+        for (long rest = Math.abs(value / 10); rest > 0; rest /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Last formatted timestamp of a thread, identified by its epoch second.
+     */
+    private class TimestampCache {
+        private long second = Long.MIN_VALUE;
+        private String text;
+
+        String format(long millis) {
+            long currentSecond = Math.floorDiv(millis, 1000);
+            if (currentSecond != second) {
+                text = dateFormatter.format(Instant.ofEpochSecond(currentSecond));
+                second = currentSecond;
+            }
+            return text;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ch.zhaw.prog2.io;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirSnapshotTest {
+    @TempDir
+    Path tempDir;
+    Path root;
+    Path snapshotFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createDirectory(tempDir.resolve("root"));
+        snapshotFile = tempDir.resolve("snapshot.bin");
+        Files.writeString(root.resolve("a.txt"), "a");
+        Files.createDirectories(root.resolve("sub").resolve("deeper"));
+        Files.writeString(root.resolve("sub").resolve("b.txt"), "b");
+        Files.writeString(root.resolve("sub").resolve("deeper").resolve("c.txt"), "c");
+        // sorts between "sub" and its entries by name, but after them in the snapshot order
+        Files.writeString(root.resolve("sub-file.txt"), "s");
+    }
+
+    private List<String> update(boolean pruneUnchanged) throws IOException {
+        List<String> changes = new ArrayList<>();
+        new DirSnapshot(root, pruneUnchanged).update(snapshotFile,
+            change -> changes.add(change.type().getSymbol() + change.metadata().name()));
+        return changes;
+    }
+
+    @Test
+    void firstRunReportsAllAdded() throws IOException {
+        assertEquals(List.of("+a.txt", "+sub", "+sub/b.txt", "+sub/deeper", "+sub/deeper/c.txt", "+sub-file.txt"),
+            update(true));
+        assertTrue(Files.exists(snapshotFile));
+        assertEquals(List.of(), update(true), "Unchanged tree must not report changes");
+        assertEquals(List.of(), update(false), "Unchanged tree must not report changes");
+    }
+
+    @Test
+    void reportChanges() throws IOException {
+        Path deeper = root.resolve("sub").resolve("deeper");
+        // a time in the past, so adding a file changes it even on file systems with a coarse resolution
+        FileTime deeperModified = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(deeper, deeperModified);
+        update(true);
+        Files.writeString(root.resolve("a.txt"), "modified");
+        Files.delete(root.resolve("sub").resolve("b.txt"));
+        Files.writeString(deeper.resolve("d.txt"), "d");
+        // the directory time changed by the new file, so it is listed even with pruning
+        assertNotEquals(deeperModified, Files.getLastModifiedTime(deeper));
+
+        List<String> changes = update(true);
+        assertTrue(changes.contains("*a.txt"), changes.toString());
+        assertTrue(changes.contains("-sub/b.txt"), changes.toString());
+        assertTrue(changes.contains("+sub/deeper/d.txt"), changes.toString());
+        assertFalse(changes.contains("*sub/deeper/c.txt"), changes.toString());
+        assertEquals(List.of(), update(true));
+    }
+
+    @Test
+    void removeDirectory() throws IOException {
+        update(true);
+        Path deeper = root.resolve("sub").resolve("deeper");
+        Files.delete(deeper.resolve("c.txt"));
+        Files.delete(deeper);
+        List<String> changes = update(true);
+        assertTrue(changes.containsAll(List.of("-sub/deeper", "-sub/deeper/c.txt")), changes.toString());
+        assertEquals(List.of(), update(true));
+    }
+
+    @Test
+    void pruneUnchangedDirectories() throws IOException {
+        update(true);
+        Path deeper = root.resolve("sub").resolve("deeper");
+        FileTime deeperModified = Files.getLastModifiedTime(deeper);
+        Files.writeString(deeper.resolve("hidden-by-pruning.txt"), "x");
+        Files.writeString(deeper.resolve("c.txt"), "changed content");
+        // restore the time of the directory, so pruning considers it unchanged
+        Files.setLastModifiedTime(deeper, deeperModified);
+
+        List<String> pruned = update(true);
+        assertTrue(pruned.contains("*sub/deeper/c.txt"), "Known entries are still compared: " + pruned);
+        assertFalse(pruned.contains("+sub/deeper/hidden-by-pruning.txt"), "Directory must not be listed: " + pruned);
+
+        assertEquals(List.of("+sub/deeper/hidden-by-pruning.txt"), update(false));
+    }
+
+    @Test
+    void comparePathsComponentWise() {
+        assertTrue(DirSnapshot.comparePaths("sub/x", "sub-file.txt") < 0);
+        assertTrue(DirSnapshot.comparePaths("sub", "sub/x") < 0);
+        assertTrue(DirSnapshot.comparePaths("a/z", "b") < 0);
+        assertEquals(0, DirSnapshot.comparePaths("a/b", "a/b"));
+    }
+
+    @Test
+    void rejectInvalidSnapshot() throws IOException {
+        Files.writeString(snapshotFile, "no snapshot");
+        assertThrows(IOException.class, () -> update(true));
+        assertEquals("no snapshot", Files.readString(snapshotFile), "Invalid snapshot must not be replaced");
+    }
+}
@@ -0,0 +1,79 @@
+package ch.zhaw.prog2.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirWalkerTest {
+    @TempDir
+    Path root;
+
+    private Set<String> walk(int maxDepth) throws IOException {
+        StringWriter out = new StringWriter();
+        new DirWalker(out, (metadata, sb) -> sb.append(metadata.name()), maxDepth).walk(root);
+        List<String> lines = out.toString().lines().toList();
+        Set<String> names = new HashSet<>(lines);
+        assertEquals(lines.size(), names.size(), "Entries must be listed once");
+        return names;
+    }
+
+    private static String path(String first, String... more) {
+        return Path.of(first, more).toString();
+    }
+
+    @Test
+    void walkRecursively() throws IOException {
+        Files.writeString(root.resolve("a.txt"), "a");
+        Files.createDirectories(root.resolve("sub").resolve("deeper"));
+        Files.writeString(root.resolve("sub").resolve("b.txt"), "b");
+        Files.writeString(root.resolve("sub").resolve("deeper").resolve("c.txt"), "c");
+
+        assertEquals(Set.of("a.txt", "sub", path("sub", "b.txt"), path("sub", "deeper"), path("sub", "deeper", "c.txt")),
+            walk(Integer.MAX_VALUE));
+        assertEquals(Set.of("a.txt", "sub"), walk(1));
+        assertEquals(Set.of("a.txt", "sub", path("sub", "b.txt"), path("sub", "deeper")), walk(2));
+    }
+
+    @Test
+    void writeLinesInChunks() throws IOException {
+        // more than the flush threshold of a task, in several directories
+        Set<String> expected = new HashSet<>();
+        for (int dir = 0; dir < 4; dir++) {
+            Path directory = Files.createDirectory(root.resolve("dir-" + dir));
+            expected.add(directory.getFileName().toString());
+            for (int file = 0; file < 500; file++) {
+                String name = "file-with-a-rather-long-name-to-fill-the-buffer-" + file;
+                Files.createFile(directory.resolve(name));
+                expected.add(path("dir-" + dir, name));
+            }
+        }
+        assertEquals(expected, walk(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void readMetadata() throws IOException {
+        Path file = Files.writeString(root.resolve(".hidden"), "12345");
+        FileMetadata metadata = FileMetadata.read(file, "name");
+        assertEquals("name", metadata.name());
+        assertFalse(metadata.directory());
+        assertEquals(Files.isReadable(file), metadata.readable());
+        assertEquals(Files.isExecutable(file), metadata.executable());
+        assertEquals(5, metadata.size());
+        assertEquals(Files.getLastModifiedTime(file).toMillis(), metadata.lastModified());
+        assertTrue(FileMetadata.read(root, "root").directory());
+    }
+
+    @Test
+    void invalidMaxDepth() {
+        assertThrows(IllegalArgumentException.class, () -> new DirWalker(new StringWriter(), (metadata, sb) -> { }, 0));
+    }
+}
@@ -0,0 +1,71 @@
+package ch.zhaw.prog2.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskUsageTest {
+    @TempDir
+    Path root;
+
+    private void createFile(Path file, int size) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+    }
+
+    private static String path(String first, String... more) {
+        return Path.of(first, more).toString();
+    }
+
+    @Test
+    void computeTotalsAndLargestEntries() throws IOException {
+        createFile(root.resolve("a.bin"), 100);
+        createFile(root.resolve("big").resolve("b.bin"), 1000);
+        createFile(root.resolve("big").resolve("nested").resolve("c.bin"), 5000);
+        createFile(root.resolve("small").resolve("d.bin"), 10);
+        Files.createDirectory(root.resolve("empty"));
+
+        DiskUsage.Report report = new DiskUsage(2).compute(root, null);
+        assertEquals(6110, report.size());
+        assertEquals(4, report.files());
+        assertEquals(4, report.directories(), "big, big/nested, small and empty");
+        assertEquals(List.of(new DiskUsage.Usage(path("big", "nested", "c.bin"), 5000), new DiskUsage.Usage(path("big", "b.bin"), 1000)),
+            report.largestFiles());
+        // the size of a directory includes its subdirectories
+        assertEquals(List.of(new DiskUsage.Usage("big", 6000), new DiskUsage.Usage(path("big", "nested"), 5000)),
+            report.largestDirectories());
+    }
+
+    @Test
+    void keepOnlyTopCountOfManyEntries() throws IOException {
+        for (int i = 1; i <= 50; i++) {
+            createFile(root.resolve("dir-" + i % 5).resolve("file-" + i), i);
+        }
+        DiskUsage.Report report = new DiskUsage(3).compute(root, null);
+        assertEquals(50 * 51 / 2, report.size());
+        assertEquals(List.of(50L, 49L, 48L), report.largestFiles().stream().map(DiskUsage.Usage::size).toList());
+        assertEquals(3, report.largestDirectories().size());
+        // more entries requested than exist
+        assertEquals(5, new DiskUsage(1000).compute(root, null).largestDirectories().size());
+    }
+
+    @Test
+    void computeEmptyDirectory() {
+        DiskUsage.Report report = new DiskUsage(DiskUsage.DEFAULT_TOP_COUNT).compute(root, null);
+        assertEquals(0, report.size());
+        assertEquals(0, report.files());
+        assertEquals(List.of(), report.largestFiles());
+        assertEquals(List.of(), report.largestDirectories());
+    }
+
+    @Test
+    void invalidTopCount() {
+        assertThrows(IllegalArgumentException.class, () -> new DiskUsage(0));
+    }
+}
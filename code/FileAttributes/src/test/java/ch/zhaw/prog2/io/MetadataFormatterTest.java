@@ -0,0 +1,86 @@
+package ch.zhaw.prog2.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataFormatterTest {
+    private final MetadataFormatter formatter = new MetadataFormatter(ZoneOffset.UTC);
+
+    private static FileMetadata file(String name, long lastModified, long size) {
+        return new FileMetadata(name, false, true, true, false, false, lastModified, size);
+    }
+
+    @Test
+    void formatFlags() {
+        assertEquals("drwxh 1970-01-01 00:00:00          0 dir",
+            formatter.format(new FileMetadata("dir", true, true, true, true, true, 0, 0)));
+        assertEquals("f---- 1970-01-01 00:00:00          0 none",
+            formatter.format(new FileMetadata("none", false, false, false, false, false, 0, 0)));
+    }
+
+    @Test
+    void formatSize() {
+        assertEquals("frw-- 1970-01-01 00:00:00          9 a", formatter.format(file("a", 0, 9)));
+        assertEquals("frw-- 1970-01-01 00:00:00         10 a", formatter.format(file("a", 0, 10)));
+        assertEquals("frw-- 1970-01-01 00:00:00 1234567890 a", formatter.format(file("a", 0, 1234567890L)));
+        assertEquals("frw-- 1970-01-01 00:00:00 12345678901 a", formatter.format(file("a", 0, 12345678901L)));
+        assertEquals("frw-- 1970-01-01 00:00:00         -1 a", formatter.format(file("a", 0, -1)));
+        assertEquals("frw-- 1970-01-01 00:00:00 " + Long.MAX_VALUE + " a", formatter.format(file("a", 0, Long.MAX_VALUE)));
+    }
+
+    @Test
+    void formatTimestamps() {
+        long millis = 1_700_000_000_123L; // 2023-11-14 22:13:20.123 UTC
+        assertEquals("frw-- 2023-11-14 22:13:20          1 a", formatter.format(file("a", millis, 1)));
+        // same second, taken from the cache
+        assertEquals("frw-- 2023-11-14 22:13:20          1 b", formatter.format(file("b", millis + 876, 1)));
+        assertEquals("frw-- 2023-11-14 22:13:21          1 c", formatter.format(file("c", millis + 877, 1)));
+        // before the epoch, seconds are rounded down
+        assertEquals("frw-- 1969-12-31 23:59:59          1 d", formatter.format(file("d", -1, 1)));
+        assertEquals("frw-- 2023-11-14 23:13:20          1 e",
+            new MetadataFormatter(ZoneOffset.ofHours(1)).format(file("e", millis, 1)));
+    }
+
+    @Test
+    void appendToBuilder() {
+        StringBuilder sb = new StringBuilder("> ");
+        formatter.appendTo(file("a", 0, 1), sb);
+        assertEquals("> frw-- 1970-01-01 00:00:00          1 a", sb.toString());
+    }
+
+    @Test
+    void formatConcurrently() throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                long offset = thread * 1000L;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        long seconds = offset + i % 7;
+                        String expected = "frw-- 1970-01-01 %02d:%02d:%02d          1 a"
+                            .formatted(seconds / 3600, seconds / 60 % 60, seconds % 60);
+                        if (!expected.equals(formatter.format(file("a", seconds * 1000, 1)))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(), "Formatted timestamp of another thread");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
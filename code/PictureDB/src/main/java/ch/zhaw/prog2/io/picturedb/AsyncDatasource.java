@@ -0,0 +1,70 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of the {@link Datasource} interface.<br>
+ * Each method starts the operation and returns immediately with a {@link CompletableFuture},
+ * which is completed with the result of the operation. This way, several operations can be started in parallel
+ * and their results combined, instead of waiting for each operation one after another.<br>
+ * If an operation fails, the future is completed exceptionally with the exception the corresponding
+ * {@link Datasource} method would throw, e.g. {@link RecordNotFoundException} or {@link DatasourceException}.
+ *
+ * @param <T> type of the data record to be persisted. Must extend {@link Datarecord}
+ */
+public interface AsyncDatasource<T extends Datarecord> {
+
+    /**
+     * Inserts a new record into the data source.
+     * See {@link Datasource#insert(Datarecord)}.
+     *
+     * @param record of type T to insert into the data source
+     * @return future completed with the inserted record, whose id is set
+     */
+    CompletableFuture<T> insert(T record);
+
+    /**
+     * Updates an existing record in the data source.
+     * See {@link Datasource#update(Datarecord)}.
+     *
+     * @param record to be updated in the data source
+     * @return future completed when the record is updated
+     */
+    CompletableFuture<Void> update(T record);
+
+    /**
+     * Deletes the record from the data source.
+     * See {@link Datasource#delete(Datarecord)}.
+     *
+     * @param record to be deleted from the data source
+     * @return future completed when the record is deleted
+     */
+    CompletableFuture<Void> delete(T record);
+
+    /**
+     * Counts the records in the data source.
+     * See {@link Datasource#count()}.
+     *
+     * @return future completed with the number of records
+     */
+    CompletableFuture<Long> count();
+
+    /**
+     * Retrieves the record identified by the given id.
+     * See {@link Datasource#findById(long)}.
+     *
+     * @param id of the record to retrieve
+     * @return future completed with the record, or {@link Optional#empty()} if it does not exist
+     */
+    CompletableFuture<Optional<T>> findById(long id);
+
+    /**
+     * Retrieves all records of the data source.
+     * See {@link Datasource#findAll()}.
+     *
+     * @return future completed with all records
+     */
+    CompletableFuture<Collection<T>> findAll();
+}
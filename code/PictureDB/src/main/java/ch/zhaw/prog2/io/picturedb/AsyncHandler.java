@@ -0,0 +1,248 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler which publishes log records asynchronously to a target handler.
+ * The records are put into a bounded queue, which is drained in batches by a background thread.
+ * This way, formatting and file I/O of the target handler do not slow down the logging thread.<br>
+ * If the queue is full, the {@link DropPolicy} defines whether the new record is dropped, the oldest queued
+ * record is dropped, or the logging thread waits for free space.<br>
+ * The handler is configured using the following {@link LogManager} properties:<br>
+ * - {@code ch.zhaw.prog2.io.picturedb.AsyncHandler.target} class name of the target handler
+ *   (default: {@code java.util.logging.FileHandler})<br>
+ * - {@code ch.zhaw.prog2.io.picturedb.AsyncHandler.level} level of the handler (default: ALL)<br>
+ * - {@code ch.zhaw.prog2.io.picturedb.AsyncHandler.queueSize} capacity of the queue (default: 1024)<br>
+ * - {@code ch.zhaw.prog2.io.picturedb.AsyncHandler.batchSize} max number of records per batch (default: 128)<br>
+ * - {@code ch.zhaw.prog2.io.picturedb.AsyncHandler.dropPolicy} DROP_NEWEST, DROP_OLDEST or BLOCK
+ *   (default: DROP_NEWEST)<br>
+ * The source class and method of a record are inferred on the logging thread, before the record is queued.<br>
+ * The background thread is started with the first record. When the handler is closed, it publishes all records
+ * queued so far and ends, records published afterwards are ignored.
+ */
+public final class AsyncHandler extends Handler {
+    private static final String PROPERTY_PREFIX = AsyncHandler.class.getName();
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+    private static final int DEFAULT_BATCH_SIZE = 128;
+    // queued by close() after the last record, to end the background thread
+    private static final LogRecord END_OF_QUEUE = new LogRecord(Level.OFF, "end of queue");
+
+    /**
+     * Defines what happens with a record, if the queue is full.
+     */
+    public enum DropPolicy {
+        /** Drop the record to be published. */
+        DROP_NEWEST,
+        /** Drop the oldest record in the queue to make room for the new record. */
+        DROP_OLDEST,
+        /** Wait until there is room in the queue. */
+        BLOCK
+    }
+
+    private final Handler target;
+    private final BlockingQueue<LogRecord> queue;
+    private final int batchSize;
+    private final DropPolicy dropPolicy;
+    private final AtomicLong droppedRecords = new AtomicLong();
+    // held while queuing a record, so close() can wait for records which passed the closed check
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile Thread worker;
+    private boolean closed = false;
+
+    /**
+     * Creates the handler using the configuration of the {@link LogManager}.
+     * This constructor is used by the LogManager, if the handler is configured in the log properties.
+     */
+    public AsyncHandler() {
+        this(createTarget(getProperty("target", "java.util.logging.FileHandler")),
+            Integer.parseInt(getProperty("queueSize", String.valueOf(DEFAULT_QUEUE_SIZE))),
+            Integer.parseInt(getProperty("batchSize", String.valueOf(DEFAULT_BATCH_SIZE))),
+            DropPolicy.valueOf(getProperty("dropPolicy", DropPolicy.DROP_NEWEST.name())));
+        setLevel(Level.parse(getProperty("level", Level.ALL.getName())));
+    }
+
+    /**
+     * Creates the handler publishing to the given target handler.
+     * @param target handler to publish the records to
+     * @param queueSize capacity of the queue
+     * @param batchSize max number of records published per batch
+     * @param dropPolicy policy to apply, if the queue is full
+     */
+    public AsyncHandler(Handler target, int queueSize, int batchSize, DropPolicy dropPolicy) {
+        if (queueSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("queueSize and batchSize must be at least 1");
+        }
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.dropPolicy = dropPolicy;
+    }
+
+    /**
+     * Returns the number of records dropped because the queue was full.
+     * @return number of dropped records
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        // infers the caller, which is not on the stack of the background thread anymore
+        record.getSourceClassName();
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                startWorker();
+                enqueue(record);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void enqueue(LogRecord record) {
+        switch (dropPolicy) {
+            case DROP_NEWEST -> {
+                if (!queue.offer(record)) {
+                    droppedRecords.incrementAndGet();
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!queue.offer(record)) {
+                    if (queue.poll() != null) {
+                        droppedRecords.incrementAndGet();
+                    }
+                }
+            }
+            case BLOCK -> {
+                try {
+                    queue.put(record);
+                } catch (InterruptedException e) {
+                    droppedRecords.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the target handler. Records still in the queue are published by the background thread.
+     */
+    @Override
+    public void flush() {
+        target.flush();
+    }
+
+    /**
+     * Waits until the background thread published all queued records, reports the number of dropped records and
+     * closes the target handler.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        // no record is queued anymore, so the end marker is the last one the background thread takes
+        Thread thread = worker;
+        if (thread != null) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(END_OF_QUEUE);
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long dropped = droppedRecords.get();
+        if (dropped > 0) {
+            target.publish(new LogRecord(Level.WARNING, "AsyncHandler dropped %d log records".formatted(dropped)));
+        }
+        target.close();
+    }
+
+    private void startWorker() {
+        if (worker == null) {
+            synchronized (queue) {
+                if (worker == null) {
+                    Thread thread = new Thread(this::processQueue, "async-log-handler");
+                    thread.setDaemon(true);
+                    thread.start();
+                    worker = thread;
+                }
+            }
+        }
+    }
+
+    private void processQueue() {
+        List<LogRecord> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // the thread ends with the end marker only, so no queued record is lost
+                continue;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            boolean end = batch.get(batch.size() - 1) == END_OF_QUEUE;
+            if (end) {
+                batch.remove(batch.size() - 1);
+            }
+            publishBatch(batch);
+            batch.clear();
+            if (end) {
+                return;
+            }
+        }
+    }
+
+    private void publishBatch(List<LogRecord> batch) {
+        try {
+            for (LogRecord record : batch) {
+                target.publish(record);
+            }
+            target.flush();
+        } catch (RuntimeException e) {
+            reportError("Failed to publish log records", e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    private static String getProperty(String name, String defaultValue) {
+        String value = LogManager.getLogManager().getProperty(PROPERTY_PREFIX + "." + name);
+        return value != null ? value.strip() : defaultValue;
+    }
+
+    private static Handler createTarget(String className) {
+        try {
+            return (Handler) ClassLoader.getSystemClassLoader().loadClass(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Failed to create target handler " + className, e);
+        }
+    }
+}
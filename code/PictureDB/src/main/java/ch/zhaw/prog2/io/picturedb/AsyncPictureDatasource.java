@@ -0,0 +1,20 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of the {@link PictureDatasource} interface.
+ */
+public interface AsyncPictureDatasource extends AsyncDatasource<Picture> {
+    /**
+     * Retrieves all images close to a certain position.
+     * See {@link PictureDatasource#findByPosition(float, float, float)}.
+     *
+     * @param longitude longitude coordinate of the center of the square area
+     * @param latitude  latitude coordinate of the center of the square area
+     * @param deviation deviation from the center of the area in longitude and latitude direction
+     * @return future completed with all Picture records in the area
+     */
+    CompletableFuture<Collection<Picture>> findByPosition(float longitude, float latitude, float deviation);
+}
@@ -0,0 +1,192 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decorator for a {@link FilePictureDatasource}, answering requests for ids which don't exist without reading
+ * the data file.<br>
+ * A Bloom filter over the ids of all records tells, if an id definitely doesn't exist. In this case,
+ * {@link #findById(long)} returns empty, and {@link #update(Picture)} and {@link #delete(Picture)} throw a
+ * {@link RecordNotFoundException}, instead of scanning (and for delete copying) the whole data file.
+ * About 1% of the missing ids still pass the filter and are looked up in the data file.<br>
+ * The filter is saved next to the data file as {@code <data file>.bloom} when the datasource is closed,
+ * together with the size and modification time of the data file. When opened, the saved filter is only used if the
+ * data file is unchanged, otherwise it is rebuilt by reading all ids. It is also rebuilt when more records are
+ * inserted than it is sized for, which also removes the ids of deleted records.<br>
+ * All methods are synchronized, so the datasource can be shared by several threads.
+ */
+public class BloomFilterPictureDatasource implements PictureDatasource, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(BloomFilterPictureDatasource.class.getName());
+    private static final String FILTER_SUFFIX = ".bloom";
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final long MIN_CAPACITY = 1024;
+
+    private final FilePictureDatasource delegate;
+    private final File dataFile;
+    private final Path filterFile;
+    private IdBloomFilter filter;
+    private boolean modified = false;
+
+    /**
+     * Creates the decorator, loading the saved filter of the data file or building it.
+     *
+     * @param delegate datasource to forward the calls to
+     */
+    public BloomFilterPictureDatasource(FilePictureDatasource delegate) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.dataFile = delegate.getDatabaseFile();
+        this.filterFile = Path.of(dataFile.getPath() + FILTER_SUFFIX);
+        this.filter = IdBloomFilter.load(filterFile, dataFileStamp());
+        if (filter == null) {
+            rebuild();
+        } else {
+            LOGGER.fine(() -> "Loaded id filter '%s' with %d ids".formatted(filterFile, filter.getSize()));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void insert(Picture picture) {
+        delegate.insert(picture);
+        modified = true;
+        filter.add(picture.getId());
+        if (filter.getSize() > filter.getCapacity()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Fails without reading the data file, if the id is known to be missing.
+     */
+    @Override
+    public synchronized void update(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        requirePossiblyExisting(picture.getId());
+        delegate.update(picture);
+        modified = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Fails without reading the data file, if the id is known to be missing.
+     */
+    @Override
+    public synchronized void delete(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        requirePossiblyExisting(picture.getId());
+        delegate.delete(picture);
+        modified = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long count() {
+        return delegate.count();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Returns empty without reading the data file, if the id is known to be missing.
+     */
+    @Override
+    public synchronized Optional<Picture> findById(long id) {
+        if (!filter.mightContain(id)) {
+            return Optional.empty();
+        }
+        return delegate.findById(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<Picture> findAll() {
+        return delegate.findAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+        return delegate.findByPosition(longitude, latitude, deviation);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        return delegate.countByGrid(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized DateHistogram countByDate(Duration bucketSize) {
+        return delegate.countByDate(bucketSize);
+    }
+
+    /**
+     * Saves the filter next to the data file, if the data was modified.
+     */
+    @Override
+    public synchronized void close() {
+        if (modified) {
+            save();
+        }
+    }
+
+    private void requirePossiblyExisting(long id) throws RecordNotFoundException {
+        if (!filter.mightContain(id)) {
+            throw new RecordNotFoundException("Record not found: " + id);
+        }
+    }
+
+    /**
+     * Builds the filter from the ids of all records, sized for twice the current number of records.
+     */
+    private void rebuild() {
+        Collection<Picture> pictures = delegate.findAll();
+        IdBloomFilter newFilter = new IdBloomFilter(Math.max(MIN_CAPACITY, 2L * pictures.size()), FALSE_POSITIVE_RATE);
+        for (Picture picture : pictures) {
+            newFilter.add(picture.getId());
+        }
+        filter = newFilter;
+        LOGGER.fine(() -> "Built id filter with %d ids for '%s'".formatted(pictures.size(), dataFile));
+        save();
+    }
+
+    /**
+     * Saves the filter. If saving fails, the filter is rebuilt on the next start, so the failure is only logged.
+     */
+    private void save() {
+        try {
+            filter.save(filterFile, dataFileStamp());
+            modified = false;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Couldn't save id filter " + filterFile, e);
+        }
+    }
+
+    /**
+     * Identifies the state of the data file by its size and modification time.
+     */
+    private long dataFileStamp() {
+        return dataFile.length() * 1_000_003L ^ dataFile.lastModified();
+    }
+}
@@ -0,0 +1,618 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import static ch.zhaw.prog2.io.picturedb.FilePictureDatasource.*;
+
+/**
+ * Implements the PictureDatasource Interface keeping all records in memory in primitive columns
+ * (struct of arrays) instead of {@link Picture} objects.<br>
+ * Ids and dates (epoch milliseconds) are stored in {@code long} columns, the coordinates in {@code float} columns.
+ * Titles and URLs are stored UTF-8 encoded in pages of a byte heap, referenced by a single {@code long} per value.
+ * Titles and the URL prefixes up to the last '/' (scheme, host and path) are dictionary encoded: the first
+ * 65536 distinct values of each get a code and are stored only once, later values are stored in the heap.
+ * The columns grow in chunks of 65536 rows, so growing never copies the data.
+ * A record therefore needs 44 bytes plus the length of its file name in the URL and its title, if they are not
+ * encoded, compared to several hundred bytes per record as objects.<br>
+ * {@link Picture} objects are only created for the records returned by the queries. Pictures with the same encoded
+ * title share the title instance.
+ * The rows are kept sorted by id, so ids are found by binary search without an additional index.<br>
+ * The records can be loaded from and saved to the CSV format of {@link FilePictureDatasource}.
+ * Reads run concurrently, writes exclusively.
+ */
+public class ColumnarPictureDatasource implements PictureDatasource {
+    private static final Logger LOGGER = Logger.getLogger(ColumnarPictureDatasource.class.getName());
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StringHeap strings = new StringHeap();
+    private final StringDictionary titleDictionary = new StringDictionary();
+    private final StringDictionary urlPrefixDictionary = new StringDictionary();
+    private final BitSet deleted = new BitSet();
+    private long[][] ids = new long[0][];
+    private long[][] dates = new long[0][];
+    private float[][] longitudes = new float[0][];
+    private float[][] latitudes = new float[0][];
+    private long[][] titles = new long[0][];
+    private int[][] urlPrefixes = new int[0][];
+    private long[][] urls = new long[0][];
+    private int rows = 0;
+    private int deletedRows = 0;
+
+    /**
+     * Creates an empty datasource.
+     */
+    public ColumnarPictureDatasource() {
+    }
+
+    /**
+     * Creates a datasource with the records of the given CSV file. The records keep their ids.
+     * If the file contains an id more than once, only one of the records is kept.
+     *
+     * @param filepath of a data file in the format of {@link FilePictureDatasource}
+     * @throws IOException if reading the file fails or it contains an invalid row
+     */
+    public ColumnarPictureDatasource(String filepath) throws IOException {
+        DateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+        try (BufferedReader reader = Files.newBufferedReader(Path.of(filepath), CHARSET)) {
+            boolean sorted = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] fields = line.split(DELIMITER);
+                try {
+                    int row = appendRow(Long.parseLong(fields[0]), dateFormat.parse(fields[1]).getTime(),
+                        Float.parseFloat(fields[2]), Float.parseFloat(fields[3]), fields[4], fields[5]);
+                    sorted &= row == 0 || id(row - 1) < id(row);
+                } catch (ParseException | RuntimeException e) {
+                    throw new IOException("Invalid row in '%s': %s".formatted(filepath, line), e);
+                }
+            }
+            if (!sorted) {
+                LOGGER.fine("Sorting rows by id");
+                quickSort(0, rows - 1);
+                removeDuplicates();
+            }
+        }
+        LOGGER.fine(() -> "Loaded %d records from '%s'".formatted(rows, filepath));
+    }
+
+    /**
+     * Saves all records to the given CSV file in the format of {@link FilePictureDatasource}.
+     * The records are written to a temp file, which replaces the file with an atomic move. The temp file is named
+     * like the temp files of {@link FilePictureDatasource}, so it is cleaned up by it after a crash. The temp file is
+     * forced to the storage device before the move, and the directory entry after the move.
+     *
+     * @param filepath of the data file to write
+     * @throws IOException if writing the file fails
+     */
+    public void save(String filepath) throws IOException {
+        Path file = Path.of(filepath).toAbsolutePath();
+        Path tempFile = Files.createTempFile(file.getParent(), "db-" + file.getFileName() + "-", ".tmp");
+        DateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+        lock.readLock().lock();
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, CHARSET)) {
+            for (int row = 0; row < rows; row++) {
+                if (deleted.get(row)) {
+                    continue;
+                }
+                writer.write(String.join(DELIMITER, String.valueOf(id(row)), dateFormat.format(new Date(dates[row >>> CHUNK_BITS][row & CHUNK_MASK])),
+                    String.valueOf(longitudes[row >>> CHUNK_BITS][row & CHUNK_MASK]), String.valueOf(latitudes[row >>> CHUNK_BITS][row & CHUNK_MASK]),
+                    title(row >>> CHUNK_BITS, row & CHUNK_MASK), url(row >>> CHUNK_BITS, row & CHUNK_MASK)));
+                writer.write(System.lineSeparator());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        } finally {
+            lock.readLock().unlock();
+        }
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        FilePictureDatasource.syncDirectory(file.getParent().toFile());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insert(Picture picture) {
+        Objects.requireNonNull(picture, "picture must not be null");
+        lock.writeLock().lock();
+        try {
+            picture.setId(rows == 0 ? 0 : id(rows - 1) + 1);
+            appendRow(picture.getId(), picture.getDate().getTime(), picture.getLongitude(), picture.getLatitude(),
+                picture.getTitle(), picture.getUrl().toExternalForm());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The heap space of the old title and URL is not reused.
+     */
+    @Override
+    public void update(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        lock.writeLock().lock();
+        try {
+            int row = findRow(picture.getId());
+            if (row < 0) {
+                throw new RecordNotFoundException("Record not found: " + picture.getId());
+            }
+            setRow(row, picture.getId(), picture.getDate().getTime(), picture.getLongitude(), picture.getLatitude(),
+                picture.getTitle(), picture.getUrl().toExternalForm());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The row is only marked as deleted, and not reused.
+     */
+    @Override
+    public void delete(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        lock.writeLock().lock();
+        try {
+            int row = findRow(picture.getId());
+            if (row < 0) {
+                throw new RecordNotFoundException("Record not found: " + picture.getId());
+            }
+            deleted.set(row);
+            deletedRows++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        lock.readLock().lock();
+        try {
+            return (long) rows - deletedRows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<Picture> findById(long id) {
+        lock.readLock().lock();
+        try {
+            int row = findRow(id);
+            return row < 0 ? Optional.empty() : Optional.of(toPicture(row));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findAll() {
+        lock.readLock().lock();
+        try {
+            List<Picture> pictures = new ArrayList<>(rows - deletedRows);
+            for (int row = 0; row < rows; row++) {
+                if (!deleted.get(row)) {
+                    pictures.add(toPicture(row));
+                }
+            }
+            return pictures;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the coordinate columns are scanned, Picture objects are created for the matching records only.
+     */
+    @Override
+    public Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+        float minLongitude = longitude - deviation;
+        float maxLongitude = longitude + deviation;
+        float minLatitude = latitude - deviation;
+        float maxLatitude = latitude + deviation;
+        lock.readLock().lock();
+        try {
+            List<Picture> pictures = new ArrayList<>();
+            for (int chunk = 0; chunk * CHUNK_SIZE < rows; chunk++) {
+                float[] chunkLongitudes = longitudes[chunk];
+                float[] chunkLatitudes = latitudes[chunk];
+                int chunkRows = Math.min(CHUNK_SIZE, rows - chunk * CHUNK_SIZE);
+                for (int i = 0; i < chunkRows; i++) {
+                    float testLongitude = chunkLongitudes[i];
+                    float testLatitude = chunkLatitudes[i];
+                    if (testLongitude >= minLongitude && testLongitude <= maxLongitude
+                        && testLatitude >= minLatitude && testLatitude <= maxLatitude) {
+                        int row = chunk * CHUNK_SIZE + i;
+                        if (!deleted.get(row)) {
+                            pictures.add(toPicture(row));
+                        }
+                    }
+                }
+            }
+            return pictures;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the coordinate columns are read, the chunks are counted in parallel.
+     */
+    @Override
+    public GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        GridHistogram empty = new GridHistogram(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+        return aggregate(empty::emptyCopy, (histogram, chunk, index) ->
+            histogram.add(longitudes[chunk][index], latitudes[chunk][index]), GridHistogram::merge).orElse(empty);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the date column is read, the chunks are counted in parallel.
+     */
+    @Override
+    public DateHistogram countByDate(Duration bucketSize) {
+        DateHistogram empty = new DateHistogram(bucketSize);
+        return aggregate(() -> new DateHistogram(bucketSize), (histogram, chunk, index) ->
+            histogram.add(dates[chunk][index]), DateHistogram::merge).orElse(empty);
+    }
+
+    /**
+     * Aggregates the rows of each chunk into its own result in parallel and merges the results.
+     */
+    private <H> Optional<H> aggregate(Supplier<H> factory, RowAggregator<H> aggregator, BinaryOperator<H> merge) {
+        lock.readLock().lock();
+        try {
+            int chunks = (rows + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+            return IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+                H histogram = factory.get();
+                int chunkRows = Math.min(CHUNK_SIZE, rows - chunk * CHUNK_SIZE);
+                for (int index = 0; index < chunkRows; index++) {
+                    if (!deleted.get(chunk * CHUNK_SIZE + index)) {
+                        aggregator.accept(histogram, chunk, index);
+                    }
+                }
+                return histogram;
+            }).reduce(merge);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the records with the given title. Titles in the dictionary are found by comparing their codes,
+     * without decoding the titles of the records.
+     *
+     * @param title of the records
+     * @return matching records
+     */
+    public Collection<Picture> findByTitle(String title) {
+        Objects.requireNonNull(title, "title must not be null");
+        lock.readLock().lock();
+        try {
+            int code = titleDictionary.find(title);
+            List<Picture> pictures = new ArrayList<>();
+            for (int row = 0; row < rows; row++) {
+                long value = titles[row >>> CHUNK_BITS][row & CHUNK_MASK];
+                // a title in the dictionary is always encoded, a title not in it is never
+                boolean matches = code >= 0 ? value == ~code : value >= 0 && strings.get(value).equals(title);
+                if (matches && !deleted.get(row)) {
+                    pictures.add(toPicture(row));
+                }
+            }
+            return pictures;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long id(int row) {
+        return ids[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    /**
+     * Returns the row of the given id using binary search, or -1 if the id does not exist or is deleted.
+     */
+    private int findRow(long id) {
+        int low = 0;
+        int high = rows - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = id(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return deleted.get(mid) ? -1 : mid;
+            }
+        }
+        return -1;
+    }
+
+    private Picture toPicture(int row) {
+        int chunk = row >>> CHUNK_BITS;
+        int index = row & CHUNK_MASK;
+        try {
+            return new Picture(ids[chunk][index], URI.create(url(chunk, index)).toURL(), new Date(dates[chunk][index]),
+                title(chunk, index), longitudes[chunk][index], latitudes[chunk][index]);
+        } catch (MalformedURLException | IllegalArgumentException e) {
+            throw new DatasourceException("Invalid URL of record " + ids[chunk][index], e);
+        }
+    }
+
+    private int appendRow(long id, long date, float longitude, float latitude, String title, String url) {
+        if (rows == Integer.MAX_VALUE) {
+            throw new DatasourceException("Datasource is full");
+        }
+        int chunk = rows >>> CHUNK_BITS;
+        if (chunk == ids.length) {
+            ids = Arrays.copyOf(ids, chunk + 1);
+            ids[chunk] = new long[CHUNK_SIZE];
+            dates = Arrays.copyOf(dates, chunk + 1);
+            dates[chunk] = new long[CHUNK_SIZE];
+            longitudes = Arrays.copyOf(longitudes, chunk + 1);
+            longitudes[chunk] = new float[CHUNK_SIZE];
+            latitudes = Arrays.copyOf(latitudes, chunk + 1);
+            latitudes[chunk] = new float[CHUNK_SIZE];
+            titles = Arrays.copyOf(titles, chunk + 1);
+            titles[chunk] = new long[CHUNK_SIZE];
+            urlPrefixes = Arrays.copyOf(urlPrefixes, chunk + 1);
+            urlPrefixes[chunk] = new int[CHUNK_SIZE];
+            urls = Arrays.copyOf(urls, chunk + 1);
+            urls[chunk] = new long[CHUNK_SIZE];
+        }
+        int row = rows++;
+        setRow(row, id, date, longitude, latitude, title, url);
+        return row;
+    }
+
+    private void setRow(int row, long id, long date, float longitude, float latitude, String title, String url) {
+        int chunk = row >>> CHUNK_BITS;
+        int index = row & CHUNK_MASK;
+        ids[chunk][index] = id;
+        dates[chunk][index] = date;
+        longitudes[chunk][index] = longitude;
+        latitudes[chunk][index] = latitude;
+        int titleCode = titleDictionary.encode(title);
+        // dictionary codes are stored as negative values, heap references are positive
+        titles[chunk][index] = titleCode < 0 ? strings.add(title) : ~titleCode;
+        int prefixLength = url.lastIndexOf('/') + 1;
+        int prefixCode = urlPrefixDictionary.encode(url.substring(0, prefixLength));
+        urlPrefixes[chunk][index] = prefixCode;
+        urls[chunk][index] = strings.add(prefixCode < 0 ? url : url.substring(prefixLength));
+    }
+
+    private String title(int chunk, int index) {
+        long title = titles[chunk][index];
+        return title < 0 ? titleDictionary.get((int) ~title) : strings.get(title);
+    }
+
+    private String url(int chunk, int index) {
+        int prefixCode = urlPrefixes[chunk][index];
+        String suffix = strings.get(urls[chunk][index]);
+        return prefixCode < 0 ? suffix : urlPrefixDictionary.get(prefixCode) + suffix;
+    }
+
+    /**
+     * Sorts the rows by id with an in-place quicksort, swapping the values of all columns.
+     */
+    private void quickSort(int from, int to) {
+        while (from < to) {
+            if (to - from < 16) {
+                for (int i = from + 1; i <= to; i++) {
+                    for (int j = i; j > from && id(j - 1) > id(j); j--) {
+                        swap(j - 1, j);
+                    }
+                }
+                return;
+            }
+            long pivot = id((from + to) >>> 1);
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (id(i) < pivot) {
+                    i++;
+                }
+                while (id(j) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // recurse into the smaller part to limit the stack depth
+            if (j - from < to - i) {
+                quickSort(from, j);
+                from = i;
+            } else {
+                quickSort(i, to);
+                to = j;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        int chunkA = a >>> CHUNK_BITS;
+        int indexA = a & CHUNK_MASK;
+        int chunkB = b >>> CHUNK_BITS;
+        int indexB = b & CHUNK_MASK;
+        long id = ids[chunkA][indexA];
+        ids[chunkA][indexA] = ids[chunkB][indexB];
+        ids[chunkB][indexB] = id;
+        long date = dates[chunkA][indexA];
+        dates[chunkA][indexA] = dates[chunkB][indexB];
+        dates[chunkB][indexB] = date;
+        float longitude = longitudes[chunkA][indexA];
+        longitudes[chunkA][indexA] = longitudes[chunkB][indexB];
+        longitudes[chunkB][indexB] = longitude;
+        float latitude = latitudes[chunkA][indexA];
+        latitudes[chunkA][indexA] = latitudes[chunkB][indexB];
+        latitudes[chunkB][indexB] = latitude;
+        long title = titles[chunkA][indexA];
+        titles[chunkA][indexA] = titles[chunkB][indexB];
+        titles[chunkB][indexB] = title;
+        int urlPrefix = urlPrefixes[chunkA][indexA];
+        urlPrefixes[chunkA][indexA] = urlPrefixes[chunkB][indexB];
+        urlPrefixes[chunkB][indexB] = urlPrefix;
+        long url = urls[chunkA][indexA];
+        urls[chunkA][indexA] = urls[chunkB][indexB];
+        urls[chunkB][indexB] = url;
+        boolean deletedA = deleted.get(a);
+        deleted.set(a, deleted.get(b));
+        deleted.set(b, deletedA);
+    }
+
+    /**
+     * Removes all but one row of each id by moving the following rows up, after the rows are sorted by id.
+     */
+    private void removeDuplicates() {
+        int target = 0;
+        for (int row = 0; row < rows; row++) {
+            if (target > 0 && id(target - 1) == id(row)) {
+                long id = id(row);
+                LOGGER.warning(() -> "Ignoring duplicate id " + id);
+                continue;
+            }
+            if (target != row) {
+                swap(target, row);
+            }
+            target++;
+        }
+        rows = target;
+    }
+
+    /**
+     * Aggregates a row, given by its chunk and index in the chunk, into the result of a chunk.
+     */
+    @FunctionalInterface
+    private interface RowAggregator<H> {
+        void accept(H histogram, int chunk, int index);
+    }
+
+    /**
+     * Dictionary assigning codes to the first {@value #MAX_SIZE} distinct values, so each is stored only once.
+     */
+    private static final class StringDictionary {
+        private static final int MAX_SIZE = 1 << 16;
+
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        /**
+         * Returns the code of the value, adding it if the dictionary is not full, or -1.
+         */
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null && values.size() < MAX_SIZE) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code == null ? -1 : code;
+        }
+
+        /**
+         * Returns the code of the value, or -1 if it is not in the dictionary.
+         */
+        int find(String value) {
+            return codes.getOrDefault(value, -1);
+        }
+
+        String get(int code) {
+            return values.get(code);
+        }
+    }
+
+    /**
+     * Append-only heap of UTF-8 encoded strings in pages of 1 MiB.
+     * A string is referenced by a single long containing its page, offset and length.
+     */
+    private static final class StringHeap {
+        private static final int PAGE_BITS = 20;
+        private static final int PAGE_SIZE = 1 << PAGE_BITS;
+        private static final int LENGTH_BITS = 16;
+        private static final int MAX_LENGTH = (1 << LENGTH_BITS) - 1;
+
+        private byte[][] pages = new byte[0][];
+        private int position = PAGE_SIZE;
+
+        long add(String value) {
+            byte[] bytes = value.getBytes(CHARSET);
+            if (bytes.length > MAX_LENGTH) {
+                throw new DatasourceException("Value too long: %d bytes".formatted(bytes.length));
+            }
+            if (position + bytes.length > PAGE_SIZE) {
+                pages = Arrays.copyOf(pages, pages.length + 1);
+                pages[pages.length - 1] = new byte[PAGE_SIZE];
+                position = 0;
+            }
+            long page = pages.length - 1;
+            System.arraycopy(bytes, 0, pages[(int) page], position, bytes.length);
+            long reference = page << (PAGE_BITS + LENGTH_BITS) | (long) position << LENGTH_BITS | bytes.length;
+            position += bytes.length;
+            return reference;
+        }
+
+        String get(long reference) {
+            int page = (int) (reference >>> (PAGE_BITS + LENGTH_BITS));
+            int offset = (int) (reference >>> LENGTH_BITS) & (PAGE_SIZE - 1);
+            int length = (int) reference & MAX_LENGTH;
+            return new String(pages[page], offset, length, CHARSET);
+        }
+    }
+}
@@ -0,0 +1,634 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static ch.zhaw.prog2.io.picturedb.FilePictureDatasource.*;
+
+/**
+ * Implements the PictureDatasource Interface storing the records in a file of independently compressed blocks.<br>
+ * Each block contains up to {@value #BLOCK_RECORDS} rows in the CSV format of {@link FilePictureDatasource},
+ * compressed with Deflate. As URLs and titles repeat a lot, the file is several times smaller than the CSV file.
+ * The file starts with a header (magic number and version), followed by the blocks.
+ * Each block has a header with its compressed and uncompressed length, the number of records, the lowest and highest
+ * id and a CRC32 checksum of the compressed data.<br>
+ * The block headers form the block index, which is read into memory when the datasource is opened.
+ * {@link #findById(long)} only decompresses the blocks whose id range contains the id, scans decompress all blocks
+ * in parallel.<br>
+ * Inserts append a new block. Once the small blocks at the end of the file together hold {@value #BLOCK_RECORDS}
+ * records, they are merged into a single block. Updates, deletes and merges write a temp file, copying the unchanged
+ * blocks without decompressing them, which atomically replaces the data file.
+ * A block torn by a crash while appending is detected by its length or checksum and truncated when the datasource
+ * is opened.<br>
+ * Reads run concurrently, writes exclusively.
+ */
+public class CompressedPictureDatasource implements PictureDatasource, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(CompressedPictureDatasource.class.getName());
+    private static final int MAGIC = 0x50444243; // "PDBC"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 32;
+    private static final int BLOCK_RECORDS = 256;
+    private static final String ROW_SEPARATOR = "\n";
+
+    private final Path databaseFile;
+    private final boolean syncWrites;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private List<Block> blocks = new ArrayList<>();
+    private long records = 0;
+    private long nextId = 0;
+
+    /**
+     * Opens the datasource with the given file path as datafile, creating the file if it does not exist.
+     *
+     * @param filepath   of the file to use as database file
+     * @param syncWrites true to force each write to the storage device before it returns
+     * @throws IOException if accessing or creating the file fails, or it is not a compressed data file
+     */
+    public CompressedPictureDatasource(String filepath, boolean syncWrites) throws IOException {
+        this.databaseFile = Path.of(filepath).toAbsolutePath();
+        this.syncWrites = syncWrites;
+        this.channel = FileChannel.open(databaseFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                writeFully(channel, fileHeader(), 0);
+                sync(channel);
+            } else {
+                buildIndex();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a compressed data file with the records of the given datasource, keeping their ids.
+     * This converts e.g. the CSV file of a {@link FilePictureDatasource}.
+     *
+     * @param source     datasource to copy the records from
+     * @param filepath   of the new data file, which must not exist
+     * @param syncWrites true to force each write to the storage device before it returns
+     * @return the datasource of the new data file
+     * @throws IOException if the file exists or writing it fails
+     */
+    public static CompressedPictureDatasource copyOf(PictureDatasource source, String filepath, boolean syncWrites) throws IOException {
+        if (Files.exists(Path.of(filepath))) {
+            throw new IOException("File already exists: " + filepath);
+        }
+        List<Picture> pictures = new ArrayList<>(source.findAll());
+        pictures.sort(Comparator.comparingLong(Picture::getId));
+        CompressedPictureDatasource datasource = new CompressedPictureDatasource(filepath, syncWrites);
+        datasource.lock.writeLock().lock();
+        try {
+            datasource.appendBlocks(datasource.toRows(pictures));
+            datasource.nextId = pictures.isEmpty() ? 0 : pictures.get(pictures.size() - 1).getId() + 1;
+        } catch (IOException e) {
+            datasource.close();
+            throw e;
+        } finally {
+            datasource.lock.writeLock().unlock();
+        }
+        return datasource;
+    }
+
+    /**
+     * Returns the number of blocks of the data file.
+     * @return number of blocks
+     */
+    public int getBlockCount() {
+        lock.readLock().lock();
+        try {
+            return blocks.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insert(Picture picture) {
+        Objects.requireNonNull(picture, "picture must not be null");
+        insertAll(List.of(picture));
+    }
+
+    /**
+     * Inserts the pictures with consecutive ids, appending full blocks in a single write.
+     *
+     * @param pictures to insert, their ids are set
+     */
+    public void insertAll(List<Picture> pictures) {
+        lock.writeLock().lock();
+        try {
+            for (Picture picture : pictures) {
+                picture.setId(nextId++);
+            }
+            appendBlocks(toRows(pictures));
+            mergeTail();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "An error occurred while inserting entry.", e);
+            throw new DatasourceException("Error while inserting record", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the block of the record is recompressed.
+     */
+    @Override
+    public void update(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        String row = toRows(List.of(picture)).get(0);
+        modify(picture.getId(), rows -> rows.set(indexOf(rows, picture.getId()), row));
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the block of the record is recompressed.
+     */
+    @Override
+    public void delete(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        modify(picture.getId(), rows -> rows.remove(indexOf(rows, picture.getId())));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The number of records is taken from the block index.
+     */
+    @Override
+    public long count() {
+        lock.readLock().lock();
+        try {
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<Picture> findById(long id) {
+        lock.readLock().lock();
+        try {
+            RawPictureProjection projection = createProjection();
+            for (Block block : blocks) {
+                if (block.contains(id)) {
+                    for (String row : readBlock(block)) {
+                        projection.setRow(row.split(DELIMITER));
+                        if (projection.selectId() == id) {
+                            return projection.convertToPicture();
+                        }
+                    }
+                }
+            }
+            return Optional.empty();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to process db file", e);
+            throw new DatasourceException("Error while reading records", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findAll() {
+        return scan(p -> true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+        return scan(p -> p.selectLongitude() >= longitude - deviation && p.selectLongitude() <= longitude + deviation
+            && p.selectLatitude() >= latitude - deviation && p.selectLatitude() <= latitude + deviation);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The blocks are counted in parallel, only the longitude and latitude of the rows are parsed.
+     */
+    @Override
+    public GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        GridHistogram empty = new GridHistogram(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+        return aggregate(empty::emptyCopy, (histogram, p) -> histogram.add(p.selectLongitude(), p.selectLatitude()),
+            GridHistogram::merge).orElse(empty);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The blocks are counted in parallel, only the date of the rows is parsed.
+     */
+    @Override
+    public DateHistogram countByDate(Duration bucketSize) {
+        DateHistogram empty = new DateHistogram(bucketSize);
+        return aggregate(() -> new DateHistogram(bucketSize), (histogram, p) -> histogram.add(p.selectDate().getTime()),
+            DateHistogram::merge).orElse(empty);
+    }
+
+    /**
+     * Closes the data file.
+     * @throws IOException if closing the file fails
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Decompresses all blocks in parallel and returns the matching records in the order of the blocks.
+     */
+    private List<Picture> scan(Predicate<RawPictureProjection> filter) {
+        lock.readLock().lock();
+        try {
+            return blocks.parallelStream().flatMap(block -> {
+                RawPictureProjection projection = createProjection();
+                List<Picture> pictures = new ArrayList<>();
+                try {
+                    for (String row : readBlock(block)) {
+                        projection.setRow(row.split(DELIMITER));
+                        if (filter.test(projection)) {
+                            projection.convertToPicture().ifPresent(pictures::add);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Failed to process db file", e);
+                    throw new DatasourceException("Error while reading records", e);
+                }
+                return pictures.stream();
+            }).toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Decompresses all blocks in parallel, aggregates the rows of each block into its own result and merges the results.
+     */
+    private <H> Optional<H> aggregate(Supplier<H> factory, BiConsumer<H, RawPictureProjection> aggregator, BinaryOperator<H> merge) {
+        lock.readLock().lock();
+        try {
+            return blocks.parallelStream().map(block -> {
+                RawPictureProjection projection = createProjection();
+                H result = factory.get();
+                try {
+                    for (String row : readBlock(block)) {
+                        projection.setRow(row.split(DELIMITER));
+                        aggregator.accept(result, projection);
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Failed to process db file", e);
+                    throw new DatasourceException("Error while reading records", e);
+                }
+                return result;
+            }).reduce(merge);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the modification to the rows of the block containing the id and replaces the block.
+     */
+    private void modify(long id, Consumer<List<String>> modification) throws RecordNotFoundException {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                if (block.contains(id)) {
+                    List<String> rows = new ArrayList<>(readBlock(block));
+                    if (indexOf(rows, id) >= 0) {
+                        modification.accept(rows);
+                        rewrite(i, i + 1, rows);
+                        return;
+                    }
+                }
+            }
+            throw new RecordNotFoundException("Record not found: " + id);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "An exception occurred while modifying record.", e);
+            throw new DatasourceException("Error while modifying record", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int indexOf(List<String> rows, long id) {
+        String prefix = id + DELIMITER;
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).startsWith(prefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Merges the blocks at the end of the file, which are not full, as soon as they hold enough records
+     * for a full block.
+     */
+    private void mergeTail() throws IOException {
+        int from = blocks.size();
+        int tailRecords = 0;
+        while (from > 0 && blocks.get(from - 1).records() < BLOCK_RECORDS) {
+            tailRecords += blocks.get(--from).records();
+        }
+        if (tailRecords >= BLOCK_RECORDS && blocks.size() - from > 1) {
+            LOGGER.fine(() -> "Merging %d blocks at the end of '%s'".formatted(blocks.size(), databaseFile));
+            List<String> rows = new ArrayList<>(tailRecords);
+            for (Block block : blocks.subList(from, blocks.size())) {
+                rows.addAll(readBlock(block));
+            }
+            rewrite(from, blocks.size(), rows);
+        }
+    }
+
+    /**
+     * Appends the rows as blocks at the end of the file with a single write.
+     */
+    private void appendBlocks(List<String> rows) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        long position = channel.size();
+        List<Block> appended = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int from = 0; from < rows.size(); from += BLOCK_RECORDS) {
+            appended.add(writeBlock(out, position + out.size(), rows.subList(from, Math.min(from + BLOCK_RECORDS, rows.size()))));
+        }
+        writeFully(channel, ByteBuffer.wrap(out.toByteArray()), position);
+        sync(channel);
+        blocks.addAll(appended);
+        records += rows.size();
+    }
+
+    /**
+     * Replaces the blocks from (inclusive) to (exclusive) by blocks of the given rows. The data file is rewritten
+     * to a temp file, copying all other blocks without decompressing them, which replaces the data file.
+     */
+    private void rewrite(int from, int to, List<String> rows) throws IOException {
+        Path tempFile = Files.createTempFile(databaseFile.getParent(), "db-" + databaseFile.getFileName() + "-", ".tmp");
+        List<Block> newBlocks = new ArrayList<>(blocks.size());
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            writeFully(out, fileHeader(), 0);
+            long position = FILE_HEADER_SIZE;
+            for (Block block : blocks.subList(0, from)) {
+                newBlocks.add(copyBlock(block, out, position));
+                position += block.size();
+            }
+            long rowsPosition = position;
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (int i = 0; i < rows.size(); i += BLOCK_RECORDS) {
+                Block block = writeBlock(buffer, position, rows.subList(i, Math.min(i + BLOCK_RECORDS, rows.size())));
+                newBlocks.add(block);
+                position += block.size();
+            }
+            writeFully(out, ByteBuffer.wrap(buffer.toByteArray()), rowsPosition);
+            for (Block block : blocks.subList(to, blocks.size())) {
+                newBlocks.add(copyBlock(block, out, position));
+                position += block.size();
+            }
+            sync(out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        channel.close();
+        try {
+            Files.move(tempFile, databaseFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            channel = FileChannel.open(databaseFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        if (syncWrites) {
+            FilePictureDatasource.syncDirectory(databaseFile.getParent().toFile());
+        }
+        blocks = newBlocks;
+        records = newBlocks.stream().mapToLong(Block::records).sum();
+    }
+
+    private Block copyBlock(Block block, FileChannel out, long position) throws IOException {
+        long copied = 0;
+        while (copied < block.size()) {
+            copied += channel.transferTo(block.position() + copied, block.size() - copied, out.position(position + copied));
+        }
+        return block.movedTo(position);
+    }
+
+    /**
+     * Compresses the rows and writes the block with its header to the output.
+     */
+    private static Block writeBlock(ByteArrayOutputStream out, long position, List<String> rows) {
+        byte[] raw = String.join(ROW_SEPARATOR, rows).getBytes(CHARSET);
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        for (String row : rows) {
+            long id = Long.parseLong(row.substring(0, row.indexOf(DELIMITER)));
+            minId = Math.min(minId, id);
+            maxId = Math.max(maxId, id);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(compressed.toByteArray());
+        Block block = new Block(position, compressed.size(), raw.length, rows.size(), minId, maxId, (int) crc.getValue());
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        header.putInt(block.length()).putInt(block.rawLength()).putInt(block.records())
+            .putLong(block.minId()).putLong(block.maxId()).putInt(block.checksum());
+        out.writeBytes(header.array());
+        out.writeBytes(compressed.toByteArray());
+        return block;
+    }
+
+    /**
+     * Reads and decompresses the rows of the block, verifying its checksum.
+     */
+    private List<String> readBlock(Block block) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(block.length());
+        readFully(compressed, block.position() + BLOCK_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(compressed.array());
+        if ((int) crc.getValue() != block.checksum()) {
+            throw new IOException("Checksum mismatch in block at %d of '%s'".formatted(block.position(), databaseFile));
+        }
+        byte[] raw = new byte[block.rawLength()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // the compressed data ends before the uncompressed length is reached
+                    throw new IOException("Truncated block at %d of '%s'".formatted(block.position(), databaseFile));
+                }
+                length += inflated;
+            }
+            if (length < raw.length) {
+                throw new IOException("Block at %d of '%s' is shorter than its header".formatted(block.position(), databaseFile));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid block at %d of '%s'".formatted(block.position(), databaseFile), e);
+        } finally {
+            inflater.end();
+        }
+        return List.of(new String(raw, CHARSET).split(ROW_SEPARATOR));
+    }
+
+    /**
+     * Reads the block headers into the block index. An incomplete or corrupt last block, the result of an
+     * interrupted append, is truncated.
+     */
+    private void buildIndex() throws IOException {
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        readFully(fileHeader, 0);
+        if (fileHeader.getInt(0) != MAGIC || fileHeader.getInt(4) != VERSION) {
+            throw new IOException("Not a compressed data file: " + databaseFile);
+        }
+        long size = channel.size();
+        long position = FILE_HEADER_SIZE;
+        long highestId = -1;
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        while (position < size) {
+            Block block = null;
+            if (position + BLOCK_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(header, position);
+                block = new Block(position, header.getInt(0), header.getInt(4), header.getInt(8),
+                    header.getLong(12), header.getLong(20), header.getInt(28));
+            }
+            if (block == null || block.length() < 0 || position + block.size() > size
+                || position + block.size() == size && !isReadable(block)) {
+                long truncatePosition = position;
+                LOGGER.warning(() -> "Truncating incomplete block at %d of '%s'".formatted(truncatePosition, databaseFile));
+                channel.truncate(position);
+                break;
+            }
+            blocks.add(block);
+            records += block.records();
+            highestId = Math.max(highestId, block.maxId());
+            position += block.size();
+        }
+        nextId = highestId + 1;
+        LOGGER.fine(() -> "Indexed %d blocks with %d records in '%s'".formatted(blocks.size(), records, databaseFile));
+    }
+
+    private boolean isReadable(Block block) {
+        try {
+            readBlock(block);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private List<String> toRows(List<Picture> pictures) {
+        RawPictureProjection projection = createProjection();
+        List<String> rows = new ArrayList<>(pictures.size());
+        for (Picture picture : pictures) {
+            projection.setRow(new String[HEADER_COLUMNS.size()]);
+            projection.updateRowFromPicture(picture);
+            rows.add(String.join(DELIMITER, projection.getRow()));
+        }
+        return rows;
+    }
+
+    private static RawPictureProjection createProjection() {
+        return RawPictureProjection.create(new SimpleDateFormat(DATE_FORMAT), HEADER_COLUMNS);
+    }
+
+    private static ByteBuffer fileHeader() {
+        return ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file '%s' at %d".formatted(databaseFile, position + buffer.position()));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private void sync(FileChannel channel) throws IOException {
+        if (syncWrites) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Entry of the block index: position of the block header in the data file, compressed and uncompressed length,
+     * number of records, lowest and highest id and the CRC32 checksum of the compressed data.
+     */
+    private record Block(long position, int length, int rawLength, int records, long minId, long maxId, int checksum) {
+        long size() {
+            return BLOCK_HEADER_SIZE + (long) length;
+        }
+
+        boolean contains(long id) {
+            return id >= minId && id <= maxId;
+        }
+
+        Block movedTo(long newPosition) {
+            return new Block(newPosition, length, rawLength, records, minId, maxId, checksum);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects performance metrics of a {@link Datasource}.<br>
+ * For each {@link Operation} a {@link LatencyHistogram} is recorded by {@link MeteredDatasource}.
+ * Additionally, the datasource implementation can record the number of scanned rows, bytes read and written,
+ * temp file rewrites and cache hits and misses.<br>
+ * The metrics can be exposed as JMX MBeans using {@link #registerMBeans()} and published periodically using a
+ * {@link MetricsReporter}.<br>
+ * The instance returned by {@link #disabled()} ignores all recordings, so instrumented code only pays for a
+ * single field read, if metrics are not required.
+ */
+public class DatasourceMetrics implements DatasourceMetricsMXBean {
+    private static final Logger LOGGER = Logger.getLogger(DatasourceMetrics.class.getName());
+    private static final String OBJECT_NAME_PREFIX = "ch.zhaw.prog2.io.picturedb:type=Datasource,name=";
+    private static final DatasourceMetrics DISABLED = new DatasourceMetrics("disabled", false);
+
+    /**
+     * Operations of a datasource, for which the latency is recorded.
+     */
+    public enum Operation {
+        INSERT, UPDATE, DELETE, COUNT, FIND_BY_ID, FIND_ALL, FIND_BY_POSITION, COUNT_BY_GRID, COUNT_BY_DATE
+    }
+
+    private final String name;
+    private final boolean enabled;
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+    private final LongAdder rowsScanned = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder tempFileRewrites = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    /**
+     * Creates enabled metrics with the given name.
+     * @param name name of the datasource, used as part of the JMX object names
+     */
+    public DatasourceMetrics(String name) {
+        this(name, true);
+    }
+
+    private DatasourceMetrics(String name, boolean enabled) {
+        this.name = Objects.requireNonNull(name, "name must not be null");
+        this.enabled = enabled;
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationMetrics());
+        }
+    }
+
+    /**
+     * Returns the shared metrics instance, which does not record anything.
+     * @return disabled metrics
+     */
+    public static DatasourceMetrics disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Returns the name of the metrics.
+     * @return name of the datasource
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the metrics of the given operation.
+     * @param operation operation to get the metrics for
+     * @return latency metrics of the operation
+     */
+    public OperationMetrics getOperation(Operation operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * Records a call of the given operation.
+     * @param operation called operation
+     * @param nanos duration of the call in nanoseconds
+     * @param failed true if the call failed with an exception
+     */
+    public void recordCall(Operation operation, long nanos, boolean failed) {
+        if (enabled) {
+            operations.get(operation).record(nanos, failed);
+        }
+    }
+
+    /**
+     * Records the number of rows read from the data file.
+     * @param rows number of rows
+     */
+    public void recordRowsScanned(long rows) {
+        if (enabled) {
+            rowsScanned.add(rows);
+        }
+    }
+
+    /**
+     * Records the number of bytes read from the data file.
+     * @param bytes number of bytes
+     */
+    public void recordBytesRead(long bytes) {
+        if (enabled) {
+            bytesRead.add(bytes);
+        }
+    }
+
+    /**
+     * Records the number of bytes written to a data or temp file.
+     * @param bytes number of bytes
+     */
+    public void recordBytesWritten(long bytes) {
+        if (enabled) {
+            bytesWritten.add(bytes);
+        }
+    }
+
+    /**
+     * Records a rewrite of the data file using a temp file.
+     */
+    public void recordTempFileRewrite() {
+        if (enabled) {
+            tempFileRewrites.increment();
+        }
+    }
+
+    /**
+     * Records a lookup of a cache or index.
+     * @param hit true if the lookup could be answered by the cache
+     */
+    public void recordCacheLookup(boolean hit) {
+        if (enabled) {
+            (hit ? cacheHits : cacheMisses).increment();
+        }
+    }
+
+    @Override
+    public long getRowsScanned() {
+        return rowsScanned.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getTempFileRewrites() {
+        return tempFileRewrites.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long hits = cacheHits.sum();
+        long lookups = hits + cacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public void reset() {
+        operations.values().forEach(OperationMetrics::reset);
+        rowsScanned.reset();
+        bytesRead.reset();
+        bytesWritten.reset();
+        tempFileRewrites.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    /**
+     * Registers the metrics and the metrics of each operation as MBeans at the platform MBean server.
+     * MBeans already registered with the same name are replaced.
+     * @throws DatasourceException if the registration fails
+     */
+    public void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name)), this);
+            for (Map.Entry<Operation, OperationMetrics> entry : operations.entrySet()) {
+                register(server, operationObjectName(entry.getKey()), entry.getValue());
+            }
+        } catch (JMException e) {
+            throw new DatasourceException("Failed to register metrics MBeans", e);
+        }
+    }
+
+    /**
+     * Unregisters the MBeans registered by {@link #registerMBeans()}.
+     */
+    public void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            unregister(server, new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name)));
+            for (Operation operation : Operation.values()) {
+                unregister(server, operationObjectName(operation));
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Failed to unregister metrics MBeans", e);
+        }
+    }
+
+    /**
+     * Calls the given reporter periodically on a background thread.
+     * @param reporter reporter to publish the metrics
+     * @param period time between two reports
+     * @return handle to stop the reporting
+     */
+    public AutoCloseable startReporting(MetricsReporter reporter, Duration period) {
+        Objects.requireNonNull(reporter, "reporter must not be null");
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                reporter.report(this);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Metrics reporter failed", e);
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+        return executor::shutdownNow;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Metrics '%s': rows scanned=%d, bytes read=%d, bytes written=%d, temp file rewrites=%d, cache hit ratio=%.2f"
+            .formatted(name, getRowsScanned(), getBytesRead(), getBytesWritten(), getTempFileRewrites(), getCacheHitRatio()));
+        for (Map.Entry<Operation, OperationMetrics> entry : operations.entrySet()) {
+            OperationMetrics metrics = entry.getValue();
+            if (metrics.getCount() > 0) {
+                sb.append("%n  %s: count=%d, errors=%d, mean=%.1fus, p50=%.1fus, p99=%.1fus, max=%.1fus".formatted(
+                    entry.getKey(), metrics.getCount(), metrics.getErrors(), metrics.getMeanMicros(),
+                    metrics.getP50Micros(), metrics.getP99Micros(), metrics.getMaxMicros()));
+            }
+        }
+        return sb.toString();
+    }
+
+    private ObjectName operationObjectName(Operation operation) throws JMException {
+        return new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name) + ",operation=" + operation.name().toLowerCase());
+    }
+
+    private static void register(MBeanServer server, ObjectName objectName, Object mbean) throws JMException {
+        try {
+            server.registerMBean(mbean, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            server.unregisterMBean(objectName);
+            server.registerMBean(mbean, objectName);
+        }
+    }
+
+    private static void unregister(MBeanServer server, ObjectName objectName) throws JMException {
+        try {
+            server.unregisterMBean(objectName);
+        } catch (InstanceNotFoundException e) {
+            // not registered
+        }
+    }
+
+    /**
+     * Latency histogram and error count of a single operation.
+     */
+    public static class OperationMetrics implements OperationMetricsMXBean {
+        private static final double NANOS_PER_MICRO = 1000.0;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        void record(long nanos, boolean failed) {
+            histogram.record(nanos);
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        void reset() {
+            histogram.reset();
+            errors.reset();
+        }
+
+        /**
+         * Returns the histogram of the latencies of the operation.
+         * @return latency histogram in nanoseconds
+         */
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return histogram.getMean() / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return histogram.getPercentile(50) / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return histogram.getPercentile(99) / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return histogram.getMax() / NANOS_PER_MICRO;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ch.zhaw.prog2.io.picturedb;
+
+/**
+ * JMX management interface exposing the counters of {@link DatasourceMetrics}.
+ * Registered with the object name {@code ch.zhaw.prog2.io.picturedb:type=Datasource,name=<name>}.
+ */
+public interface DatasourceMetricsMXBean {
+    /**
+     * Returns true if metrics are recorded.
+     * @return true if enabled
+     */
+    boolean isEnabled();
+
+    /**
+     * Returns the number of rows read from the data file by all operations.
+     * @return number of scanned rows
+     */
+    long getRowsScanned();
+
+    /**
+     * Returns the number of bytes read from the data file by all operations.
+     * @return number of bytes read
+     */
+    long getBytesRead();
+
+    /**
+     * Returns the number of bytes written to data or temp files by all operations.
+     * @return number of bytes written
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the number of times the data file was rewritten using a temp file.
+     * @return number of temp file rewrites
+     */
+    long getTempFileRewrites();
+
+    /**
+     * Returns the number of lookups answered by a cache or index of the datasource.
+     * @return number of cache hits
+     */
+    long getCacheHits();
+
+    /**
+     * Returns the number of lookups which could not be answered by a cache or index of the datasource.
+     * @return number of cache misses
+     */
+    long getCacheMisses();
+
+    /**
+     * Returns the ratio of cache hits to all cache lookups.
+     * @return cache hit ratio in the range 0..1, or 0 if there was no lookup
+     */
+    double getCacheHitRatio();
+
+    /**
+     * Clears all counters and latency histograms.
+     */
+    void reset();
+}
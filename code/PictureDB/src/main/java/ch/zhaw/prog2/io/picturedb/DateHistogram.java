@@ -0,0 +1,95 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Number of pictures per date bucket of a fixed size.<br>
+ * Buckets are aligned to the epoch (1970-01-01T00:00:00Z), e.g. buckets of one day start at midnight UTC.
+ * Only buckets containing pictures are kept.<br>
+ * A histogram is filled by a single thread. Parallel queries fill one histogram per thread and merge them.
+ */
+public final class DateHistogram {
+    private final Duration bucketSize;
+    private final long bucketMillis;
+    private final Map<Long, long[]> counts = new HashMap<>();
+    // most pictures of a row range fall into the same bucket as the previous one
+    private long lastBucket = Long.MIN_VALUE;
+    private long[] lastCount;
+
+    /**
+     * Creates an empty histogram.
+     *
+     * @param bucketSize size of the buckets, at least one millisecond
+     * @throws IllegalArgumentException if the bucket size is less than one millisecond
+     */
+    public DateHistogram(Duration bucketSize) {
+        this.bucketSize = bucketSize;
+        this.bucketMillis = bucketSize.toMillis();
+        if (bucketMillis < 1) {
+            throw new IllegalArgumentException("bucketSize must be at least 1 ms");
+        }
+    }
+
+    /**
+     * Counts a picture taken at the given time.
+     *
+     * @param epochMillis date of the picture in milliseconds since the epoch
+     */
+    public void add(long epochMillis) {
+        long bucket = Math.floorDiv(epochMillis, bucketMillis);
+        if (bucket != lastBucket) {
+            lastBucket = bucket;
+            lastCount = counts.computeIfAbsent(bucket, b -> new long[1]);
+        }
+        lastCount[0]++;
+    }
+
+    /**
+     * Adds the counts of the other histogram, which must have the same bucket size.
+     *
+     * @param other histogram to add
+     * @return this histogram
+     */
+    public DateHistogram merge(DateHistogram other) {
+        if (other.bucketMillis != bucketMillis) {
+            throw new IllegalArgumentException("Histograms have different bucket sizes");
+        }
+        other.counts.forEach((bucket, count) -> counts.computeIfAbsent(bucket, b -> new long[1])[0] += count[0]);
+        return this;
+    }
+
+    /**
+     * Returns the size of the buckets.
+     * @return bucket size
+     */
+    public Duration getBucketSize() {
+        return bucketSize;
+    }
+
+    /**
+     * Returns the number of pictures per bucket, by the start of the bucket.
+     * @return sorted counts of the non-empty buckets
+     */
+    public SortedMap<Instant, Long> getCounts() {
+        SortedMap<Instant, Long> result = new TreeMap<>();
+        counts.forEach((bucket, count) -> result.put(Instant.ofEpochMilli(bucket * bucketMillis), count[0]));
+        return result;
+    }
+
+    /**
+     * Returns the number of pictures in all buckets.
+     * @return number of pictures
+     */
+    public long getTotal() {
+        long total = 0;
+        for (long[] count : counts.values()) {
+            total += count[0];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,84 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Benchmark measuring the latency of writes of the {@link FilePictureDatasource}
+ * with and without forcing the data to the storage device.<br>
+ * For both modes, a data file with the given number of records is created in a temp directory,
+ * and the given number of updates (rewrite of the data file) and appends is measured.
+ * Usage: {@code DurabilityBenchmark [records] [operations]}
+ */
+public class DurabilityBenchmark {
+    private static final int DEFAULT_RECORDS = 1000;
+    private static final int DEFAULT_OPERATIONS = 200;
+    private static final int WARMUP_OPERATIONS = 20;
+
+    /**
+     * Runs the benchmark.
+     * @param args optional number of records and number of measured operations
+     * @throws IOException if the temp files cannot be created
+     * @throws RecordNotFoundException if an updated record is not found
+     */
+    public static void main(String[] args) throws IOException, RecordNotFoundException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RECORDS;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_OPERATIONS;
+        LogConfiguration.setLogLevel(FilePictureDatasource.class, Level.WARNING);
+
+        System.out.printf("Data file with %d records, %d operations per mode%n", records, operations);
+        for (boolean syncWrites : new boolean[]{false, true}) {
+            Path directory = Files.createTempDirectory("durability-benchmark");
+            Path dataFile = directory.resolve("picture-data.csv");
+            try {
+                FilePictureDatasource datasource = new FilePictureDatasource(dataFile.toString(), DatasourceMetrics.disabled(), syncWrites);
+                datasource.insertAll(createPictures(records));
+                Picture picture = datasource.findById(records / 2).orElseThrow();
+
+                LatencyHistogram updates = new LatencyHistogram();
+                LatencyHistogram appends = new LatencyHistogram();
+                for (int i = 0; i < WARMUP_OPERATIONS + operations; i++) {
+                    long start = System.nanoTime();
+                    datasource.update(picture);
+                    long updated = System.nanoTime();
+                    datasource.insertAll(createPictures(1));
+                    long appended = System.nanoTime();
+                    if (i >= WARMUP_OPERATIONS) {
+                        updates.record(updated - start);
+                        appends.record(appended - updated);
+                    }
+                }
+                print(syncWrites ? "synced" : "unsynced", "update", updates);
+                print(syncWrites ? "synced" : "unsynced", "append", appends);
+            } finally {
+                try (var files = Files.list(directory)) {
+                    for (Path file : files.toList()) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                Files.deleteIfExists(directory);
+            }
+        }
+    }
+
+    private static List<Picture> createPictures(int count) throws IOException {
+        URL url = URI.create("http://example.com/picture.jpg").toURL();
+        Picture[] pictures = new Picture[count];
+        for (int i = 0; i < count; i++) {
+            pictures[i] = new Picture(url, new Date(), "Benchmark picture " + i, i % 360 - 180, i % 180 - 90);
+        }
+        return List.of(pictures);
+    }
+
+    private static void print(String mode, String operation, LatencyHistogram histogram) {
+        System.out.printf("%-8s %-6s mean=%8.1fus p50=%8.1fus p99=%8.1fus max=%8.1fus%n", mode, operation,
+            histogram.getMean() / 1000, histogram.getPercentile(50) / 1000.0,
+            histogram.getPercentile(99) / 1000.0, histogram.getMax() / 1000.0);
+    }
+}
@@ -0,0 +1,210 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implements {@link AsyncDatasource} by running the calls of a blocking {@link Datasource} on an {@link Executor},
+ * by default on virtual threads.<br>
+ * The number of operations is limited in two ways:<br>
+ * - at most {@code maxConcurrent} operations access the datasource at the same time<br>
+ * - at most {@code maxPending} operations are started but not completed. If this limit is reached,
+ *   the calling thread waits until an operation completes (backpressure).<br>
+ * File based datasources like {@link FilePictureDatasource} rewrite the data file on each modification.
+ * Therefore, read operations run concurrently, but insert, update and delete run exclusively.
+ *
+ * @param <T> type of the data record of the datasource
+ */
+public class ExecutorAsyncDatasource<T extends Datarecord> implements AsyncDatasource<T>, AutoCloseable {
+    protected final Datasource<T> delegate;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final Semaphore concurrent;
+    private final Semaphore pending;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Creates the datasource running the calls on the given executor.
+     * The executor is not shut down when the datasource is closed.
+     *
+     * @param delegate datasource to forward the calls to
+     * @param executor executor to run the calls on
+     * @param maxConcurrent max number of operations accessing the datasource at the same time
+     * @param maxPending max number of started operations, before callers have to wait
+     */
+    public ExecutorAsyncDatasource(Datasource<T> delegate, Executor executor, int maxConcurrent, int maxPending) {
+        this(delegate, executor, false, maxConcurrent, maxPending);
+    }
+
+    ExecutorAsyncDatasource(Datasource<T> delegate, Executor executor, boolean ownsExecutor, int maxConcurrent, int maxPending) {
+        if (maxConcurrent < 1 || maxPending < maxConcurrent) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1 and maxPending at least maxConcurrent");
+        }
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.executor = Objects.requireNonNull(executor, "executor must not be null");
+        this.ownsExecutor = ownsExecutor;
+        this.concurrent = new Semaphore(maxConcurrent);
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Creates the datasource running each call on a new virtual thread.
+     * The virtual threads are stopped when the datasource is closed.
+     *
+     * @param delegate datasource to forward the calls to
+     * @param maxConcurrent max number of operations accessing the datasource at the same time
+     * @param maxPending max number of started operations, before callers have to wait
+     * @param <T> type of the data record of the datasource
+     * @return asynchronous datasource
+     */
+    public static <T extends Datarecord> ExecutorAsyncDatasource<T> ofVirtualThreads(Datasource<T> delegate, int maxConcurrent, int maxPending) {
+        return new ExecutorAsyncDatasource<>(delegate, Executors.newVirtualThreadPerTaskExecutor(), true, maxConcurrent, maxPending);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<T> insert(T record) {
+        Objects.requireNonNull(record, "record must not be null");
+        return submit(true, () -> {
+            delegate.insert(record);
+            return record;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> update(T record) {
+        Objects.requireNonNull(record, "record must not be null");
+        return submit(true, () -> {
+            delegate.update(record);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> delete(T record) {
+        Objects.requireNonNull(record, "record must not be null");
+        return submit(true, () -> {
+            delegate.delete(record);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Long> count() {
+        return submit(false, delegate::count);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Optional<T>> findById(long id) {
+        return submit(false, () -> delegate.findById(id));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Collection<T>> findAll() {
+        return submit(false, delegate::findAll);
+    }
+
+    /**
+     * Shuts down the executor, if it was created by this datasource, and waits for running operations to complete.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor && executor instanceof ExecutorService executorService) {
+            executorService.shutdown();
+            try {
+                executorService.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs the given call on the executor, respecting the limits of pending and concurrent operations.
+     * Waits if the max number of pending operations is reached.
+     *
+     * @param write true if the call modifies the datasource and has to run exclusively
+     * @param call call to run
+     * @param <R> type of the result of the call
+     * @return future completed with the result of the call
+     */
+    protected <R> CompletableFuture<R> submit(boolean write, DatasourceCall<R> call) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new DatasourceException("Interrupted while waiting for a free slot", e));
+        }
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(write, call, future));
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            future.completeExceptionally(new DatasourceException("Operation rejected by executor", e));
+        }
+        return future;
+    }
+
+    private <R> void run(boolean write, DatasourceCall<R> call, CompletableFuture<R> future) {
+        try {
+            concurrent.acquire();
+        } catch (InterruptedException e) {
+            pending.release();
+            future.completeExceptionally(new DatasourceException("Interrupted while waiting for a free slot", e));
+            return;
+        }
+        Lock operationLock = write ? lock.writeLock() : lock.readLock();
+        operationLock.lock();
+        try {
+            future.complete(call.call());
+        } catch (RecordNotFoundException | RuntimeException e) {
+            future.completeExceptionally(e);
+        } catch (Throwable t) {
+            // errors must complete the future as well, otherwise callers waiting for it would hang
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            operationLock.unlock();
+            concurrent.release();
+            pending.release();
+        }
+    }
+
+    /**
+     * Blocking call to the datasource.
+     *
+     * @param <R> type of the result
+     */
+    @FunctionalInterface
+    protected interface DatasourceCall<R> {
+        R call() throws RecordNotFoundException;
+    }
+}
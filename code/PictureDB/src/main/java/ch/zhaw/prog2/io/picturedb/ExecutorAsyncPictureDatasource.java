@@ -0,0 +1,54 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Implements {@link AsyncPictureDatasource} by running the calls of a blocking {@link PictureDatasource}
+ * on an {@link Executor}, additionally supporting {@link #findByPosition(float, float, float)}.
+ * See {@link ExecutorAsyncDatasource} for the limits of concurrent and pending operations.
+ */
+public class ExecutorAsyncPictureDatasource extends ExecutorAsyncDatasource<Picture> implements AsyncPictureDatasource {
+    private final PictureDatasource pictureDelegate;
+
+    /**
+     * Creates the datasource running the calls on the given executor.
+     * The executor is not shut down when the datasource is closed.
+     *
+     * @param delegate datasource to forward the calls to
+     * @param executor executor to run the calls on
+     * @param maxConcurrent max number of operations accessing the datasource at the same time
+     * @param maxPending max number of started operations, before callers have to wait
+     */
+    public ExecutorAsyncPictureDatasource(PictureDatasource delegate, Executor executor, int maxConcurrent, int maxPending) {
+        this(delegate, executor, false, maxConcurrent, maxPending);
+    }
+
+    private ExecutorAsyncPictureDatasource(PictureDatasource delegate, Executor executor, boolean ownsExecutor, int maxConcurrent, int maxPending) {
+        super(delegate, executor, ownsExecutor, maxConcurrent, maxPending);
+        this.pictureDelegate = delegate;
+    }
+
+    /**
+     * Creates the datasource running each call on a new virtual thread.
+     * The virtual threads are stopped when the datasource is closed.
+     *
+     * @param delegate datasource to forward the calls to
+     * @param maxConcurrent max number of operations accessing the datasource at the same time
+     * @param maxPending max number of started operations, before callers have to wait
+     * @return asynchronous datasource
+     */
+    public static ExecutorAsyncPictureDatasource ofVirtualThreads(PictureDatasource delegate, int maxConcurrent, int maxPending) {
+        return new ExecutorAsyncPictureDatasource(delegate, Executors.newVirtualThreadPerTaskExecutor(), true, maxConcurrent, maxPending);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Collection<Picture>> findByPosition(float longitude, float latitude, float deviation) {
+        return submit(false, () -> pictureDelegate.findByPosition(longitude, latitude, deviation));
+    }
+}
@@ -1,15 +1,39 @@
 package ch.zhaw.prog2.io.picturedb;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Implements the PictureDatasource Interface storing the data in
@@ -19,7 +43,7 @@ import java.util.logging.Logger;
  */
 public class FilePictureDatasource implements PictureDatasource {
     private static final Logger LOGGER = Logger.getLogger(FilePictureDatasource.class.getName());
-    private static final List<String> HEADER_COLUMNS = List.of("id", "date", "longitude", "latitude", "title", "url");
+    static final List<String> HEADER_COLUMNS = List.of("id", "date", "longitude", "latitude", "title", "url");
 
 
     // Charset to use for file encoding.
@@ -28,9 +52,26 @@ public class FilePictureDatasource implements PictureDatasource {
     protected static final String DELIMITER = ";";
     // Date format to use for date specific record fields
     protected static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    // Prefix and suffix of the temp files used to rewrite the data file
+    private static final String TEMP_FILE_PREFIX = "db-";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    // temp files of older versions, which did not include the name of the data file
+    private static final Pattern LEGACY_TEMP_FILE_PATTERN = Pattern.compile("db-\\d+\\.tmp");
+    // temp files modified after the start of this process may belong to writes of other instances still running
+    private static final long PROCESS_START = ProcessHandle.current().info().startInstant()
+        .map(Instant::toEpochMilli)
+        .orElseGet(System::currentTimeMillis);
+    // aggregations split the data file into segments of at least this size, read in parallel
+    private static final long MIN_SEGMENT_SIZE = 1 << 20;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    // sorted scans: estimated heap size of a picture in addition to its characters, prefix of the sorted runs
+    private static final long PICTURE_OVERHEAD = 200;
+    private static final String RUN_FILE_PREFIX = "picture-sort-";
+    private static final int MAX_MERGE_RUNS = 64;
 
-    private final DateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
     private final File databaseFile;
+    private final DatasourceMetrics metrics;
+    private final boolean syncWrites;
 
     /**
      * Creates the FilePictureDatasource object with the given file path as datafile.
@@ -41,7 +82,132 @@ public class FilePictureDatasource implements PictureDatasource {
      * @throws IOException if accessing or creating the file fails
      */
     public FilePictureDatasource(String filepath) throws IOException {
-        this.databaseFile = new File(filepath);
+        this(filepath, DatasourceMetrics.disabled());
+    }
+
+    /**
+     * Creates the FilePictureDatasource object with the given file path as datafile,
+     * recording rows scanned, bytes read and written and temp file rewrites in the given metrics.
+     *
+     * @param filepath of the file to use as database file.
+     * @param metrics to record the file access in
+     * @throws IOException if accessing or creating the file fails
+     */
+    public FilePictureDatasource(String filepath, DatasourceMetrics metrics) throws IOException {
+        this(filepath, metrics, true);
+    }
+
+    /**
+     * Creates the FilePictureDatasource object with the given file path as datafile.
+     * If {@code syncWrites} is true, each write is forced to the storage device before it returns, so a committed
+     * write survives a crash of the operating system or a power failure. Otherwise, the data file is still
+     * replaced atomically, but recent writes may be lost on such a crash.<br>
+     * Leftover temp files of writes interrupted by a crash are cleaned up, see {@link #recoverTempFiles()}.
+     *
+     * @param filepath of the file to use as database file.
+     * @param metrics to record the file access in
+     * @param syncWrites true to force each write to the storage device
+     * @throws IOException if accessing or creating the file fails
+     */
+    public FilePictureDatasource(String filepath, DatasourceMetrics metrics, boolean syncWrites) throws IOException {
+        this.databaseFile = new File(filepath).getAbsoluteFile();
+        this.metrics = Objects.requireNonNull(metrics, "metrics must not be null");
+        this.syncWrites = syncWrites;
+        recoverTempFiles();
+        if (databaseFile.createNewFile()) {
+            LOGGER.info(() -> "Created empty data file '%s'".formatted(databaseFile));
+        }
+    }
+
+    /**
+     * Cleans up the temp files of this data file left over by writes interrupted by a crash.
+     * As the data file is only replaced by a complete temp file using an atomic move, the data file is always
+     * complete, and leftover temp files are deleted.
+     * If the data file is missing, it was deleted by an older version, which deleted the data file before renaming
+     * the temp file. In this case the most recent temp file is complete and restored as data file.
+     * The older version named its temp files {@code db-<random number>.tmp}, so these are considered as well.
+     * They can not be attributed to a data file by their name, so they are left alone if the data file exists,
+     * and only restored if each of their rows is a valid record.<br>
+     * Temp files modified after the start of this process are left alone, as they may belong to a write of another
+     * instance or process still running.
+     *
+     * @throws IOException if accessing the temp files fails
+     */
+    private void recoverTempFiles() throws IOException {
+        File parent = databaseFile.getParentFile();
+        File[] tempFiles = parent.listFiles((dir, name) -> name.startsWith(tempFilePrefix()) && name.endsWith(TEMP_FILE_SUFFIX));
+        if (tempFiles == null) {
+            return;
+        }
+        tempFiles = Arrays.stream(tempFiles)
+            .filter(FilePictureDatasource::isLeftover)
+            .sorted(Comparator.comparingLong(File::lastModified))
+            .toArray(File[]::new);
+        int deleteCount = tempFiles.length;
+        if (!databaseFile.exists()) {
+            File[] legacyFiles = parent.listFiles((dir, name) -> LEGACY_TEMP_FILE_PATTERN.matcher(name).matches());
+            Stream<File> legacyDataFiles = legacyFiles == null ? Stream.empty() : Arrays.stream(legacyFiles)
+                .filter(FilePictureDatasource::isLeftover)
+                .filter(FilePictureDatasource::isDataFile);
+            File restored = Stream.concat(Arrays.stream(tempFiles), legacyDataFiles)
+                .max(Comparator.comparingLong(File::lastModified))
+                .orElse(null);
+            if (restored != null) {
+                LOGGER.warning(() -> "Data file '%s' is missing, restoring it from '%s'".formatted(databaseFile, restored));
+                Files.move(restored.toPath(), databaseFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                syncDirectory(parent);
+                if (tempFiles.length > 0 && tempFiles[tempFiles.length - 1].equals(restored)) {
+                    deleteCount--;
+                }
+            }
+        }
+        for (int i = 0; i < deleteCount; i++) {
+            File tempFile = tempFiles[i];
+            LOGGER.info(() -> "Deleting leftover temp file '%s'".formatted(tempFile));
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Returns true if the temp file was last modified before this process started, so no running write uses it.
+     */
+    private static boolean isLeftover(File tempFile) {
+        return tempFile.lastModified() < PROCESS_START;
+    }
+
+    /**
+     * Returns true if each row of the file is a valid record of a data file.
+     */
+    private static boolean isDataFile(File file) {
+        RawPictureProjection projection = RawPictureProjection.create(new SimpleDateFormat(DATE_FORMAT), HEADER_COLUMNS);
+        try (Stream<String> lines = Files.lines(file.toPath(), CHARSET)) {
+            return lines.filter(line -> !line.isBlank()).allMatch(line -> {
+                projection.setRow(line.split(DELIMITER));
+                try {
+                    return projection.convertToPicture().isPresent();
+                } catch (RuntimeException e) {
+                    return false;
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            return false;
+        }
+    }
+
+    private String tempFilePrefix() {
+        return TEMP_FILE_PREFIX + databaseFile.getName() + "-";
+    }
+
+    private File createTempFile() throws IOException {
+        return Files.createTempFile(databaseFile.getParentFile().toPath(), tempFilePrefix(), TEMP_FILE_SUFFIX).toFile();
+    }
+
+    /**
+     * Returns the absolute path of the data file.
+     * @return data file
+     */
+    File getDatabaseFile() {
+        return databaseFile;
     }
 
 
@@ -52,20 +218,22 @@ public class FilePictureDatasource implements PictureDatasource {
     public void insert(Picture picture) {
         Objects.requireNonNull(picture, "picture must not be null");
 
+        PictureStoreEvents.Insert event = new PictureStoreEvents.Insert();
+        event.begin();
+        IoStats stats = newStats(event);
         try {
-            final File parent = new File(databaseFile.getParent());
-            final File tempFile = Files.createTempFile(parent.toPath(), "db-", ".tmp").toFile();
+            final File tempFile = createTempFile();
 
-            LOGGER.finer("Opening db file at '%s'".formatted(databaseFile));
-            LOGGER.finer("Opening temp file at '%s'".formatted(tempFile));
-            try (FileOutputStream oldFileReader = new FileOutputStream(tempFile);
-                 BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(tempFile, true))) {
-                Files.copy(databaseFile.toPath(), oldFileReader);
+            LOGGER.finer(() -> "Opening db file at '%s'".formatted(databaseFile));
+            LOGGER.finer(() -> "Opening temp file at '%s'".formatted(tempFile));
+            try (OutputStream out = openOutputStream(tempFile, stats);
+                 BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(out, CHARSET))) {
+                stats.bytesRead += Files.copy(databaseFile.toPath(), out);
 
-                final RawPictureProjection projection = RawPictureProjection.create(dateFormat, HEADER_COLUMNS);
+                final RawPictureProjection projection = createProjection();
                 projection.setRow(new String[HEADER_COLUMNS.size()]);
 
-                picture.setId(getHighestId() + 1);
+                picture.setId(getHighestId(stats) + 1);
                 projection.updateRowFromPicture(picture);
 
                 bufferedWriter.write(String.join(DELIMITER, projection.getRow()));
@@ -78,7 +246,95 @@ public class FilePictureDatasource implements PictureDatasource {
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, "An error occurred while inserting entry.", ex);
             throw new DatasourceException("Error while inserting record", ex);
+        } finally {
+            record(stats);
+            event.recordId = picture.getId();
+            commit(event, stats);
+        }
+    }
+
+    /**
+     * Inserts all given pictures with a single append to the data file.
+     * The pictures get consecutive ids following the highest id in the data file.
+     * All rows are written with one write and, if writes are synced, forced to the storage device with one
+     * {@link FileChannel#force(boolean)}, so the cost of the id allocation and the sync is shared by all pictures of the batch.
+     *
+     * @param pictures to insert, their ids are ignored and set to the new ids
+     * @throws DatasourceException if an error occurs accessing the data file
+     */
+    public void insertAll(List<Picture> pictures) {
+        appendAll(pictures, true);
+    }
+
+    /**
+     * Appends all given pictures with their current ids to the data file, which is created if it does not exist.
+     * Used by datasources distributing the records over several files, which allocate the ids themselves.
+     * The caller is responsible for the ids to be unique.
+     *
+     * @param pictures to append
+     * @throws DatasourceException if an error occurs accessing the data file
+     */
+    void append(List<Picture> pictures) {
+        appendAll(pictures, false);
+    }
+
+    private void appendAll(List<Picture> pictures, boolean assignIds) {
+        Objects.requireNonNull(pictures, "pictures must not be null");
+        if (pictures.isEmpty()) {
+            return;
+        }
+
+        PictureStoreEvents.Insert event = new PictureStoreEvents.Insert();
+        event.begin();
+        IoStats stats = newStats(event);
+        try {
+            final RawPictureProjection projection = createProjection();
+            projection.setRow(new String[HEADER_COLUMNS.size()]);
+
+            long nextId = assignIds ? getHighestId(stats) + 1 : 0;
+            StringBuilder rows = new StringBuilder();
+            for (Picture picture : pictures) {
+                if (assignIds) {
+                    picture.setId(nextId++);
+                }
+                projection.updateRowFromPicture(picture);
+                rows.append(String.join(DELIMITER, projection.getRow())).append(System.lineSeparator());
+            }
+
+            LOGGER.finer(() -> "Appending %d records to db file at '%s'".formatted(pictures.size(), databaseFile));
+            try (FileChannel channel = FileChannel.open(databaseFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                channel.position(channel.size());
+                if (!endsWithLineBreak(channel)) {
+                    rows.insert(0, System.lineSeparator());
+                }
+                ByteBuffer buffer = CHARSET.encode(CharBuffer.wrap(rows));
+                while (buffer.hasRemaining()) {
+                    stats.bytesWritten += channel.write(buffer);
+                }
+                if (syncWrites) {
+                    channel.force(false);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "An error occurred while inserting entries.", ex);
+            throw new DatasourceException("Error while inserting records", ex);
+        } finally {
+            record(stats);
+            event.recordId = pictures.get(0).getId();
+            event.records = pictures.size();
+            commit(event, stats);
+        }
+    }
+
+    private static boolean endsWithLineBreak(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return true;
         }
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        return last.get(0) == '\n';
     }
 
     /**
@@ -88,23 +344,25 @@ public class FilePictureDatasource implements PictureDatasource {
     public void update(Picture picture) throws RecordNotFoundException {
         Objects.requireNonNull(picture, "picture must not be null");
 
+        PictureStoreEvents.Modify event = new PictureStoreEvents.Modify();
+        event.begin();
+        IoStats stats = newStats(event);
+        boolean didPredicateMatch = false;
         try {
-            final File parent = new File(databaseFile.getParent());
-            final File tempFile = Files.createTempFile(parent.toPath(), "db-", ".tmp").toFile();
+            final File tempFile = createTempFile();
 
-            boolean didPredicateMatch;
-            try (BufferedReader reader = new BufferedReader(new FileReader(databaseFile));
-                 BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
+            try (BufferedReader reader = openReader(stats);
+                 BufferedWriter writer = openWriter(tempFile, stats)) {
 
-                final RawPictureProjection projection = RawPictureProjection.create(dateFormat, HEADER_COLUMNS);
+                final RawPictureProjection projection = createProjection();
                 // predicateDidNotMatch is the best name I could come up with.
                 // The Method copyWhile returns the result of the last predicate invocation.
                 // This means if predicateDidNotMatch is true, we didn't find the record to update and if it's false
                 // we found the record.
-                LOGGER.fine("Copy while looking for id '%d'".formatted(picture.getId()));
-                didPredicateMatch = !copyWhile(reader, writer, projection, picture.getId(), (p, id) -> p.selectId() != id);
+                LOGGER.fine(() -> "Copy while looking for id '%d'".formatted(picture.getId()));
+                didPredicateMatch = !copyWhile(reader, writer, projection, picture.getId(), (p, id) -> p.selectId() != id, stats);
                 if (didPredicateMatch) {
-                    LOGGER.fine("Found id '%d'; Updating entry and writing it back into the data file.");
+                    LOGGER.fine(() -> "Found id '%d'; Updating entry and writing it back into the data file.".formatted(picture.getId()));
                     projection.updateRowFromPicture(picture);
                     writer.write(String.join(DELIMITER, projection.getRow()));
                     writer.write(System.lineSeparator());
@@ -126,6 +384,12 @@ public class FilePictureDatasource implements PictureDatasource {
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, "An exception occurred while updating record.");
             throw new DatasourceException("Error while updating record", ex);
+        } finally {
+            record(stats);
+            event.operation = "update";
+            event.recordId = picture.getId();
+            event.found = didPredicateMatch;
+            commit(event, stats);
         }
     }
 
@@ -136,21 +400,23 @@ public class FilePictureDatasource implements PictureDatasource {
     public void delete(Picture picture) throws RecordNotFoundException {
         Objects.requireNonNull(picture, "picture must not be null");
 
+        PictureStoreEvents.Modify event = new PictureStoreEvents.Modify();
+        event.begin();
+        IoStats stats = newStats(event);
+        boolean didPredicateMatch = false;
         try {
-            final File parent = new File(databaseFile.getParent());
-            final File tempFile = Files.createTempFile(parent.toPath(), "db-", ".tmp").toFile();
-
-            boolean didPredicateMatch;
-            LOGGER.finer("Opening db file at '%s'".formatted(databaseFile));
-            LOGGER.finer("Opening temp file at '%s'".formatted(tempFile));
-            try (BufferedReader reader = new BufferedReader(new FileReader(databaseFile));
-                 BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
-                final RawPictureProjection projection = RawPictureProjection.create(dateFormat, HEADER_COLUMNS);
-
-                LOGGER.fine("Copy while looking for id '%d'.".formatted(picture.getId()));
-                didPredicateMatch = !copyWhile(reader, writer, projection, picture.getId(), (p, id) -> p.selectId() != id);
+            final File tempFile = createTempFile();
+
+            LOGGER.finer(() -> "Opening db file at '%s'".formatted(databaseFile));
+            LOGGER.finer(() -> "Opening temp file at '%s'".formatted(tempFile));
+            try (BufferedReader reader = openReader(stats);
+                 BufferedWriter writer = openWriter(tempFile, stats)) {
+                final RawPictureProjection projection = createProjection();
+
+                LOGGER.fine(() -> "Copy while looking for id '%d'.".formatted(picture.getId()));
+                didPredicateMatch = !copyWhile(reader, writer, projection, picture.getId(), (p, id) -> p.selectId() != id, stats);
                 if (didPredicateMatch) {
-                    LOGGER.fine("Found id '%s'. Transferring left over data.".formatted(picture.getId()));
+                    LOGGER.fine(() -> "Found id '%s'. Transferring left over data.".formatted(picture.getId()));
                     reader.transferTo(writer);
                 }
             } finally {
@@ -159,10 +425,10 @@ public class FilePictureDatasource implements PictureDatasource {
             }
 
             if (didPredicateMatch) {
-                LOGGER.info("Renaming '%s' to '%s'".formatted(tempFile, databaseFile));
+                LOGGER.info(() -> "Renaming '%s' to '%s'".formatted(tempFile, databaseFile));
                 replaceFile(databaseFile, tempFile);
             } else {
-                LOGGER.info("Couldn't find id '%d'. Deleting temp file...".formatted(picture.getId()));
+                LOGGER.info(() -> "Couldn't find id '%d'. Deleting temp file...".formatted(picture.getId()));
                 if (!tempFile.delete())
                     LOGGER.warning("Couldn't delete temp file: " + tempFile);
                 throw new RecordNotFoundException("Record not found: " + picture.getId());
@@ -170,8 +436,13 @@ public class FilePictureDatasource implements PictureDatasource {
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, "An exception occurred while trying to delete record", ex);
             throw new DatasourceException("Error while deleting record", ex);
+        } finally {
+            record(stats);
+            event.operation = "delete";
+            event.recordId = picture.getId();
+            event.found = didPredicateMatch;
+            commit(event, stats);
         }
-
     }
 
     /**
@@ -183,13 +454,15 @@ public class FilePictureDatasource implements PictureDatasource {
      * @param projection to use for reading and writing
      * @param state      to compare against for the predicate
      * @param predicate  to determine when to stop copying
+     * @param stats      to count the scanned rows in
      * @param <T>        type of the state
      * @return true if the {@see predicate} was read to the end of the file, false otherwise
      */
-    private <T> boolean copyWhile(BufferedReader reader, BufferedWriter writer, RawPictureProjection projection, T state, BiFunction<RawPictureProjection, T, Boolean> predicate) throws IOException {
+    private <T> boolean copyWhile(BufferedReader reader, BufferedWriter writer, RawPictureProjection projection, T state, BiFunction<RawPictureProjection, T, Boolean> predicate, IoStats stats) throws IOException {
         boolean foundEntry = true;
         String line = reader.readLine();
         while (line != null && foundEntry) {
+            stats.rows++;
             final String[] rawRow = line.split(DELIMITER);
 
             projection.setRow(rawRow);
@@ -208,19 +481,25 @@ public class FilePictureDatasource implements PictureDatasource {
      */
     @Override
     public long count() {
-        long count = 0;
-        LOGGER.finer("Opening db file at '%s'".formatted(databaseFile));
-        try (BufferedReader reader = new BufferedReader(new FileReader(databaseFile))) {
+        PictureStoreEvents.Scan event = new PictureStoreEvents.Scan();
+        event.begin();
+        IoStats stats = newStats(event);
+        LOGGER.finer(() -> "Opening db file at '%s'".formatted(databaseFile));
+        try (BufferedReader reader = openReader(stats)) {
             while (reader.readLine() != null) {
-                count++;
+                stats.rows++;
             }
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, "Failed to process db file", ex);
             throw new DatasourceException("Error while counting records", ex);
         } finally {
             LOGGER.finer("Closing db file...");
+            record(stats);
+            event.operation = "count";
+            event.results = stats.rows;
+            commit(event, stats);
         }
-        return count;
+        return stats.rows;
     }
 
     /**
@@ -228,13 +507,17 @@ public class FilePictureDatasource implements PictureDatasource {
      */
     @Override
     public Optional<Picture> findById(long id) {
-        LOGGER.finer("Opening db file at '%s'".formatted(databaseFile));
-        try (BufferedReader reader = new BufferedReader(new FileReader(databaseFile))) {
-            final RawPictureProjection projection = RawPictureProjection.create(dateFormat, HEADER_COLUMNS);
+        PictureStoreEvents.FindById event = new PictureStoreEvents.FindById();
+        event.begin();
+        IoStats stats = newStats(event);
+        Picture picture = null;
+        LOGGER.finer(() -> "Opening db file at '%s'".formatted(databaseFile));
+        try (BufferedReader reader = openReader(stats)) {
+            final RawPictureProjection projection = createProjection();
 
-            Picture picture = null;
             String line = reader.readLine();
             while (line != null && picture == null) {
+                stats.rows++;
                 projection.setRow(line.split(DELIMITER));
                 if (projection.selectId() == id) {
                     picture = projection.convertToPicture().orElseThrow();
@@ -247,6 +530,10 @@ public class FilePictureDatasource implements PictureDatasource {
             throw new DatasourceException("Error while reading records", ex);
         } finally {
             LOGGER.finer("Closing db file...");
+            record(stats);
+            event.recordId = id;
+            event.found = picture != null;
+            commit(event, stats);
         }
     }
 
@@ -255,44 +542,457 @@ public class FilePictureDatasource implements PictureDatasource {
      */
     @Override
     public Collection<Picture> findAll() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(databaseFile))) {
-            final RawPictureProjection projector = RawPictureProjection.create(dateFormat, HEADER_COLUMNS);
+        PictureStoreEvents.Scan event = new PictureStoreEvents.Scan();
+        event.begin();
+        IoStats stats = newStats(event);
+        try (BufferedReader reader = openReader(stats)) {
+            final RawPictureProjection projector = createProjection();
 
             ArrayList<Picture> pictures = new ArrayList<>();
             String line = reader.readLine();
             while (line != null) {
+                stats.rows++;
                 projector.setRow(line.split(DELIMITER));
 
                 Optional<Picture> picture = projector.convertToPicture();
                 picture.ifPresent(pictures::add);
                 line = reader.readLine();
             }
+            event.results = pictures.size();
             return pictures;
         } catch (IOException e) {
             throw new DatasourceException("Error while reading records", e);
+        } finally {
+            record(stats);
+            event.operation = "findAll";
+            commit(event, stats);
+        }
+    }
+
+    /**
+     * Returns a page of records in the order of the data file. Pass {@code null} as cursor to read the first page,
+     * and the cursor of the returned page to read the next one.<br>
+     * The cursor contains the position of the last record of the page in the data file, so reading the next page
+     * continues reading there instead of reading the records of all previous pages again.
+     * If the data file was rewritten since (by an update or delete), the position is checked against the id of the
+     * last record, and if it moved, the data file is searched for it. If the last record and the one following
+     * it were both deleted meanwhile, reading continues at the old position, which may skip some records.
+     *
+     * @param cursor cursor returned with the previous page, or {@code null} for the first page
+     * @param limit  maximum number of records of the page
+     * @return page of at most {@code limit} records
+     * @throws IllegalArgumentException if the cursor is invalid or the limit is not positive
+     * @throws DatasourceException if an error occurs accessing the data file
+     */
+    public PicturePage findPage(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        PageCursor previous = cursor == null ? null : PageCursor.decode(cursor);
+        PictureStoreEvents.Scan event = new PictureStoreEvents.Scan();
+        event.begin();
+        IoStats stats = newStats(event);
+        try (FileChannel channel = FileChannel.open(databaseFile.toPath(), StandardOpenOption.READ)) {
+            PageReader reader = new PageReader(previous, limit, createProjection());
+            readRows(channel, previous == null ? 0 : previous.position(), reader, stats);
+            if (reader.seeking) {
+                LOGGER.fine(() -> "Record %d moved, searching data file".formatted(previous.lastId()));
+                reader.scanning = true;
+                readRows(channel, 0, reader, stats);
+            }
+            if (reader.seeking) {
+                LOGGER.fine(() -> "Records %d and %d deleted, continuing at position %d"
+                    .formatted(previous.lastId(), previous.nextId(), previous.position()));
+                reader.seeking = false;
+                readRows(channel, previous.position(), reader, stats);
+            }
+            event.results = reader.pictures.size();
+            return new PicturePage(reader.pictures, reader.hasNext
+                ? new PageCursor(reader.lastPosition, reader.lastId, reader.nextId).encode() : null);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to read db file", e);
+            throw new DatasourceException("Error while reading records", e);
+        } finally {
+            record(stats);
+            event.operation = "findPage";
+            commit(event, stats);
         }
     }
 
-    private void replaceFile(File original, File newFile) {
-        LOGGER.fine("Deleting original file.");
-        if (!original.delete()) {
-            LOGGER.severe("Couldn't delete original file: " + original);
-            throw new IllegalStateException("Couldn't delete file: " + original);
+    /**
+     * Passes the rows starting at or after the given position of the data file to the visitor, together with their
+     * position, until the visitor returns false or the end of the file is reached.
+     */
+    private void readRows(FileChannel channel, long start, RowVisitor visitor, IoStats stats) throws IOException {
+        RawRow row = new RawRow(new SimpleDateFormat(DATE_FORMAT));
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // as for the segments of aggregate(), start after the first line break at or after the byte before the start
+        long position = Math.max(0, start - 1);
+        boolean skipping = start > 0;
+        long lineStart = start;
+        while (true) {
+            buffer.clear();
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                if (!skipping) {
+                    visit(row, lineStart, visitor, stats);
+                }
+                return;
+            }
+            stats.bytesRead += count;
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < count; i++) {
+                byte value = bytes[i];
+                if (value == '\n') {
+                    if (!skipping && !visit(row, lineStart, visitor, stats)) {
+                        return;
+                    }
+                    skipping = false;
+                    lineStart = position + i + 1;
+                } else if (!skipping) {
+                    row.append(value);
+                }
+            }
+            position += count;
+        }
+    }
+
+    private static boolean visit(RawRow row, long position, RowVisitor visitor, IoStats stats) {
+        if (row.length > 0 && row.bytes[row.length - 1] == '\r') {
+            row.length--;
         }
-        LOGGER.fine("Renaming '%s' to '%s'".formatted(newFile, original));
-        if (!newFile.renameTo(original)) {
-            LOGGER.severe("Couldn't rename file: %s to %s!%n".formatted(newFile, original));
-            throw new IllegalStateException("Couldn't rename file: '%s' to '%s'".formatted(newFile, original));
+        boolean proceed = true;
+        if (row.length > 0) {
+            stats.rows++;
+            try {
+                proceed = visitor.visit(row, position);
+            } catch (RuntimeException e) {
+                throw new DatasourceException("Invalid row: " + new String(row.bytes, 0, row.length, CHARSET), e);
+            }
+        }
+        row.length = 0;
+        return proceed;
+    }
+
+    /**
+     * Returns all records in the given order, e.g. {@code Comparator.comparing(Picture::getDate)}.
+     * Records comparing equal keep the order of the data file.<br>
+     * The records are sorted in memory as long as their estimated size fits into the memory budget. Otherwise,
+     * the records read so far are sorted and written to a temp file (a sorted run), and the runs are merged while
+     * the returned stream is consumed. At most {@value #MAX_MERGE_RUNS} runs are merged at once, more runs are first
+     * merged in levels of larger runs.<br>
+     * The stream must be closed, which closes and deletes the runs.
+     *
+     * @param order        order of the records
+     * @param memoryBudget estimated number of bytes of the records held in memory at once
+     * @return stream of all records in the given order
+     * @throws DatasourceException if an error occurs accessing the data file or the temp files
+     */
+    public Stream<Picture> findAllSorted(Comparator<? super Picture> order, long memoryBudget) {
+        return findAllSorted(order, memoryBudget, Path.of(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Returns all records in the given order, writing the sorted runs to the given directory.
+     * See {@link #findAllSorted(Comparator, long)}.
+     */
+    Stream<Picture> findAllSorted(Comparator<? super Picture> order, long memoryBudget, Path runDirectory) {
+        Objects.requireNonNull(order, "order must not be null");
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("memoryBudget must be positive");
+        }
+        PictureStoreEvents.Scan event = new PictureStoreEvents.Scan();
+        event.begin();
+        IoStats stats = newStats(event);
+        List<Path> runs = new ArrayList<>();
+        try (BufferedReader reader = openReader(stats)) {
+            final RawPictureProjection projection = createProjection();
+            List<Picture> pictures = new ArrayList<>();
+            long estimatedSize = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                stats.rows++;
+                projection.setRow(line.split(DELIMITER));
+                pictures.add(projection.convertToPicture().orElseThrow());
+                estimatedSize += PICTURE_OVERHEAD + 2L * line.length();
+                if (estimatedSize > memoryBudget) {
+                    runs.add(writeRun(pictures, order, runDirectory, stats));
+                    pictures.clear();
+                    estimatedSize = 0;
+                }
+            }
+            pictures.sort(order);
+            event.results = stats.rows;
+            if (runs.isEmpty()) {
+                return pictures.stream();
+            }
+            LOGGER.fine(() -> "Sorted %d records in %d runs".formatted(stats.rows, runs.size() + 1));
+            while (runs.size() >= MAX_MERGE_RUNS) {
+                // merge a level: each group of consecutive runs is replaced by one run at its place,
+                // so every record is rewritten once per level and the merge stays stable
+                for (int group = 0; group < runs.size(); group++) {
+                    List<Path> merged = runs.subList(group, Math.min(group + MAX_MERGE_RUNS, runs.size()));
+                    if (merged.size() > 1) {
+                        try (MergeIterator iterator = new MergeIterator(openRuns(merged, Collections.emptyList()), order, merged)) {
+                            Path run = writeRun(iterator, runDirectory, stats);
+                            merged.clear();
+                            runs.add(group, run);
+                        }
+                    }
+                }
+            }
+            MergeIterator iterator = new MergeIterator(openRuns(runs, pictures), order, runs);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+        } catch (IOException | RuntimeException e) {
+            deleteRuns(runs);
+            if (e instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new DatasourceException("Error while sorting records", e);
+        } finally {
+            record(stats);
+            event.operation = "findAllSorted";
+            commit(event, stats);
+        }
+    }
+
+    /**
+     * Returns the first records in the given order, reading the data file once and holding at most
+     * {@code limit} records in a heap.
+     *
+     * @param limit maximum number of records to return
+     * @param order order of the records
+     * @return the first records in the given order
+     * @throws DatasourceException if an error occurs accessing the data file
+     */
+    public List<Picture> findTop(int limit, Comparator<? super Picture> order) {
+        Objects.requireNonNull(order, "order must not be null");
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        PictureStoreEvents.Scan event = new PictureStoreEvents.Scan();
+        event.begin();
+        IoStats stats = newStats(event);
+        try (BufferedReader reader = openReader(stats)) {
+            final RawPictureProjection projection = createProjection();
+            // the head of the heap is the last of the records kept, records comparing equal are ordered by row
+            Comparator<RankedPicture> rank = Comparator.<RankedPicture, Picture>comparing(RankedPicture::picture, order)
+                .thenComparingLong(RankedPicture::row);
+            PriorityQueue<RankedPicture> heap = new PriorityQueue<>(Math.min(limit, 1024) + 1, rank.reversed());
+            String line;
+            while ((line = reader.readLine()) != null && limit > 0) {
+                projection.setRow(line.split(DELIMITER));
+                RankedPicture ranked = new RankedPicture(projection.convertToPicture().orElseThrow(), stats.rows++);
+                if (heap.size() < limit) {
+                    heap.add(ranked);
+                } else if (rank.compare(ranked, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(ranked);
+                }
+            }
+            List<RankedPicture> ranked = new ArrayList<>(heap);
+            ranked.sort(rank);
+            event.results = ranked.size();
+            return ranked.stream().map(RankedPicture::picture).toList();
+        } catch (IOException e) {
+            throw new DatasourceException("Error while reading records", e);
+        } finally {
+            record(stats);
+            event.operation = "findTop";
+            commit(event, stats);
+        }
+    }
+
+    /**
+     * Sorts the records and writes them to a new temp file in the given directory.
+     */
+    private Path writeRun(List<Picture> pictures, Comparator<? super Picture> order, Path directory, IoStats stats) throws IOException {
+        pictures.sort(order);
+        return writeRun(pictures.iterator(), directory, stats);
+    }
+
+    private Path writeRun(Iterator<Picture> pictures, Path directory, IoStats stats) throws IOException {
+        Path run = Files.createTempFile(directory, RUN_FILE_PREFIX, TEMP_FILE_SUFFIX);
+        try (BufferedWriter writer = openWriter(run.toFile(), stats)) {
+            RawPictureProjection projection = createProjection();
+            projection.setRow(new String[HEADER_COLUMNS.size()]);
+            while (pictures.hasNext()) {
+                projection.updateRowFromPicture(pictures.next());
+                writer.write(String.join(DELIMITER, projection.getRow()));
+                writer.newLine();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(run);
+            throw e;
+        }
+        return run;
+    }
+
+    /**
+     * Opens a cursor for each run, followed by a cursor for the records still in memory.
+     */
+    private List<RunCursor> openRuns(List<Path> runs, List<Picture> inMemory) throws IOException {
+        List<RunCursor> cursors = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                cursors.add(new RunCursor(cursors.size(), Files.newBufferedReader(run, CHARSET), null, createProjection()));
+            }
+            cursors.add(new RunCursor(cursors.size(), null, inMemory.iterator(), null));
+        } catch (IOException e) {
+            for (RunCursor cursor : cursors) {
+                cursor.close();
+            }
+            throw e;
+        }
+        return cursors;
+    }
+
+    private static void deleteRuns(List<Path> runs) {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Couldn't delete sorted run " + run, e);
+            }
+        }
+    }
+
+    /**
+     * Replaces the original file by the new file with an atomic move, so the original file is either unchanged or
+     * completely replaced, even if the process crashes.
+     * If writes are synced, the new file is forced to the storage device before the move,
+     * and the directory entry after the move.
+     */
+    private void replaceFile(File original, File newFile) throws IOException {
+        PictureStoreEvents.ReplaceFile event = new PictureStoreEvents.ReplaceFile();
+        event.begin();
+        if (event.isEnabled()) {
+            event.fileSize = newFile.length();
+        }
+        if (syncWrites) {
+            LOGGER.fine("Forcing temp file to storage device.");
+            try (FileChannel channel = FileChannel.open(newFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        LOGGER.fine(() -> "Replacing '%s' by '%s'".formatted(original, newFile));
+        try {
+            Files.move(newFile.toPath(), original.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Couldn't replace file '%s' by '%s'".formatted(original, newFile), e);
+            Files.deleteIfExists(newFile.toPath());
+            throw e;
+        }
+        if (syncWrites) {
+            syncDirectory(original.getParentFile());
+        }
+        metrics.recordTempFileRewrite();
+        event.dataFile = original.getPath();
+        event.tempFile = newFile.getPath();
+        event.commit();
+    }
+
+    /**
+     * Forces the directory entries of the given directory to the storage device, so a rename in the directory
+     * survives a crash. Not all platforms support opening a directory (e.g. Windows), so failures are ignored.
+     */
+    static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Couldn't sync directory " + directory, e);
+        }
+    }
+    /**
+     * Creates a projection for the columns of the data file.
+     * As {@link SimpleDateFormat} is not thread-safe, each call uses its own date format,
+     * so read operations may run concurrently. The lookups of its shared URLs and titles are recorded as cache lookups.
+     */
+    private RawPictureProjection createProjection() {
+        return RawPictureProjection.create(new SimpleDateFormat(DATE_FORMAT), HEADER_COLUMNS, metrics);
+    }
+
+    /**
+     * Records the counters of a call in the metrics.
+     */
+    private void record(IoStats stats) {
+        metrics.recordRowsScanned(stats.rows);
+        metrics.recordBytesRead(stats.bytesRead);
+        metrics.recordBytesWritten(stats.bytesWritten);
+    }
+
+    /**
+     * Completes the given event with the counters of the call and commits it, if it is enabled.
+     */
+    private void commit(PictureStoreEvents.PictureStoreEvent event, IoStats stats) {
+        if (event.shouldCommit()) {
+            event.dataFile = databaseFile.getPath();
+            event.rowsScanned = stats.rows;
+            event.bytesRead = stats.bytesRead;
+            event.bytesWritten = stats.bytesWritten;
+            event.commit();
+        }
+    }
+
+    /**
+     * Creates the counters of a call. Bytes are only counted if the metrics or the given event are enabled.
+     */
+    private IoStats newStats(PictureStoreEvents.PictureStoreEvent event) {
+        return new IoStats(metrics.isEnabled() || event.isEnabled());
+    }
+
+    /**
+     * Opens a reader for the database file.
+     * If the given stats count bytes, the bytes read are counted in them.
+     */
+    private BufferedReader openReader(IoStats stats) throws IOException {
+        InputStream in = new FileInputStream(databaseFile);
+        if (stats.countBytes) {
+            in = new CountingInputStream(in, stats);
+        }
+        return new BufferedReader(new InputStreamReader(in, CHARSET));
+    }
+
+    /**
+     * Opens a writer for the given file.
+     * If the given stats count bytes, the bytes written are counted in them.
+     */
+    private BufferedWriter openWriter(File file, IoStats stats) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(openOutputStream(file, stats), CHARSET));
+    }
+
+    private OutputStream openOutputStream(File file, IoStats stats) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        if (stats.countBytes) {
+            out = new CountingOutputStream(out, stats);
+        }
+        return out;
+    }
+
+    /**
+     * Returns the highest id in the data file.
+     *
+     * @return highest id, or -1 if the data file is empty
+     * @throws DatasourceException if an error occurs accessing the data file
+     */
+    long highestId() {
+        IoStats stats = new IoStats(metrics.isEnabled());
+        try {
+            return getHighestId(stats);
+        } finally {
+            record(stats);
         }
     }
 
-    private long getHighestId() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(databaseFile))) {
-            final RawPictureProjection projection = RawPictureProjection.create(dateFormat, HEADER_COLUMNS);
+    private long getHighestId(IoStats stats) {
+        try (BufferedReader reader = openReader(stats)) {
+            final RawPictureProjection projection = createProjection();
 
             String line = reader.readLine();
             long highestId = -1;
             while (line != null) {
+                stats.rows++;
                 projection.setRow(line.split(DELIMITER));
                 if (projection.selectId() > highestId) {
                     highestId = projection.selectId();
@@ -310,23 +1010,194 @@ public class FilePictureDatasource implements PictureDatasource {
      */
     @Override
     public Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(databaseFile))) {
+        PictureStoreEvents.FindByPosition event = new PictureStoreEvents.FindByPosition();
+        event.begin();
+        IoStats stats = newStats(event);
+        try (BufferedReader reader = openReader(stats)) {
             List<Picture> results = new ArrayList<>();
 
-            final RawPictureProjection projection = RawPictureProjection.create(dateFormat, HEADER_COLUMNS);
+            final RawPictureProjection projection = createProjection();
 
             String line = reader.readLine();
             while (line != null) {
+                stats.rows++;
                 projection.setRow(line.split(DELIMITER));
                 if (testCoordinates(longitude, latitude, deviation, projection.selectLongitude(), projection.selectLatitude())) {
                     results.add(projection.convertToPicture().orElseThrow());
                 }
                 line = reader.readLine();
             }
+            event.results = results.size();
             return results;
         } catch (IOException e) {
             throw new DatasourceException("Error while reading records", e);
+        } finally {
+            record(stats);
+            event.longitude = longitude;
+            event.latitude = latitude;
+            event.deviation = deviation;
+            commit(event, stats);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The data file is split into segments, which are read in parallel. Only the longitude and latitude fields of
+     * the rows are parsed.
+     */
+    @Override
+    public GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        GridHistogram empty = new GridHistogram(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+        int longitudeIdx = HEADER_COLUMNS.indexOf("longitude");
+        int latitudeIdx = HEADER_COLUMNS.indexOf("latitude");
+        return aggregate("countByGrid", empty::emptyCopy,
+            (histogram, row) -> histogram.add(row.floatField(longitudeIdx), row.floatField(latitudeIdx)),
+            GridHistogram::merge).orElse(empty);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The data file is split into segments, which are read in parallel. Only the date field of the rows is parsed.
+     */
+    @Override
+    public DateHistogram countByDate(Duration bucketSize) {
+        DateHistogram empty = new DateHistogram(bucketSize);
+        int dateIdx = HEADER_COLUMNS.indexOf("date");
+        return aggregate("countByDate", () -> new DateHistogram(bucketSize),
+            (histogram, row) -> histogram.add(row.dateField(dateIdx)),
+            DateHistogram::merge).orElse(empty);
+    }
+
+    /**
+     * Aggregates all rows of the data file in a single pass. The file is split into segments at line breaks, each
+     * segment is aggregated into its own result in parallel, and the results are merged.
+     * All segments are read from the same channel, so they see the same data file, even if it is replaced meanwhile.
+     */
+    private <H> Optional<H> aggregate(String operation, Supplier<H> factory, RowAggregator<H> aggregator, BinaryOperator<H> merge) {
+        PictureStoreEvents.Scan event = new PictureStoreEvents.Scan();
+        event.begin();
+        IoStats stats = newStats(event);
+        try (FileChannel channel = FileChannel.open(databaseFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int segments = (int) Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), size / MIN_SEGMENT_SIZE));
+            List<IoStats> segmentStats = new ArrayList<>(Collections.nCopies(segments, null));
+            Optional<H> result = IntStream.range(0, segments).parallel().mapToObj(segment -> {
+                IoStats statsOfSegment = new IoStats(stats.countBytes);
+                segmentStats.set(segment, statsOfSegment);
+                H histogram = factory.get();
+                aggregateSegment(channel, size * segment / segments, size * (segment + 1) / segments,
+                    row -> aggregator.accept(histogram, row), statsOfSegment);
+                return histogram;
+            }).reduce(merge);
+            for (IoStats statsOfSegment : segmentStats) {
+                stats.rows += statsOfSegment.rows;
+                stats.bytesRead += statsOfSegment.bytesRead;
+            }
+            return result;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to process db file", e);
+            throw new DatasourceException("Error while aggregating records", e);
+        } finally {
+            record(stats);
+            event.operation = operation;
+            event.results = stats.rows;
+            commit(event, stats);
+        }
+    }
+
+    /**
+     * Passes the rows starting in the given range of the data file to the consumer. A row starting before the end
+     * is read completely, a row starting before the start belongs to the previous segment.
+     */
+    private void aggregateSegment(FileChannel channel, long start, long end, Consumer<RawRow> consumer, IoStats stats) {
+        RawRow row = new RawRow(new SimpleDateFormat(DATE_FORMAT));
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // the segment starts after the first line break at or after the byte before the start
+        long position = Math.max(0, start - 1);
+        boolean skipping = start > 0;
+        long lineStart = start;
+        try {
+            while (lineStart < end) {
+                buffer.clear();
+                int count = channel.read(buffer, position);
+                if (count < 0) {
+                    if (!skipping && row.length > 0) {
+                        consume(row, consumer, stats);
+                    }
+                    return;
+                }
+                stats.bytesRead += count;
+                byte[] bytes = buffer.array();
+                for (int i = 0; i < count && lineStart < end; i++) {
+                    byte value = bytes[i];
+                    if (value == '\n') {
+                        if (!skipping) {
+                            consume(row, consumer, stats);
+                        }
+                        skipping = false;
+                        lineStart = position + i + 1;
+                    } else if (!skipping) {
+                        row.append(value);
+                    }
+                }
+                position += count;
+            }
+        } catch (IOException e) {
+            throw new DatasourceException("Error while reading records", e);
+        }
+    }
+
+    private static void consume(RawRow row, Consumer<RawRow> consumer, IoStats stats) {
+        if (row.length > 0 && row.bytes[row.length - 1] == '\r') {
+            row.length--;
+        }
+        if (row.length > 0) {
+            stats.rows++;
+            try {
+                consumer.accept(row);
+            } catch (RuntimeException e) {
+                throw new DatasourceException("Invalid row: " + new String(row.bytes, 0, row.length, CHARSET), e);
+            }
         }
+        row.length = 0;
+    }
+
+    /**
+     * Returns a publisher streaming all records of the data file.
+     * Rows are only read and parsed as requested by the subscriber, so the records are never held in memory at once.
+     * Each subscription reads the data file with its own reader, which is closed when the end of the file is reached,
+     * on an error or when the subscription is cancelled.<br>
+     * The records are delivered on the given executor. Use {@code Runnable::run} to deliver them on the thread
+     * calling {@link Flow.Subscription#request(long)}.
+     *
+     * @param executor to read the data file and deliver the records on
+     * @return publisher of all Picture records
+     */
+    public Flow.Publisher<Picture> publishAll(Executor executor) {
+        Objects.requireNonNull(executor, "executor must not be null");
+        return subscriber -> subscribe(subscriber, executor, "publishAll", projection -> true);
+    }
+
+    /**
+     * Returns a publisher streaming all records close to a certain position,
+     * as returned by {@link #findByPosition(float, float, float)}.
+     * See {@link #publishAll(Executor)} for how the records are read and delivered.
+     *
+     * @param longitude longitude coordinate of the center of the square area
+     * @param latitude  latitude coordinate of the center of the square area
+     * @param deviation deviation from the center of the area in longitude and latitude direction
+     * @param executor to read the data file and deliver the records on
+     * @return publisher of all Picture records in the area
+     */
+    public Flow.Publisher<Picture> publishByPosition(float longitude, float latitude, float deviation, Executor executor) {
+        Objects.requireNonNull(executor, "executor must not be null");
+        return subscriber -> subscribe(subscriber, executor, "publishByPosition", projection ->
+            testCoordinates(longitude, latitude, deviation, projection.selectLongitude(), projection.selectLatitude()));
+    }
+
+    private void subscribe(Flow.Subscriber<? super Picture> subscriber, Executor executor, String operation, Predicate<RawPictureProjection> filter) {
+        Objects.requireNonNull(subscriber, "subscriber must not be null");
+        subscriber.onSubscribe(new PictureSubscription(subscriber, executor, operation, filter));
     }
 
     /**
@@ -340,4 +1211,475 @@ public class FilePictureDatasource implements PictureDatasource {
         return testLongitude >= longitude - deviation && testLongitude <= longitude + deviation
                 && testLatitude >= latitude - deviation && testLatitude <= latitude + deviation;
     }
+
+    /**
+     * Subscription reading the data file on demand.
+     * Requests and cancellation only update the state and schedule a drain on the executor.
+     * The work-in-progress counter makes sure only one drain runs at a time, so the reader is only accessed
+     * by one thread at a time and onNext is never called concurrently or recursively.
+     */
+    private final class PictureSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Picture> subscriber;
+        private final Executor executor;
+        private final Predicate<RawPictureProjection> filter;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger workInProgress = new AtomicInteger();
+        private final PictureStoreEvents.Scan event = new PictureStoreEvents.Scan();
+        private final IoStats stats = newStats(event);
+        private volatile boolean cancelled = false;
+        private volatile Throwable invalidRequest;
+        private volatile RejectedExecutionException rejection;
+        // only accessed by the drain
+        private BufferedReader reader;
+        private RawPictureProjection projection;
+        private boolean done = false;
+
+        PictureSubscription(Flow.Subscriber<? super Picture> subscriber, Executor executor, String operation, Predicate<RawPictureProjection> filter) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.filter = filter;
+            event.operation = operation;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested number of records must be positive: " + n);
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (workInProgress.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // this thread owns the drain, so it signals the error through it instead of the executor
+                    rejection = e;
+                    drain();
+                }
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                if (!done) {
+                    try {
+                        emit();
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.log(Level.SEVERE, "Failed to stream db file", e);
+                        finish();
+                        subscriber.onError(e instanceof IOException ? new DatasourceException("Error while reading records", e) : e);
+                    }
+                }
+                missed = workInProgress.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() throws IOException {
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (rejection != null) {
+                finish();
+                subscriber.onError(rejection);
+                return;
+            }
+            if (invalidRequest != null) {
+                finish();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            if (reader == null) {
+                event.begin();
+                LOGGER.finer(() -> "Opening db file at '%s'".formatted(databaseFile));
+                reader = openReader(stats);
+                projection = createProjection();
+            }
+            while (demand.get() > 0 && !cancelled) {
+                String line = reader.readLine();
+                if (line == null) {
+                    finish();
+                    subscriber.onComplete();
+                    return;
+                }
+                stats.rows++;
+                projection.setRow(line.split(DELIMITER));
+                if (filter.test(projection)) {
+                    Optional<Picture> picture = projection.convertToPicture();
+                    if (picture.isPresent()) {
+                        if (demand.get() != Long.MAX_VALUE) {
+                            demand.decrementAndGet();
+                        }
+                        event.results++;
+                        subscriber.onNext(picture.get());
+                    }
+                }
+            }
+            if (cancelled) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (reader != null) {
+                LOGGER.finer("Closing db file...");
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to close db file", e);
+                }
+                record(stats);
+                commit(event, stats);
+            }
+        }
+    }
+
+    /**
+     * Picture with its row number in the data file.
+     */
+    private record RankedPicture(Picture picture, long row) {
+    }
+
+    /**
+     * Reads the records of a sorted run, either from a run file or from memory, keeping the next record as head.
+     */
+    private static final class RunCursor implements Closeable {
+        private final int index;
+        private final BufferedReader reader;
+        private final Iterator<Picture> pictures;
+        private final RawPictureProjection projection;
+        private Picture head;
+
+        RunCursor(int index, BufferedReader reader, Iterator<Picture> pictures, RawPictureProjection projection) {
+            this.index = index;
+            this.reader = reader;
+            this.pictures = pictures;
+            this.projection = projection;
+        }
+
+        /**
+         * Reads the next record as head.
+         * @return false if the run is exhausted
+         */
+        boolean advance() {
+            if (pictures != null) {
+                head = pictures.hasNext() ? pictures.next() : null;
+                return head != null;
+            }
+            try {
+                String line = reader.readLine();
+                if (line == null) {
+                    head = null;
+                    return false;
+                }
+                projection.setRow(line.split(DELIMITER));
+                head = projection.convertToPicture().orElseThrow();
+                return true;
+            } catch (IOException e) {
+                throw new DatasourceException("Error while reading sorted run", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Couldn't close sorted run", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * K-way merge of sorted runs using a priority queue of their heads. Records comparing equal are taken from the
+     * earlier run, so the merge is stable. Closing the iterator closes the cursors and deletes the run files.
+     */
+    private static final class MergeIterator implements Iterator<Picture>, AutoCloseable {
+        private final PriorityQueue<RunCursor> queue;
+        private final List<RunCursor> cursors;
+        private final List<Path> runs;
+
+        MergeIterator(List<RunCursor> cursors, Comparator<? super Picture> order, List<Path> runs) {
+            this.cursors = cursors;
+            this.runs = List.copyOf(runs);
+            Comparator<RunCursor> byHead = (a, b) -> order.compare(a.head, b.head);
+            this.queue = new PriorityQueue<>(Math.max(1, cursors.size()), byHead.thenComparingInt(cursor -> cursor.index));
+            for (RunCursor cursor : cursors) {
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Picture next() {
+            RunCursor cursor = queue.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            Picture picture = cursor.head;
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+            return picture;
+        }
+
+        @Override
+        public void close() {
+            queue.clear();
+            for (RunCursor cursor : cursors) {
+                cursor.close();
+            }
+            deleteRuns(runs);
+        }
+    }
+
+    /**
+     * Visits a row of the data file starting at the given position.
+     */
+    private interface RowVisitor {
+        /**
+         * @return false to stop reading
+         */
+        boolean visit(RawRow row, long position);
+    }
+
+    /**
+     * Position of the last record of a page, with its id and the id of the record following it.
+     * Encoded as opaque cursor string.
+     */
+    private record PageCursor(long position, long lastId, long nextId) {
+        String encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(3 * Long.BYTES).putLong(position).putLong(lastId).putLong(nextId);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+        }
+
+        static PageCursor decode(String cursor) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+                PageCursor decoded = new PageCursor(buffer.getLong(), buffer.getLong(), buffer.getLong());
+                if (buffer.hasRemaining() || decoded.position < 0) {
+                    throw new IllegalArgumentException("Invalid cursor: " + cursor);
+                }
+                return decoded;
+            } catch (BufferUnderflowException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+            }
+        }
+    }
+
+    /**
+     * Collects the records of a page. Reading the next page, it first seeks the last record of the previous page
+     * and skips it, or, if it was deleted, the record which followed it.
+     */
+    private static final class PageReader implements RowVisitor {
+        private static final int ID_INDEX = HEADER_COLUMNS.indexOf("id");
+
+        private final PageCursor previous;
+        private final int limit;
+        private final RawPictureProjection projection;
+        private final List<Picture> pictures = new ArrayList<>();
+        // true until the first record of the page is reached
+        private boolean seeking;
+        // true when searching the whole data file for the last record of the previous page
+        private boolean scanning = false;
+        private boolean hasNext = false;
+        private long lastPosition;
+        private long lastId;
+        private long nextId;
+
+        PageReader(PageCursor previous, int limit, RawPictureProjection projection) {
+            this.previous = previous;
+            this.limit = limit;
+            this.projection = projection;
+            this.seeking = previous != null;
+        }
+
+        @Override
+        public boolean visit(RawRow row, long position) {
+            long id = row.longField(ID_INDEX);
+            if (seeking) {
+                if (id == previous.lastId()) {
+                    seeking = false;
+                    return true;
+                }
+                if (!scanning) {
+                    // the record at the position of the cursor moved
+                    return false;
+                }
+                if (id != previous.nextId()) {
+                    return true;
+                }
+                seeking = false;
+            }
+            if (pictures.size() == limit) {
+                hasNext = true;
+                nextId = id;
+                return false;
+            }
+            projection.setRow(new String(row.bytes, 0, row.length, CHARSET).split(DELIMITER));
+            pictures.add(projection.convertToPicture().orElseThrow());
+            lastPosition = position;
+            lastId = id;
+            return true;
+        }
+    }
+
+    /**
+     * Aggregates a row into the result of a segment.
+     */
+    @FunctionalInterface
+    private interface RowAggregator<H> {
+        void accept(H histogram, RawRow row);
+    }
+
+    /**
+     * Bytes of a row of the data file, parsing single fields without decoding the whole row.
+     */
+    private static final class RawRow {
+        private static final byte DELIMITER_BYTE = (byte) DELIMITER.charAt(0);
+
+        private final DateFormat dateFormat;
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+
+        RawRow(DateFormat dateFormat) {
+            this.dateFormat = dateFormat;
+        }
+
+        void append(byte value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = value;
+        }
+
+        /**
+         * Returns the field with the given index. Numbers and dates are ASCII, so they can be decoded as Latin-1.
+         */
+        String field(int index) {
+            int start = 0;
+            for (int field = 0; field < index; field++) {
+                while (start < length && bytes[start] != DELIMITER_BYTE) {
+                    start++;
+                }
+                start++;
+            }
+            int end = start;
+            while (end < length && bytes[end] != DELIMITER_BYTE) {
+                end++;
+            }
+            if (start > length) {
+                throw new IllegalArgumentException("Missing field " + index);
+            }
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        long longField(int index) {
+            return Long.parseLong(field(index));
+        }
+
+        float floatField(int index) {
+            return Float.parseFloat(field(index));
+        }
+
+        long dateField(int index) {
+            try {
+                return dateFormat.parse(field(index)).getTime();
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("Invalid date", e);
+            }
+        }
+    }
+
+    /**
+     * Counters of a single datasource call, reported to the metrics and the flight recorder events.
+     */
+    private static final class IoStats {
+        // if false, the streams are not wrapped for counting, as neither metrics nor events use the bytes
+        private final boolean countBytes;
+        private long rows = 0;
+        private long bytesRead = 0;
+        private long bytesWritten = 0;
+
+        IoStats(boolean countBytes) {
+            this.countBytes = countBytes;
+        }
+    }
+
+    /**
+     * Input stream counting the bytes read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final IoStats stats;
+
+        CountingInputStream(InputStream in, IoStats stats) {
+            super(in);
+            this.stats = stats;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                stats.bytesRead++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                stats.bytesRead += count;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Output stream counting the bytes written.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final IoStats stats;
+
+        CountingOutputStream(OutputStream out, IoStats stats) {
+            super(out);
+            this.stats = stats;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            stats.bytesWritten++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            stats.bytesWritten += len;
+        }
+    }
 }
@@ -0,0 +1,498 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Implements the PictureDatasource Interface storing the records in tile files grouped by their position,
+ * each stored in the format of {@link FilePictureDatasource}.<br>
+ * The tiles are the leaf cells of a quadtree over the coordinate space: the root cell covers the whole world,
+ * and a cell is split into four equally sized child cells, when its tile file grows past the split threshold.
+ * Therefore, densely populated areas are covered by small tiles, sparsely populated areas by large ones.<br>
+ * {@link #findByPosition(float, float, float)} only reads the tiles overlapping the queried area.
+ * To find records by id, the tile of each record is kept in an in-memory index, which is built when the datasource
+ * is opened. When the datasource is closed, the ids of each tile are saved next to its file (see {@link IdSnapshot}),
+ * so the index is built from the snapshots and only the tile files changed since are read.<br>
+ * The set of tiles is given by the tile files in the directory. A split writes the four child tiles before the parent
+ * tile is deleted. If a split was interrupted, the parent tile is kept and the incomplete child tiles are removed
+ * when the datasource is opened.<br>
+ * An update changing the tile of a record appends the record to the new tile before deleting it from the old one,
+ * recording the move in a marker file in the meantime. If the move was interrupted, the record exists in both tiles
+ * and the copy of the later write, i.e. the one in the tile named by the marker, is kept when the datasource is opened.<br>
+ * All methods are synchronized, so the datasource can be shared by several threads.
+ */
+public class GeoTiledPictureDatasource implements PictureDatasource, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(GeoTiledPictureDatasource.class.getName());
+    private static final Pattern TILE_FILE_PATTERN = Pattern.compile("tile-(\\d+)-(\\d+)-(\\d+)\\.csv");
+    private static final Pattern MOVE_FILE_PATTERN = Pattern.compile("move-(\\d+)\\.txt");
+    // cells of the deepest level are about 0.005 x 0.003 degrees
+    private static final int MAX_LEVEL = 16;
+
+    private final Path directory;
+    private final long splitThreshold;
+    private final Map<TileKey, Tile> tiles = new HashMap<>();
+    private final Map<Long, Tile> idIndex = new HashMap<>();
+    private long nextId;
+
+    /**
+     * Opens the datasource in the given directory, creating the directory and the root tile if they do not exist.
+     *
+     * @param directory      directory containing the tile files
+     * @param splitThreshold number of records in a tile, above which it is split
+     * @throws IOException if reading or creating the tile files fails
+     */
+    public GeoTiledPictureDatasource(String directory, long splitThreshold) throws IOException {
+        if (splitThreshold < 1) {
+            throw new IllegalArgumentException("splitThreshold must be at least 1");
+        }
+        this.directory = Path.of(directory);
+        this.splitThreshold = splitThreshold;
+        Files.createDirectories(this.directory);
+        loadTiles();
+        if (tiles.isEmpty()) {
+            createTile(new TileKey(0, 0, 0));
+        }
+        Map<Long, TileKey> moves = loadMoves();
+        long highestId = -1;
+        for (Tile tile : tiles.values()) {
+            for (long id : loadIds(tile)) {
+                Tile previous = idIndex.put(id, tile);
+                if (previous != null) {
+                    resolveDuplicate(id, previous, tile, moves.get(id));
+                }
+                highestId = Math.max(highestId, id);
+                tile.records++;
+            }
+        }
+        for (Long id : moves.keySet()) {
+            Files.deleteIfExists(this.directory.resolve(moveFileName(id)));
+        }
+        nextId = highestId + 1;
+        LOGGER.fine(() -> "Opened %d tiles with %d records in '%s'".formatted(tiles.size(), idIndex.size(), this.directory));
+    }
+
+    /**
+     * Returns the ids of the tile, taken from its id snapshot if the tile file is unchanged, otherwise by reading
+     * the tile file.
+     */
+    private long[] loadIds(Tile tile) {
+        long[] ids = IdSnapshot.load(directory.resolve(tile.key.fileName()));
+        if (ids == null) {
+            ids = tile.datasource.findAll().stream().mapToLong(Picture::getId).toArray();
+        }
+        return ids;
+    }
+
+    /**
+     * Saves the id snapshots of the tiles changed since their snapshot was saved.
+     * If saving a snapshot fails, the tile file is read when the datasource is opened the next time.
+     */
+    @Override
+    public synchronized void close() {
+        Map<Tile, List<Long>> tileIds = new HashMap<>();
+        idIndex.forEach((id, tile) -> tileIds.computeIfAbsent(tile, key -> new ArrayList<>()).add(id));
+        for (Tile tile : tiles.values()) {
+            Path file = directory.resolve(tile.key.fileName());
+            if (IdSnapshot.isCurrent(file)) {
+                continue;
+            }
+            try {
+                IdSnapshot.save(file, tileIds.getOrDefault(tile, List.of()).stream().mapToLong(Long::longValue).toArray());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Couldn't save id snapshot of tile " + tile.key, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tiles.
+     * @return number of tiles
+     */
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void insert(Picture picture) {
+        Objects.requireNonNull(picture, "picture must not be null");
+        picture.setId(nextId++);
+        append(tileOf(picture.getLongitude(), picture.getLatitude()), picture);
+    }
+
+    /**
+     * {@inheritDoc}
+     * If the position of the record changed, it is moved to the tile of the new position.
+     */
+    @Override
+    public synchronized void update(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        Tile current = idIndex.get(picture.getId());
+        if (current == null) {
+            throw new RecordNotFoundException("Record not found: " + picture.getId());
+        }
+        Tile target = tileOf(picture.getLongitude(), picture.getLatitude());
+        if (target == current) {
+            current.datasource.update(picture);
+        } else {
+            move(picture, current, target);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void delete(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        Tile tile = idIndex.get(picture.getId());
+        if (tile == null) {
+            throw new RecordNotFoundException("Record not found: " + picture.getId());
+        }
+        tile.datasource.delete(picture);
+        tile.records--;
+        idIndex.remove(picture.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long count() {
+        return idIndex.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Optional<Picture> findById(long id) {
+        Tile tile = idIndex.get(id);
+        return tile == null ? Optional.empty() : tile.datasource.findById(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<Picture> findAll() {
+        List<Picture> pictures = new ArrayList<>();
+        for (Tile tile : tiles.values()) {
+            pictures.addAll(tile.datasource.findAll());
+        }
+        return pictures;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the tiles overlapping the area are read.
+     */
+    @Override
+    public synchronized Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+        List<Picture> pictures = new ArrayList<>();
+        for (Tile tile : tiles.values()) {
+            if (tile.key.overlaps(longitude - deviation, latitude - deviation, longitude + deviation, latitude + deviation)) {
+                pictures.addAll(tile.datasource.findByPosition(longitude, latitude, deviation));
+            }
+        }
+        return pictures;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the tiles overlapping the box are counted, in parallel, and their histograms are merged.
+     */
+    @Override
+    public synchronized GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        GridHistogram empty = new GridHistogram(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+        return tiles.values().parallelStream()
+            .filter(tile -> tile.key.overlaps(minLongitude, minLatitude, maxLongitude, maxLatitude))
+            .map(tile -> tile.datasource.countByGrid(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows))
+            .reduce(GridHistogram::merge)
+            .orElse(empty);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The tiles are counted in parallel, and their histograms are merged.
+     */
+    @Override
+    public synchronized DateHistogram countByDate(Duration bucketSize) {
+        return tiles.values().parallelStream()
+            .map(tile -> tile.datasource.countByDate(bucketSize))
+            .reduce(DateHistogram::merge)
+            .orElseGet(() -> new DateHistogram(bucketSize));
+    }
+
+    /**
+     * Returns the tile containing the given position, i.e. the existing cell on the path from the root to the
+     * cell of the deepest level.
+     */
+    private Tile tileOf(float longitude, float latitude) {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            Tile tile = tiles.get(TileKey.of(level, longitude, latitude));
+            if (tile != null) {
+                return tile;
+            }
+        }
+        throw new DatasourceException("No tile found for position %f/%f".formatted(longitude, latitude));
+    }
+
+    private void append(Tile tile, Picture picture) {
+        tile.datasource.append(List.of(picture));
+        tile.records++;
+        idIndex.put(picture.getId(), tile);
+        splitIfFull(tile);
+    }
+
+    private void splitIfFull(Tile tile) {
+        if (tile.records > splitThreshold && tile.key.level() < MAX_LEVEL) {
+            split(tile);
+        }
+    }
+
+    /**
+     * Moves the record to the target tile. The record is appended to the target tile before it is deleted from the
+     * current one, so it is never lost. The marker file tells which copy to keep, if the move is interrupted.
+     */
+    private void move(Picture picture, Tile current, Tile target) throws RecordNotFoundException {
+        Path moveFile = directory.resolve(moveFileName(picture.getId()));
+        try {
+            Files.writeString(moveFile, target.key.fileName(), FilePictureDatasource.CHARSET);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to write move marker " + moveFile, e);
+            throw new DatasourceException("Error while moving record", e);
+        }
+        target.datasource.append(List.of(picture));
+        target.records++;
+        idIndex.put(picture.getId(), target);
+        current.datasource.delete(picture);
+        current.records--;
+        try {
+            Files.delete(moveFile);
+        } catch (IOException e) {
+            // the marker only names the copy just deleted, so it does no harm until the next open removes it
+            LOGGER.log(Level.WARNING, "Failed to delete move marker " + moveFile, e);
+        }
+        splitIfFull(target);
+    }
+
+    /**
+     * Keeps only one copy of a record found in two tiles after an interrupted move.
+     * The copy in the target tile of the move is the later write. Without a marker, the copy in the tile
+     * modified last is kept.
+     */
+    private void resolveDuplicate(long id, Tile previous, Tile tile, TileKey moveTarget) throws IOException {
+        boolean keepTile;
+        if (moveTarget != null) {
+            keepTile = !previous.key.equals(moveTarget);
+        } else {
+            keepTile = Files.getLastModifiedTime(directory.resolve(tile.key.fileName()))
+                .compareTo(Files.getLastModifiedTime(directory.resolve(previous.key.fileName()))) >= 0;
+        }
+        Tile stale = keepTile ? previous : tile;
+        LOGGER.warning(() -> "Removing stale copy of record %d from tile %s of an interrupted move".formatted(id, stale.key));
+        String vanished = "Duplicate record %d vanished from tile %s".formatted(id, stale.key);
+        Picture copy = stale.datasource.findById(id).orElseThrow(() -> new IOException(vanished));
+        try {
+            stale.datasource.delete(copy);
+        } catch (RecordNotFoundException e) {
+            throw new IOException(vanished, e);
+        }
+        if (keepTile) {
+            previous.records--;
+        } else {
+            idIndex.put(id, previous);
+            // the copy of this tile is not counted
+            tile.records--;
+        }
+    }
+
+    /**
+     * Splits the tile into its four child tiles. Child tiles still exceeding the threshold are split further.
+     */
+    private void split(Tile tile) {
+        try {
+            List<Tile> children = new ArrayList<>(4);
+            Map<TileKey, List<Picture>> partitions = new HashMap<>();
+            for (TileKey childKey : tile.key.children()) {
+                partitions.put(childKey, new ArrayList<>());
+            }
+            for (Picture picture : tile.datasource.findAll()) {
+                partitions.get(TileKey.of(tile.key.level() + 1, picture.getLongitude(), picture.getLatitude())).add(picture);
+            }
+            for (Map.Entry<TileKey, List<Picture>> partition : partitions.entrySet()) {
+                Path file = directory.resolve(partition.getKey().fileName());
+                Files.deleteIfExists(file);
+                IdSnapshot.delete(file);
+                Files.createFile(file);
+                Tile child = new Tile(partition.getKey(), new FilePictureDatasource(file.toString()));
+                child.datasource.append(partition.getValue());
+                child.records = partition.getValue().size();
+                children.add(child);
+            }
+            Files.delete(directory.resolve(tile.key.fileName()));
+            IdSnapshot.delete(directory.resolve(tile.key.fileName()));
+            tiles.remove(tile.key);
+            for (Tile child : children) {
+                tiles.put(child.key, child);
+                for (Picture picture : partitions.get(child.key)) {
+                    idIndex.put(picture.getId(), child);
+                }
+            }
+            LOGGER.fine(() -> "Split tile %s with %d records".formatted(tile.key, tile.records));
+            for (Tile child : children) {
+                if (child.records > splitThreshold && child.key.level() < MAX_LEVEL) {
+                    split(child);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to split tile " + tile.key, e);
+            throw new DatasourceException("Error while splitting tile", e);
+        }
+    }
+
+    private void createTile(TileKey key) throws IOException {
+        Path file = directory.resolve(key.fileName());
+        IdSnapshot.delete(file);
+        Files.createFile(file);
+        tiles.put(key, new Tile(key, new FilePictureDatasource(file.toString())));
+    }
+
+    /**
+     * Loads the tile files of the directory. Tiles of an interrupted split, whose parent tile still exists,
+     * are deleted.
+     */
+    private void loadTiles() throws IOException {
+        List<TileKey> keys = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "tile-*.csv")) {
+            for (Path file : files) {
+                Matcher matcher = TILE_FILE_PATTERN.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    keys.add(new TileKey(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)),
+                        Integer.parseInt(matcher.group(3))));
+                }
+            }
+        }
+        keys.sort(Comparator.comparingInt(TileKey::level));
+        for (TileKey key : keys) {
+            Path file = directory.resolve(key.fileName());
+            if (hasAncestor(key)) {
+                LOGGER.warning(() -> "Deleting tile %s of an interrupted split".formatted(key));
+                Files.delete(file);
+                IdSnapshot.delete(file);
+            } else {
+                tiles.put(key, new Tile(key, new FilePictureDatasource(file.toString())));
+            }
+        }
+    }
+
+    /**
+     * Reads the markers of interrupted moves.
+     * @return target tile of each interrupted move by the id of the moved record
+     */
+    private Map<Long, TileKey> loadMoves() throws IOException {
+        Map<Long, TileKey> moves = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "move-*.txt")) {
+            for (Path file : files) {
+                Matcher moveMatcher = MOVE_FILE_PATTERN.matcher(file.getFileName().toString());
+                Matcher tileMatcher = TILE_FILE_PATTERN.matcher(Files.readString(file, FilePictureDatasource.CHARSET).trim());
+                if (moveMatcher.matches() && tileMatcher.matches()) {
+                    moves.put(Long.parseLong(moveMatcher.group(1)), new TileKey(Integer.parseInt(tileMatcher.group(1)),
+                        Integer.parseInt(tileMatcher.group(2)), Integer.parseInt(tileMatcher.group(3))));
+                }
+            }
+        }
+        return moves;
+    }
+
+    private static String moveFileName(long id) {
+        return "move-%d.txt".formatted(id);
+    }
+
+    private boolean hasAncestor(TileKey key) {
+        for (TileKey ancestor = key.parent(); ancestor != null; ancestor = ancestor.parent()) {
+            if (tiles.containsKey(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cell of the quadtree. At level l, the world is divided into 2^l x 2^l cells,
+     * x counting from longitude -180 eastwards and y from latitude -90 northwards.
+     */
+    record TileKey(int level, int x, int y) {
+        private static final float MIN_LONGITUDE = -180;
+        private static final float MIN_LATITUDE = -90;
+        private static final float LONGITUDE_RANGE = 360;
+        private static final float LATITUDE_RANGE = 180;
+
+        static TileKey of(int level, float longitude, float latitude) {
+            int cells = 1 << level;
+            return new TileKey(level, cellIndex(longitude, MIN_LONGITUDE, LONGITUDE_RANGE, cells),
+                cellIndex(latitude, MIN_LATITUDE, LATITUDE_RANGE, cells));
+        }
+
+        private static int cellIndex(float value, float min, float range, int cells) {
+            int index = (int) Math.floor((value - min) / range * cells);
+            return Math.min(Math.max(index, 0), cells - 1);
+        }
+
+        TileKey parent() {
+            return level == 0 ? null : new TileKey(level - 1, x >> 1, y >> 1);
+        }
+
+        List<TileKey> children() {
+            int childX = x << 1;
+            int childY = y << 1;
+            return List.of(new TileKey(level + 1, childX, childY), new TileKey(level + 1, childX + 1, childY),
+                new TileKey(level + 1, childX, childY + 1), new TileKey(level + 1, childX + 1, childY + 1));
+        }
+
+        boolean overlaps(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude) {
+            // uses the same mapping as for the positions, so no position at a cell border is missed
+            int cells = 1 << level;
+            return x >= cellIndex(minLongitude, MIN_LONGITUDE, LONGITUDE_RANGE, cells)
+                && x <= cellIndex(maxLongitude, MIN_LONGITUDE, LONGITUDE_RANGE, cells)
+                && y >= cellIndex(minLatitude, MIN_LATITUDE, LATITUDE_RANGE, cells)
+                && y <= cellIndex(maxLatitude, MIN_LATITUDE, LATITUDE_RANGE, cells);
+        }
+
+        String fileName() {
+            return "tile-%d-%d-%d.csv".formatted(level, x, y);
+        }
+    }
+
+    /**
+     * A tile file with the number of records it holds.
+     */
+    private static final class Tile {
+        private final TileKey key;
+        private final FilePictureDatasource datasource;
+        private long records;
+
+        Tile(TileKey key, FilePictureDatasource datasource) {
+            this.key = key;
+            this.datasource = datasource;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ch.zhaw.prog2.io.picturedb;
+
+/**
+ * Number of pictures per cell of a grid over a bounding box.<br>
+ * The box is divided into equally sized cells, counting columns from the minimum longitude eastwards and rows from
+ * the minimum latitude northwards. Positions on the maximum longitude or latitude are counted in the last column
+ * or row, positions outside the box are ignored.<br>
+ * A histogram is filled by a single thread. Parallel queries fill one histogram per thread and merge them.
+ */
+public final class GridHistogram {
+    private final float minLongitude;
+    private final float minLatitude;
+    private final float maxLongitude;
+    private final float maxLatitude;
+    private final int columns;
+    private final int rows;
+    private final long[] counts;
+
+    /**
+     * Creates an empty histogram.
+     *
+     * @param minLongitude western border of the box
+     * @param minLatitude  southern border of the box
+     * @param maxLongitude eastern border of the box
+     * @param maxLatitude  northern border of the box
+     * @param columns      number of cells in longitude direction
+     * @param rows         number of cells in latitude direction
+     * @throws IllegalArgumentException if the box is empty or the number of cells is not positive
+     */
+    public GridHistogram(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        if (!(minLongitude < maxLongitude) || !(minLatitude < maxLatitude)) {
+            throw new IllegalArgumentException("Empty bounding box");
+        }
+        if (columns < 1 || rows < 1 || (long) columns * rows > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid number of cells: %d x %d".formatted(columns, rows));
+        }
+        this.minLongitude = minLongitude;
+        this.minLatitude = minLatitude;
+        this.maxLongitude = maxLongitude;
+        this.maxLatitude = maxLatitude;
+        this.columns = columns;
+        this.rows = rows;
+        this.counts = new long[columns * rows];
+    }
+
+    /**
+     * Counts a picture at the given position, if it is inside the box. Positions which are not a number are ignored.
+     *
+     * @param longitude of the picture
+     * @param latitude  of the picture
+     */
+    public void add(float longitude, float latitude) {
+        if (!(longitude >= minLongitude && longitude <= maxLongitude && latitude >= minLatitude && latitude <= maxLatitude)) {
+            return;
+        }
+        int column = Math.min((int) ((longitude - minLongitude) / (maxLongitude - minLongitude) * columns), columns - 1);
+        int row = Math.min((int) ((latitude - minLatitude) / (maxLatitude - minLatitude) * rows), rows - 1);
+        counts[row * columns + column]++;
+    }
+
+    /**
+     * Adds the counts of the other histogram, which must have the same box and cells.
+     *
+     * @param other histogram to add
+     * @return this histogram
+     */
+    public GridHistogram merge(GridHistogram other) {
+        if (other.minLongitude != minLongitude || other.minLatitude != minLatitude || other.maxLongitude != maxLongitude
+            || other.maxLatitude != maxLatitude || other.columns != columns || other.rows != rows) {
+            throw new IllegalArgumentException("Histograms have different grids");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        return this;
+    }
+
+    /**
+     * Creates an empty histogram with the same box and cells.
+     *
+     * @return empty histogram
+     */
+    public GridHistogram emptyCopy() {
+        return new GridHistogram(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+    }
+
+    /**
+     * Returns the number of pictures in the given cell.
+     *
+     * @param column of the cell, 0 is the westernmost
+     * @param row    of the cell, 0 is the southernmost
+     * @return number of pictures in the cell
+     */
+    public long getCount(int column, int row) {
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Cell %d/%d is outside the grid".formatted(column, row));
+        }
+        return counts[row * columns + column];
+    }
+
+    /**
+     * Returns the number of pictures in the box.
+     * @return number of pictures in all cells
+     */
+    public long getTotal() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of cells in longitude direction.
+     * @return number of columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of cells in latitude direction.
+     * @return number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+}
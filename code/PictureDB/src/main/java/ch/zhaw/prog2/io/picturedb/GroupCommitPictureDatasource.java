@@ -0,0 +1,264 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decorator for a {@link FilePictureDatasource}, which combines concurrent inserts into group commits.<br>
+ * Inserted pictures are put into a bounded queue, which is drained in batches by a single writer thread.
+ * Each batch gets consecutive ids and is appended to the data file using {@link FilePictureDatasource#insertAll(List)},
+ * i.e. with one id allocation and one sync for all pictures of the batch. After the batch is written,
+ * the future of each caller is completed.<br>
+ * As {@link FilePictureDatasource} is not thread-safe, all other calls are serialized with the writer thread.
+ * The datasource has to be closed to write the queued pictures and stop the writer thread.
+ */
+public class GroupCommitPictureDatasource implements PictureDatasource, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(GroupCommitPictureDatasource.class.getName());
+    private static final int DEFAULT_QUEUE_SIZE = 4096;
+    private static final int DEFAULT_BATCH_SIZE = 512;
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final FilePictureDatasource delegate;
+    private final BlockingQueue<PendingInsert> queue;
+    private final int batchSize;
+    private final Object lock = new Object();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the datasource with the default queue and batch size.
+     * @param delegate datasource to write the batches to
+     */
+    public GroupCommitPictureDatasource(FilePictureDatasource delegate) {
+        this(delegate, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates the datasource.
+     * @param delegate datasource to write the batches to
+     * @param queueSize max number of pending inserts, further inserts wait for free space
+     * @param batchSize max number of pictures written in one batch
+     */
+    public GroupCommitPictureDatasource(FilePictureDatasource delegate, int queueSize, int batchSize) {
+        if (queueSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("queueSize and batchSize must be at least 1");
+        }
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.writer = new Thread(this::processQueue, "group-commit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues the picture to be inserted with the next batch.
+     * The id of the picture is set, when the batch is written.
+     *
+     * @param picture to insert
+     * @return future completed with the inserted picture, when the batch is written to the data file,
+     * or completed exceptionally with a {@link DatasourceException}, if writing the batch fails
+     */
+    public CompletableFuture<Picture> insertAsync(Picture picture) {
+        Objects.requireNonNull(picture, "picture must not be null");
+        PendingInsert pending = new PendingInsert(picture, new CompletableFuture<>());
+        if (closed) {
+            pending.future().completeExceptionally(new DatasourceException("Datasource is closed"));
+            return pending.future();
+        }
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future().completeExceptionally(new DatasourceException("Interrupted while queueing insert", e));
+            return pending.future();
+        }
+        // the writer may have stopped while we were waiting for free space
+        if (closed && queue.remove(pending)) {
+            pending.future().completeExceptionally(new DatasourceException("Datasource is closed"));
+        }
+        return pending.future();
+    }
+
+    /**
+     * Inserts the picture with the next batch and waits until the batch is written.
+     * {@inheritDoc}
+     */
+    @Override
+    public void insert(Picture picture) {
+        try {
+            insertAsync(picture).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DatasourceException datasourceException) {
+                throw datasourceException;
+            }
+            throw new DatasourceException("Error while inserting record", e.getCause());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(Picture picture) throws RecordNotFoundException {
+        synchronized (lock) {
+            delegate.update(picture);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete(Picture picture) throws RecordNotFoundException {
+        synchronized (lock) {
+            delegate.delete(picture);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        synchronized (lock) {
+            return delegate.count();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<Picture> findById(long id) {
+        synchronized (lock) {
+            return delegate.findById(id);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findAll() {
+        synchronized (lock) {
+            return delegate.findAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+        synchronized (lock) {
+            return delegate.findByPosition(longitude, latitude, deviation);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        synchronized (lock) {
+            return delegate.countByGrid(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DateHistogram countByDate(Duration bucketSize) {
+        synchronized (lock) {
+            return delegate.countByDate(bucketSize);
+        }
+    }
+
+    /**
+     * Writes all queued pictures and stops the writer thread.
+     * Inserts queued after closing fail with a {@link DatasourceException}.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void processQueue() {
+        List<PendingInsert> batch = new ArrayList<>(batchSize);
+        while (true) {
+            PendingInsert first;
+            try {
+                first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                first = null;
+            }
+            if (first == null) {
+                if (closed) {
+                    // inserts queued before they saw the closed flag are still waiting for their batch
+                    drainRemaining(batch);
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the pictures remaining in the queue after closing.
+     * An insert queued after this drain sees the closed flag and removes itself from the queue.
+     */
+    private void drainRemaining(List<PendingInsert> batch) {
+        while (queue.drainTo(batch, batchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<PendingInsert> batch) {
+        List<Picture> pictures = new ArrayList<>(batch.size());
+        for (PendingInsert pending : batch) {
+            pictures.add(pending.picture());
+        }
+        try {
+            synchronized (lock) {
+                delegate.insertAll(pictures);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to write batch of %d records".formatted(batch.size()), e);
+            DatasourceException failure = e instanceof DatasourceException datasourceException
+                ? datasourceException : new DatasourceException("Error while inserting records", e);
+            batch.forEach(pending -> pending.future().completeExceptionally(failure));
+            return;
+        }
+        LOGGER.finer(() -> "Wrote batch of %d records".formatted(batch.size()));
+        batch.forEach(pending -> pending.future().complete(pending.picture()));
+    }
+
+    private record PendingInsert(Picture picture, CompletableFuture<Picture> future) {
+    }
+}
@@ -0,0 +1,151 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Bloom filter over record ids. {@link #mightContain(long)} never returns false for an added id,
+ * and returns true for an id not added with about the false positive rate the filter was sized for,
+ * as long as no more ids than its capacity are added.<br>
+ * Ids can't be removed, so after deletes the filter only gets less selective, never wrong.
+ * The filter is not thread-safe.
+ */
+final class IdBloomFilter {
+    private static final int MAGIC = 0x50444246; // "PDBF"
+    private static final double LN2 = Math.log(2);
+    // magic, stamp, capacity, hash count, size and number of words
+    private static final int HEADER_SIZE = 36;
+
+    private final long capacity;
+    private final int hashCount;
+    private final long bitCount;
+    private final long[] words;
+    private long size;
+
+    /**
+     * Creates an empty filter for the given number of ids and false positive rate.
+     *
+     * @param capacity          number of ids the filter is sized for
+     * @param falsePositiveRate false positive rate at capacity, e.g. 0.01
+     */
+    IdBloomFilter(long capacity, double falsePositiveRate) {
+        this.capacity = Math.max(capacity, 1);
+        long bits = (long) Math.ceil(-this.capacity * Math.log(falsePositiveRate) / (LN2 * LN2));
+        this.words = new long[(int) Math.min((bits + 63) / 64, Integer.MAX_VALUE - 8)];
+        this.bitCount = (long) words.length * 64;
+        this.hashCount = (int) Math.max(1, Math.round((double) bitCount / this.capacity * LN2));
+    }
+
+    private IdBloomFilter(long capacity, int hashCount, long size, long[] words) {
+        this.capacity = capacity;
+        this.hashCount = hashCount;
+        this.size = size;
+        this.words = words;
+        this.bitCount = (long) words.length * 64;
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    void add(long id) {
+        long hash = mix(id);
+        long h1 = hash >>> 32;
+        long h2 = hash & 0xFFFFFFFFL | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        size++;
+    }
+
+    boolean mightContain(long id) {
+        long hash = mix(id);
+        long h1 = hash >>> 32;
+        long h2 = hash & 0xFFFFFFFFL | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((words[(int) (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the filter to a temp file, which replaces the given file, together with the stamp of the data file
+     * the filter was built for.
+     */
+    void save(Path file, long stamp) throws IOException {
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + "-", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(stamp);
+            out.writeLong(capacity);
+            out.writeInt(hashCount);
+            out.writeLong(size);
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a filter saved for the data file with the given stamp.
+     *
+     * The number of words is checked against the file size before the words are allocated, so a corrupt file
+     * can't cause a huge allocation.
+     *
+     * @return the filter, or null if the file doesn't exist, is invalid or was saved for another stamp
+     */
+    static IdBloomFilter load(Path file, long stamp) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            long fileSize = Files.size(file);
+            if (in.readInt() != MAGIC || in.readLong() != stamp) {
+                return null;
+            }
+            long capacity = in.readLong();
+            int hashCount = in.readInt();
+            long size = in.readLong();
+            int wordCount = in.readInt();
+            if (capacity < 1 || hashCount < 1 || size < 0 || wordCount < 1 || fileSize != HEADER_SIZE + 8L * wordCount) {
+                return null;
+            }
+            long[] words = new long[wordCount];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            return new IdBloomFilter(capacity, hashCount, size, words);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finalizer of SplitMix64, spreading consecutive ids over all bits.
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,116 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Sorted ids of a data file of {@link FilePictureDatasource}, saved next to it as {@code <data file>.ids}.
+ * Datasources spreading their records over several data files use it to get the ids, the number of records and the
+ * highest id of a data file when opened, without reading the data file.<br>
+ * The ids are saved together with the size and modification time of the data file and a checksum. They are only
+ * loaded if the data file is unchanged, as each write to a data file changes its size or replaces it.
+ */
+final class IdSnapshot {
+    private static final int MAGIC = 0x50444253; // "PDBS"
+    private static final String SUFFIX = ".ids";
+    // magic, stamp and number of ids
+    private static final int HEADER_SIZE = 16;
+    // checksum of header and ids
+    private static final int CHECKSUM_SIZE = 4;
+
+    private IdSnapshot() {
+    }
+
+    /**
+     * Writes the ids to a temp file, which replaces the snapshot of the data file.
+     *
+     * @param dataFile data file the ids were read from
+     * @param ids      ids of the data file, in any order
+     * @throws IOException if writing the snapshot fails
+     */
+    static void save(Path dataFile, long[] ids) throws IOException {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 * sorted.length + CHECKSUM_SIZE);
+        buffer.putInt(MAGIC).putLong(stamp(dataFile.toFile())).putInt(sorted.length);
+        buffer.asLongBuffer().put(sorted);
+        buffer.position(buffer.limit() - CHECKSUM_SIZE);
+        buffer.putInt(checksum(buffer.array(), buffer.limit() - CHECKSUM_SIZE));
+
+        Path file = fileOf(dataFile);
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + "-", ".tmp");
+        try {
+            Files.write(tempFile, buffer.array());
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the ids saved for the data file in its current state.
+     *
+     * @param dataFile data file to read the ids of
+     * @return the sorted ids, or null if there is no snapshot, it is invalid or the data file changed since
+     */
+    static long[] load(Path dataFile) {
+        Path file = fileOf(dataFile);
+        try {
+            if (!Files.exists(file) || (Files.size(file) - HEADER_SIZE - CHECKSUM_SIZE) % 8 != 0) {
+                return null;
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (bytes.length < HEADER_SIZE + CHECKSUM_SIZE || buffer.getInt() != MAGIC
+                || buffer.getLong() != stamp(dataFile.toFile()) || buffer.getInt() != (bytes.length - HEADER_SIZE - CHECKSUM_SIZE) / 8
+                || buffer.getInt(bytes.length - CHECKSUM_SIZE) != checksum(bytes, bytes.length - CHECKSUM_SIZE)) {
+                return null;
+            }
+            long[] ids = new long[(bytes.length - HEADER_SIZE - CHECKSUM_SIZE) / 8];
+            buffer.asLongBuffer().get(ids);
+            return ids;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the snapshot of the data file is valid for its current state.
+     */
+    static boolean isCurrent(Path dataFile) {
+        return load(dataFile) != null;
+    }
+
+    /**
+     * Deletes the snapshot of a data file, e.g. when the data file is deleted.
+     *
+     * @throws IOException if deleting the snapshot fails
+     */
+    static void delete(Path dataFile) throws IOException {
+        Files.deleteIfExists(fileOf(dataFile));
+    }
+
+    private static Path fileOf(Path dataFile) {
+        return dataFile.resolveSibling(dataFile.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Identifies the state of the data file by its size and modification time.
+     */
+    private static long stamp(File dataFile) {
+        return dataFile.length() * 1_000_003L ^ dataFile.lastModified();
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+}
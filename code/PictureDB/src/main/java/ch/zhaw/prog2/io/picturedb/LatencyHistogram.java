@@ -0,0 +1,115 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe histogram of latencies in nanoseconds with a fixed relative precision, similar to HdrHistogram.<br>
+ * Values below 64 are counted exactly. Larger values are counted in buckets whose width grows with each power of two,
+ * where each power of two is split into 32 sub-buckets. Therefore, the relative error of a recorded value is at most
+ * 1/32 (3.125%) over the whole range of {@code long}, using a fixed array of counters and no allocation on recording.
+ */
+public class LatencyHistogram {
+    // number of bits of the sub-bucket index within a power of two
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // values below this limit are counted exactly
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+    private static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a single value. Negative values are recorded as 0.
+     * @param nanos value to record in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        totalSum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     * @return mean in nanoseconds, or 0 if no value was recorded
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalSum.sum() / count;
+    }
+
+    /**
+     * Returns the maximal recorded value.
+     * @return maximal value in nanoseconds, or 0 if no value was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall.
+     * The result is the upper bound of the bucket containing the percentile, but not more than the max value.
+     * @param percentile percentile in the range 0..100
+     * @return value at the percentile in nanoseconds, or 0 if no value was recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = totalCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long threshold = Math.max(1, (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= threshold) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Clears all recorded values.
+     * Values recorded concurrently to the reset may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalSum.reset();
+        max.reset();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int magnitude = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return magnitude * SUB_BUCKET_COUNT + (int) (value >>> magnitude);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        long upper = ((subBucket + 1) << magnitude) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
@@ -0,0 +1,128 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+
+import ch.zhaw.prog2.io.picturedb.DatasourceMetrics.Operation;
+
+/**
+ * Decorator for any {@link Datasource}, recording the latency of each call in {@link DatasourceMetrics}.
+ * If the metrics are disabled, the calls are forwarded without reading the clock.
+ *
+ * @param <T> type of the data record of the datasource
+ */
+public class MeteredDatasource<T extends Datarecord> implements Datasource<T> {
+    protected final Datasource<T> delegate;
+    protected final DatasourceMetrics metrics;
+
+    /**
+     * Creates a decorator recording the calls to the given datasource.
+     * @param delegate datasource to forward the calls to
+     * @param metrics metrics to record the latencies in
+     */
+    public MeteredDatasource(Datasource<T> delegate, DatasourceMetrics metrics) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.metrics = Objects.requireNonNull(metrics, "metrics must not be null");
+    }
+
+    /**
+     * Returns the metrics recorded by this datasource.
+     * @return metrics of the datasource
+     */
+    public DatasourceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insert(T record) {
+        measure(Operation.INSERT, () -> {
+            delegate.insert(record);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(T record) throws RecordNotFoundException {
+        measure(Operation.UPDATE, () -> {
+            delegate.update(record);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete(T record) throws RecordNotFoundException {
+        measure(Operation.DELETE, () -> {
+            delegate.delete(record);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        return measure(Operation.COUNT, delegate::count);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<T> findById(long id) {
+        return measure(Operation.FIND_BY_ID, () -> delegate.findById(id));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<T> findAll() {
+        return measure(Operation.FIND_ALL, delegate::findAll);
+    }
+
+    /**
+     * Executes the given call and records its latency for the given operation, also if it fails.
+     * If the metrics are disabled, the call is executed without reading the clock.
+     * @param operation operation to record the latency for
+     * @param call call to the delegate
+     * @return result of the call
+     * @param <R> type of the result
+     * @param <E> type of the checked exception thrown by the call
+     * @throws E if the call fails
+     */
+    protected <R, E extends Exception> R measure(Operation operation, Call<R, E> call) throws E {
+        if (!metrics.isEnabled()) {
+            return call.call();
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            R result = call.call();
+            failed = false;
+            return result;
+        } finally {
+            metrics.recordCall(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Call to the delegate, which may throw a checked exception.
+     * @param <R> type of the result
+     * @param <E> type of the checked exception
+     */
+    @FunctionalInterface
+    protected interface Call<R, E extends Exception> {
+        R call() throws E;
+    }
+}
@@ -0,0 +1,49 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.time.Duration;
+import java.util.Collection;
+
+import ch.zhaw.prog2.io.picturedb.DatasourceMetrics.Operation;
+
+/**
+ * Decorator for a {@link PictureDatasource}, additionally recording the latency of
+ * {@link #findByPosition(float, float, float)} and of the aggregations.
+ */
+public class MeteredPictureDatasource extends MeteredDatasource<Picture> implements PictureDatasource {
+    private final PictureDatasource pictureDelegate;
+
+    /**
+     * Creates a decorator recording the calls to the given datasource.
+     * @param delegate datasource to forward the calls to
+     * @param metrics metrics to record the latencies in
+     */
+    public MeteredPictureDatasource(PictureDatasource delegate, DatasourceMetrics metrics) {
+        super(delegate, metrics);
+        this.pictureDelegate = delegate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+        return measure(Operation.FIND_BY_POSITION, () -> pictureDelegate.findByPosition(longitude, latitude, deviation));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        return measure(Operation.COUNT_BY_GRID,
+            () -> pictureDelegate.countByGrid(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DateHistogram countByDate(Duration bucketSize) {
+        return measure(Operation.COUNT_BY_DATE, () -> pictureDelegate.countByDate(bucketSize));
+    }
+}
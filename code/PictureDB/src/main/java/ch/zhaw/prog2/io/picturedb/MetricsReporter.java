@@ -0,0 +1,27 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pluggable reporter, which is called periodically by {@link DatasourceMetrics#startReporting} to publish the
+ * current metrics, e.g. to a log, a file or an external monitoring system.
+ */
+@FunctionalInterface
+public interface MetricsReporter {
+    /**
+     * Publishes the current state of the given metrics.
+     * @param metrics metrics to report
+     */
+    void report(DatasourceMetrics metrics);
+
+    /**
+     * Returns a reporter writing the summary of the metrics to the given logger.
+     * @param logger logger to write to
+     * @param level level of the log messages
+     * @return reporter writing to the logger
+     */
+    static MetricsReporter logging(Logger logger, Level level) {
+        return metrics -> logger.log(level, metrics::toString);
+    }
+}
@@ -0,0 +1,43 @@
+package ch.zhaw.prog2.io.picturedb;
+
+/**
+ * JMX management interface exposing the latency histogram of a single datasource operation.
+ * Registered with the object name {@code ch.zhaw.prog2.io.picturedb:type=Datasource,name=<name>,operation=<operation>}.
+ */
+public interface OperationMetricsMXBean {
+    /**
+     * Returns the number of calls of the operation.
+     * @return number of calls
+     */
+    long getCount();
+
+    /**
+     * Returns the number of calls which failed with an exception.
+     * @return number of failed calls
+     */
+    long getErrors();
+
+    /**
+     * Returns the mean latency of the operation.
+     * @return mean latency in microseconds
+     */
+    double getMeanMicros();
+
+    /**
+     * Returns the median latency of the operation.
+     * @return median latency in microseconds
+     */
+    double getP50Micros();
+
+    /**
+     * Returns the 99th percentile latency of the operation.
+     * @return 99th percentile latency in microseconds
+     */
+    double getP99Micros();
+
+    /**
+     * Returns the max latency of the operation.
+     * @return max latency in microseconds
+     */
+    double getMaxMicros();
+}
@@ -1,5 +1,6 @@
 package ch.zhaw.prog2.io.picturedb;
 
+import java.time.Duration;
 import java.util.Collection;
 
 /**
@@ -21,4 +22,43 @@ public interface PictureDatasource extends Datasource<Picture> {
      * @throws DatasourceException if an error occurs accessing the data source
      */
     Collection<Picture> findByPosition(float longitude, float latitude, float deviation);
+
+    /**
+     * Counts the pictures per cell of a grid over the given bounding box, see {@link GridHistogram}.
+     * The default implementation counts the pictures returned by {@link #findAll()}, datasources should count the
+     * stored coordinates without creating Picture objects.
+     *
+     * @param minLongitude western border of the box
+     * @param minLatitude  southern border of the box
+     * @param maxLongitude eastern border of the box
+     * @param maxLatitude  northern border of the box
+     * @param columns      number of cells in longitude direction
+     * @param rows         number of cells in latitude direction
+     * @return number of pictures per cell
+     * @throws DatasourceException if an error occurs accessing the data source
+     */
+    default GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        GridHistogram histogram = new GridHistogram(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+        for (Picture picture : findAll()) {
+            histogram.add(picture.getLongitude(), picture.getLatitude());
+        }
+        return histogram;
+    }
+
+    /**
+     * Counts the pictures per date bucket of the given size, see {@link DateHistogram}.
+     * The default implementation counts the pictures returned by {@link #findAll()}, datasources should count the
+     * stored dates without creating Picture objects.
+     *
+     * @param bucketSize size of the buckets, e.g. one day
+     * @return number of pictures per bucket
+     * @throws DatasourceException if an error occurs accessing the data source
+     */
+    default DateHistogram countByDate(Duration bucketSize) {
+        DateHistogram histogram = new DateHistogram(bucketSize);
+        for (Picture picture : findAll()) {
+            histogram.add(picture.getDate().getTime());
+        }
+        return histogram;
+    }
 }
@@ -48,8 +48,10 @@ public class PictureImport {
     }
 
     private void runDemo(String pictureDB, Locale locale) throws IOException {
-        // create datasource
-        PictureDatasource dataSource = new FilePictureDatasource(pictureDB);
+        // create datasource, recording its metrics (also available as JMX MBeans)
+        DatasourceMetrics metrics = new DatasourceMetrics("picture-import");
+        metrics.registerMBeans();
+        PictureDatasource dataSource = new MeteredPictureDatasource(new FilePictureDatasource(pictureDB, metrics), metrics);
         // read picture data from the terminal
         Picture picture = createPicture();
         // save the picture to the data source
@@ -72,6 +74,7 @@ public class PictureImport {
         for (Picture pict : pictures) {
             out.println(pict.toString());
         }
+        out.println(metrics);
     }
 
     /**
@@ -0,0 +1,43 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Page of Picture records, as returned by {@link FilePictureDatasource#findPage(String, int)}.<br>
+ * The cursor of the next page is an opaque string, which can be passed on e.g. as a request parameter.
+ * It is only valid for the datasource which returned it.
+ */
+public final class PicturePage {
+    private final List<Picture> pictures;
+    private final String nextCursor;
+
+    PicturePage(List<Picture> pictures, String nextCursor) {
+        this.pictures = List.copyOf(pictures);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Returns the records of the page.
+     * @return unmodifiable list of the records
+     */
+    public List<Picture> getPictures() {
+        return pictures;
+    }
+
+    /**
+     * Returns the cursor to read the next page with.
+     * @return cursor of the next page, empty if this is the last page
+     */
+    public Optional<String> getNextCursor() {
+        return Optional.ofNullable(nextCursor);
+    }
+
+    /**
+     * Tells if there are more records after this page.
+     * @return true if there is a next page
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
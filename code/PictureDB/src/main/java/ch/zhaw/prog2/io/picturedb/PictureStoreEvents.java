@@ -0,0 +1,141 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted by {@link FilePictureDatasource}.<br>
+ * Each event covers one datasource call and carries the record id or query parameters, the number of rows scanned
+ * and the bytes read and written, so slow requests can be matched to specific datasource calls in a recording.
+ * If no recording is running, creating and committing an event costs hardly more than the allocation,
+ * which is usually removed by the JIT compiler.<br>
+ * Enable them e.g. with {@code -XX:StartFlightRecording:settings=profile} or in JDK Mission Control,
+ * filtering for the category "PictureDB".
+ */
+public final class PictureStoreEvents {
+    private static final String CATEGORY = "PictureDB";
+
+    private PictureStoreEvents() {
+    }
+
+    /**
+     * Common fields of all picture store events.
+     */
+    @Category(CATEGORY)
+    @StackTrace(false)
+    abstract static class PictureStoreEvent extends Event {
+        @Label("Data File")
+        String dataFile;
+
+        @Label("Rows Scanned")
+        long rowsScanned;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    /**
+     * Lookup of a single record by its id.
+     */
+    @Name("ch.zhaw.prog2.io.picturedb.FindById")
+    @Label("Find By Id")
+    @Description("Lookup of a picture by its id")
+    public static final class FindById extends PictureStoreEvent {
+        @Label("Record Id")
+        long recordId;
+
+        @Label("Found")
+        boolean found;
+    }
+
+    /**
+     * Query of all records in a square area.
+     */
+    @Name("ch.zhaw.prog2.io.picturedb.FindByPosition")
+    @Label("Find By Position")
+    @Description("Query of all pictures in a square area")
+    public static final class FindByPosition extends PictureStoreEvent {
+        @Label("Longitude")
+        float longitude;
+
+        @Label("Latitude")
+        float latitude;
+
+        @Label("Deviation")
+        float deviation;
+
+        @Label("Results")
+        long results;
+    }
+
+    /**
+     * Full scan of the data file, e.g. by findAll or count.
+     */
+    @Name("ch.zhaw.prog2.io.picturedb.Scan")
+    @Label("Scan")
+    @Description("Full scan of the picture data file")
+    public static final class Scan extends PictureStoreEvent {
+        @Label("Operation")
+        String operation;
+
+        @Label("Results")
+        long results;
+    }
+
+    /**
+     * Insert of one or more new records.
+     */
+    @Name("ch.zhaw.prog2.io.picturedb.Insert")
+    @Label("Insert")
+    @Description("Insert of new pictures")
+    public static final class Insert extends PictureStoreEvent {
+        @Label("Record Id")
+        @Description("Id of the first inserted picture")
+        long recordId;
+
+        @Label("Records")
+        int records = 1;
+    }
+
+    /**
+     * Update or delete of an existing record.
+     */
+    @Name("ch.zhaw.prog2.io.picturedb.Modify")
+    @Label("Modify")
+    @Description("Update or delete of a picture")
+    public static final class Modify extends PictureStoreEvent {
+        @Label("Operation")
+        String operation;
+
+        @Label("Record Id")
+        long recordId;
+
+        @Label("Found")
+        boolean found;
+    }
+
+    /**
+     * Replacement of the data file by a rewritten temp file.
+     */
+    @Name("ch.zhaw.prog2.io.picturedb.ReplaceFile")
+    @Label("Replace File")
+    @Description("Replacement of the picture data file by a rewritten temp file")
+    public static final class ReplaceFile extends PictureStoreEvent {
+        @Label("Temp File")
+        String tempFile;
+
+        @Label("File Size")
+        @DataAmount
+        long fileSize;
+    }
+}
@@ -5,12 +5,20 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
 public final class RawPictureProjection {
+    // number of distinct urls and titles shared between the pictures converted by a projection
+    private static final int MAX_SHARED_VALUES = 4096;
+
     private final DateFormat dateFormat;
+    private final DatasourceMetrics metrics;
+    private final Map<String, URL> sharedUrls = new HashMap<>();
+    private final Map<String, String> sharedTitles = new HashMap<>();
 
     private final int pictureIdIdx;
     private final int pictureTitleIdx;
@@ -22,8 +30,9 @@ public final class RawPictureProjection {
     private String[] rawPicture;
 
 
-    private RawPictureProjection(DateFormat dateFormat, int pictureIdIdx, int pictureUrlIdx, int pictureTitleIdx, int pictureLongitudeIdx, int pictureLatitudeIdx, int pictureDateIdx) {
+    private RawPictureProjection(DateFormat dateFormat, DatasourceMetrics metrics, int pictureIdIdx, int pictureUrlIdx, int pictureTitleIdx, int pictureLongitudeIdx, int pictureLatitudeIdx, int pictureDateIdx) {
         this.dateFormat             = dateFormat;
+        this.metrics                = metrics;
 
         this.pictureIdIdx           = pictureIdIdx;
         this.pictureUrlIdx          = pictureUrlIdx;
@@ -49,11 +58,30 @@ public final class RawPictureProjection {
     }
 
     public String selectTitle() {
-        return checkedRawDataAccess(pictureTitleIdx);
+        String title = checkedRawDataAccess(pictureTitleIdx);
+        String shared = sharedTitles.get(title);
+        metrics.recordCacheLookup(shared != null);
+        if (shared == null && sharedTitles.size() < MAX_SHARED_VALUES) {
+            sharedTitles.put(title, title);
+        }
+        return shared == null ? title : shared;
     }
 
+    /**
+     * Returns the url of the row. Rows with the same url get the same (immutable) URL instance,
+     * so the pictures of a scan share their urls instead of parsing each again.
+     */
     public URL selectUrl() throws MalformedURLException {
-        return new URL(checkedRawDataAccess(pictureUrlIdx));
+        String value = checkedRawDataAccess(pictureUrlIdx);
+        URL url = sharedUrls.get(value);
+        metrics.recordCacheLookup(url != null);
+        if (url == null) {
+            url = new URL(value);
+            if (sharedUrls.size() < MAX_SHARED_VALUES) {
+                sharedUrls.put(value, url);
+            }
+        }
+        return url;
     }
 
     public float selectLongitude() {
@@ -98,6 +126,14 @@ public final class RawPictureProjection {
     }
 
     public static RawPictureProjection create(final DateFormat dateFormat, final List<String> header) {
+        return create(dateFormat, header, DatasourceMetrics.disabled());
+    }
+
+    /**
+     * Creates a projection which records the lookups of its shared urls and titles as cache lookups.
+     */
+    public static RawPictureProjection create(final DateFormat dateFormat, final List<String> header, final DatasourceMetrics metrics) {
+        Objects.requireNonNull(metrics);
         int readPictureIdIdx = header.indexOf("id");
         int readPictureUrlIdx = header.indexOf("url");
         int readPictureTitleIdx = header.indexOf("title");
@@ -105,6 +141,6 @@ public final class RawPictureProjection {
         int readPictureLatitudeIdx = header.indexOf("latitude");
         int readPictureDateIdx = header.indexOf("date");
 
-        return new RawPictureProjection(dateFormat, readPictureIdIdx, readPictureUrlIdx, readPictureTitleIdx, readPictureLongitudeIdx, readPictureLatitudeIdx, readPictureDateIdx);
+        return new RawPictureProjection(dateFormat, metrics, readPictureIdIdx, readPictureUrlIdx, readPictureTitleIdx, readPictureLongitudeIdx, readPictureLatitudeIdx, readPictureDateIdx);
     }
 }
@@ -0,0 +1,557 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implements the PictureDatasource Interface distributing the records over several shard files,
+ * each stored in the format of {@link FilePictureDatasource}.<br>
+ * The records are partitioned by their id, either by id range or by hash (see {@link Partitioning}).
+ * The shards are listed in a manifest file in the shard directory, which is replaced atomically on each change.
+ * Therefore, a write only rewrites a single shard file, and scans read all shard files in parallel.<br>
+ * If a shard grows past the split threshold, it is split into two new shards. The records of the shard are rewritten
+ * into the new shard files while only writes to this shard wait. Other calls are only blocked for the short time to
+ * replace the shard in the manifest.<br>
+ * When the datasource is closed, the ids of each shard are saved next to its file (see {@link IdSnapshot}), so the
+ * next open only reads the shard files changed since, to get their number of records and highest id.<br>
+ * Reads of different shards and of the same shard run concurrently. Writes to a shard run exclusively.
+ */
+public class ShardedPictureDatasource implements PictureDatasource, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ShardedPictureDatasource.class.getName());
+    private static final String MANIFEST_FILE = "shards.manifest";
+    private static final String PARTITIONING_KEY = "partitioning=";
+    private static final String NEXT_SHARD_KEY = "nextShard=";
+    private static final String SHARD_KEY = "shard=";
+
+    /**
+     * Defines how the records are assigned to the shards.
+     */
+    public enum Partitioning {
+        /**
+         * Each shard holds a contiguous range of ids. The datasource starts with a single shard,
+         * which is split at the median id, when it grows past the threshold.
+         * New records are always inserted into the shard with the highest ids.
+         */
+        RANGE,
+        /**
+         * Each shard holds the ids with a certain value in the lowest bits of the hashed id.
+         * Splitting a shard uses one more bit, so new records are spread evenly over all shards.
+         */
+        HASH
+    }
+
+    private final Path directory;
+    private final Partitioning partitioning;
+    private final long splitThreshold;
+    // guards the list of shards; splits hold the write lock only to replace a shard
+    private final ReadWriteLock topologyLock = new ReentrantReadWriteLock();
+    private final List<Shard> shards = new ArrayList<>();
+    private final AtomicLong nextId;
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    /**
+     * Opens the sharded datasource in the given directory.
+     * If the directory contains no manifest, a new datasource is created with the given partitioning.
+     * A new datasource with {@link Partitioning#HASH} starts with {@code initialShards} shards rounded up to
+     * the next power of two, one with {@link Partitioning#RANGE} with a single shard.
+     * For an existing datasource, the partitioning and number of shards are read from the manifest.
+     *
+     * @param directory      directory containing the manifest and the shard files
+     * @param partitioning   partitioning of a new datasource
+     * @param initialShards  number of shards of a new datasource with hash partitioning
+     * @param splitThreshold number of records in a shard, above which it is split
+     * @throws IOException if reading or creating the manifest or shard files fails
+     */
+    public ShardedPictureDatasource(String directory, Partitioning partitioning, int initialShards, long splitThreshold) throws IOException {
+        if (initialShards < 1 || splitThreshold < 2) {
+            throw new IllegalArgumentException("initialShards must be at least 1 and splitThreshold at least 2");
+        }
+        this.directory = Path.of(directory);
+        this.splitThreshold = splitThreshold;
+        Files.createDirectories(this.directory);
+
+        Path manifest = this.directory.resolve(MANIFEST_FILE);
+        if (Files.exists(manifest)) {
+            this.partitioning = readManifest(manifest);
+        } else {
+            this.partitioning = Objects.requireNonNull(partitioning, "partitioning must not be null");
+            createShards(initialShards);
+        }
+        this.nextId = new AtomicLong(shards.parallelStream()
+            .mapToLong(this::loadRecords)
+            .max().orElse(-1) + 1);
+        LOGGER.fine(() -> "Opened %d %s shards in '%s'".formatted(shards.size(), this.partitioning, this.directory));
+    }
+
+    /**
+     * Sets the number of records of the shard, taken from its id snapshot if the shard file is unchanged,
+     * otherwise by reading the shard file.
+     *
+     * @return highest id of the shard, or -1 if it is empty
+     */
+    private long loadRecords(Shard shard) {
+        long[] ids = IdSnapshot.load(directory.resolve(shard.fileName));
+        if (ids == null) {
+            shard.records.set(shard.datasource.count());
+            return shard.datasource.highestId();
+        }
+        shard.records.set(ids.length);
+        return ids.length == 0 ? -1 : ids[ids.length - 1];
+    }
+
+    /**
+     * Saves the id snapshots of the shards changed since their snapshot was saved.
+     * If saving a snapshot fails, the shard file is read when the datasource is opened the next time.
+     */
+    @Override
+    public void close() {
+        topologyLock.readLock().lock();
+        try {
+            shards.parallelStream().forEach(shard -> {
+                shard.lock.readLock().lock();
+                try {
+                    saveIdSnapshot(shard);
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            });
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    private void saveIdSnapshot(Shard shard) {
+        Path file = directory.resolve(shard.fileName);
+        if (IdSnapshot.isCurrent(file)) {
+            return;
+        }
+        try {
+            IdSnapshot.save(file, shard.datasource.findAll().stream().mapToLong(Picture::getId).toArray());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Couldn't save id snapshot of shard " + shard.fileName, e);
+        }
+    }
+
+    /**
+     * Returns the number of shards.
+     * @return number of shards
+     */
+    public int getShardCount() {
+        topologyLock.readLock().lock();
+        try {
+            return shards.size();
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insert(Picture picture) {
+        Objects.requireNonNull(picture, "picture must not be null");
+        Shard target;
+        topologyLock.readLock().lock();
+        try {
+            picture.setId(nextId.getAndIncrement());
+            target = shardOf(picture.getId())
+                .orElseThrow(() -> new DatasourceException("No shard found for id " + picture.getId()));
+            target.lock.writeLock().lock();
+            try {
+                target.datasource.append(List.of(picture));
+                target.records.incrementAndGet();
+                target.version++;
+            } finally {
+                target.lock.writeLock().unlock();
+            }
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+        if (target.records.get() > splitThreshold) {
+            split(target);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        topologyLock.readLock().lock();
+        try {
+            Shard shard = shardOf(picture.getId())
+                .orElseThrow(() -> new RecordNotFoundException("Record not found: " + picture.getId()));
+            shard.lock.writeLock().lock();
+            try {
+                shard.datasource.update(picture);
+                shard.version++;
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        topologyLock.readLock().lock();
+        try {
+            Shard shard = shardOf(picture.getId())
+                .orElseThrow(() -> new RecordNotFoundException("Record not found: " + picture.getId()));
+            shard.lock.writeLock().lock();
+            try {
+                shard.datasource.delete(picture);
+                shard.records.decrementAndGet();
+                shard.version++;
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        return scan(shard -> List.of(shard.datasource.count())).stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<Picture> findById(long id) {
+        topologyLock.readLock().lock();
+        try {
+            Optional<Shard> shard = shardOf(id);
+            if (shard.isEmpty()) {
+                return Optional.empty();
+            }
+            shard.get().lock.readLock().lock();
+            try {
+                return shard.get().datasource.findById(id);
+            } finally {
+                shard.get().lock.readLock().unlock();
+            }
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findAll() {
+        return scan(shard -> shard.datasource.findAll());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+        return scan(shard -> shard.datasource.findByPosition(longitude, latitude, deviation));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The shards are counted in parallel, and their histograms are merged.
+     */
+    @Override
+    public GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        return scan(shard -> List.of(shard.datasource.countByGrid(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows)))
+            .stream().reduce(GridHistogram::merge).orElseThrow();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The shards are counted in parallel, and their histograms are merged.
+     */
+    @Override
+    public DateHistogram countByDate(Duration bucketSize) {
+        return scan(shard -> List.of(shard.datasource.countByDate(bucketSize))).stream().reduce(DateHistogram::merge).orElseThrow();
+    }
+
+    /**
+     * Runs the query on all shards in parallel and concatenates the results in the order of the shards.
+     */
+    private <R> List<R> scan(Function<Shard, Collection<R>> query) {
+        topologyLock.readLock().lock();
+        try {
+            return shards.parallelStream()
+                .map(shard -> {
+                    shard.lock.readLock().lock();
+                    try {
+                        return query.apply(shard);
+                    } finally {
+                        shard.lock.readLock().unlock();
+                    }
+                })
+                .flatMap(Collection::stream)
+                .toList();
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the shard holding the given id, or empty if no shard covers the id, e.g. for negative ids.
+     */
+    private Optional<Shard> shardOf(long id) {
+        for (Shard shard : shards) {
+            if (shard.contains(id)) {
+                return Optional.of(shard);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Splits the given shard into two new shards, if it still exceeds the threshold.
+     * The records are written to two new shard files holding only the read lock of the shard, so only writes to
+     * this shard wait. Then the shard is replaced in the manifest under the topology write lock and the old file
+     * is deleted. If the shard was modified or split in between, the new files are discarded and the next insert
+     * exceeding the threshold tries again. Only one thread prepares a split of a shard at a time, concurrent
+     * inserts exceeding the threshold return immediately.
+     */
+    private void split(Shard shard) {
+        if (!shard.splitting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            splitExclusively(shard);
+        } finally {
+            shard.splitting.set(false);
+        }
+    }
+
+    /**
+     * Splits the given shard, while the caller holds its splitting flag.
+     */
+    private void splitExclusively(Shard shard) {
+        Split split;
+        topologyLock.readLock().lock();
+        try {
+            if (!shards.contains(shard) || shard.records.get() <= splitThreshold) {
+                return;
+            }
+            shard.lock.readLock().lock();
+            try {
+                split = prepareSplit(shard);
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to split shard " + shard.fileName, e);
+            throw new DatasourceException("Error while splitting shard", e);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+        if (split == null) {
+            return;
+        }
+
+        topologyLock.writeLock().lock();
+        try {
+            if (!shards.contains(shard) || shard.version != split.version()) {
+                LOGGER.fine(() -> "Discarding split of shard '%s' modified concurrently".formatted(shard.fileName));
+                Files.deleteIfExists(directory.resolve(split.lower().fileName));
+                Files.deleteIfExists(directory.resolve(split.upper().fileName));
+                return;
+            }
+            int index = shards.indexOf(shard);
+            shards.set(index, split.lower());
+            shards.add(index + 1, split.upper());
+            writeManifest();
+            Files.deleteIfExists(directory.resolve(shard.fileName));
+            IdSnapshot.delete(directory.resolve(shard.fileName));
+            LOGGER.info(() -> "Split shard '%s' into '%s' (%d records) and '%s' (%d records)".formatted(
+                shard.fileName, split.lower().fileName, split.lower().records.get(),
+                split.upper().fileName, split.upper().records.get()));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to split shard " + shard.fileName, e);
+            throw new DatasourceException("Error while splitting shard", e);
+        } finally {
+            topologyLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the records of the shard into two new shard files, which are not yet part of the manifest.
+     * The caller holds the read lock of the shard.
+     *
+     * @return the new shards and the version of the shard they were created from, or null if it can not be split
+     */
+    private Split prepareSplit(Shard shard) throws IOException {
+        List<Picture> pictures = new ArrayList<>(shard.datasource.findAll());
+        if (pictures.size() < 2) {
+            return null;
+        }
+        Shard lower;
+        Shard upper;
+        if (partitioning == Partitioning.RANGE) {
+            pictures.sort(Comparator.comparingLong(Picture::getId));
+            long median = pictures.get(pictures.size() / 2).getId();
+            lower = newShard(shard.low, median);
+            upper = newShard(median, shard.high);
+        } else {
+            long bits = shard.low + 1;
+            lower = newShard(bits, shard.high);
+            upper = newShard(bits, shard.high | (1L << shard.low));
+        }
+        List<Picture> lowerPictures = new ArrayList<>();
+        List<Picture> upperPictures = new ArrayList<>();
+        for (Picture picture : pictures) {
+            (lower.contains(picture.getId()) ? lowerPictures : upperPictures).add(picture);
+        }
+        lower.datasource.append(lowerPictures);
+        lower.records.set(lowerPictures.size());
+        upper.datasource.append(upperPictures);
+        upper.records.set(upperPictures.size());
+        return new Split(lower, upper, shard.version);
+    }
+
+    private void createShards(int initialShards) throws IOException {
+        if (partitioning == Partitioning.RANGE) {
+            shards.add(newShard(0, Long.MAX_VALUE));
+        } else {
+            int bits = 32 - Integer.numberOfLeadingZeros(initialShards - 1);
+            for (int value = 0; value < 1 << bits; value++) {
+                shards.add(newShard(bits, value));
+            }
+        }
+        writeManifest();
+    }
+
+    /**
+     * Creates a new empty shard file. For range partitioning the shard holds the ids in [low, high[,
+     * for hash partitioning the ids whose hash has the value {@code high} in the lowest {@code low} bits.
+     */
+    private Shard newShard(long low, long high) throws IOException {
+        String fileName = "shard-%d.csv".formatted(nextShard.getAndIncrement());
+        Path file = directory.resolve(fileName);
+        Files.deleteIfExists(file);
+        IdSnapshot.delete(file);
+        Files.createFile(file);
+        return new Shard(fileName, low, high, new FilePictureDatasource(file.toString()), partitioning);
+    }
+
+    private Partitioning readManifest(Path manifest) throws IOException {
+        Partitioning readPartitioning = null;
+        for (String line : Files.readAllLines(manifest, FilePictureDatasource.CHARSET)) {
+            if (line.startsWith(PARTITIONING_KEY)) {
+                readPartitioning = Partitioning.valueOf(line.substring(PARTITIONING_KEY.length()));
+            } else if (line.startsWith(NEXT_SHARD_KEY)) {
+                nextShard.set(Integer.parseInt(line.substring(NEXT_SHARD_KEY.length())));
+            } else if (line.startsWith(SHARD_KEY)) {
+                String[] fields = line.substring(SHARD_KEY.length()).split(FilePictureDatasource.DELIMITER);
+                if (readPartitioning == null || fields.length != 3) {
+                    throw new IOException("Invalid shard manifest line: " + line);
+                }
+                shards.add(new Shard(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    new FilePictureDatasource(directory.resolve(fields[0]).toString()), readPartitioning));
+            }
+        }
+        if (readPartitioning == null || shards.isEmpty()) {
+            throw new IOException("Invalid shard manifest: " + manifest);
+        }
+        return readPartitioning;
+    }
+
+    /**
+     * Writes the manifest to a temp file and moves it atomically over the current manifest.
+     */
+    private void writeManifest() throws IOException {
+        Path tempFile = Files.createTempFile(directory, "shards-", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, FilePictureDatasource.CHARSET)) {
+            writer.write(PARTITIONING_KEY + partitioning);
+            writer.newLine();
+            writer.write(NEXT_SHARD_KEY + nextShard.get());
+            writer.newLine();
+            for (Shard shard : shards) {
+                writer.write(SHARD_KEY + String.join(FilePictureDatasource.DELIMITER,
+                    shard.fileName, String.valueOf(shard.low), String.valueOf(shard.high)));
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, directory.resolve(MANIFEST_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Spreads the ids, so consecutive ids are distributed evenly over the hash shards.
+     */
+    private static long hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Two new shards replacing a shard, created from the given version of the shard.
+     */
+    private record Split(Shard lower, Shard upper, long version) {
+    }
+
+    /**
+     * A shard file with the ids it holds.
+     * For range partitioning, the shard holds the ids in [low, high[.
+     * For hash partitioning, low is the number of hash bits and high their value.
+     */
+    private static final class Shard {
+        private final String fileName;
+        private final long low;
+        private final long high;
+        private final FilePictureDatasource datasource;
+        private final Partitioning partitioning;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final AtomicLong records = new AtomicLong();
+        // set while a thread splits the shard
+        private final AtomicBoolean splitting = new AtomicBoolean();
+        // number of modifications, changed under the write lock of the shard and the read lock of the topology
+        private long version = 0;
+
+        Shard(String fileName, long low, long high, FilePictureDatasource datasource, Partitioning partitioning) {
+            this.fileName = fileName;
+            this.low = low;
+            this.high = high;
+            this.datasource = datasource;
+            this.partitioning = partitioning;
+        }
+
+        boolean contains(long id) {
+            if (partitioning == Partitioning.RANGE) {
+                return id >= low && id < high;
+            }
+            long mask = (1L << low) - 1;
+            return (hash(id) & mask) == high;
+        }
+    }
+}
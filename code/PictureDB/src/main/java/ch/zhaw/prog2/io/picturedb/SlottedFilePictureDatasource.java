@@ -0,0 +1,624 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import static ch.zhaw.prog2.io.picturedb.FilePictureDatasource.*;
+
+/**
+ * Implements the PictureDatasource Interface storing each record in a slot of reserved size in a CSV file.<br>
+ * A slot consists of the CSV row of the record, padded with spaces and terminated by a line break.
+ * New slots reserve about a quarter of the row length as padding, so an update whose row still fits into the slot
+ * is written in place with a single positional write, instead of rewriting the whole file.
+ * Only records outgrowing their slot are moved to a new slot at the end of the file.
+ * Deleted and moved slots are blanked with spaces, so they are read as empty lines.<br>
+ * Files written by {@link FilePictureDatasource} can be opened, each row is a slot without padding.
+ * Bytes after the last line break are completed with a line break if they are a valid row, e.g. written by another
+ * program without a final line break. Otherwise, they are an incomplete slot of an interrupted write and are truncated.
+ * The position and size of each slot is kept in an in-memory index, which is built when the datasource is opened.
+ * A record found twice (moving a record writes the new slot before blanking the old one) is taken from the later
+ * slot, and the earlier slot is blanked.<br>
+ * When the datasource is closed, the index is saved to the index snapshot {@code <data file>.index}, sorted by id and
+ * protected by checksums. When opened, the snapshot is memory-mapped and used as index directly, so it is not
+ * rebuilt from the data file. Only the slots appended since the snapshot was saved are read. The snapshot is
+ * only used if it belongs to the same file (file key and checksum of the bytes before the end of the data file at
+ * the time of the snapshot). In-place updates don't change the index, moved records are found in the appended
+ * slots, but deletes aren't visible in the data file, so the first delete deletes the snapshot file.<br>
+ * All methods are synchronized, so the datasource can be shared by several threads.
+ */
+public class SlottedFilePictureDatasource implements PictureDatasource, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(SlottedFilePictureDatasource.class.getName());
+    // slot sizes are multiples of this alignment
+    private static final int SLOT_ALIGNMENT = 16;
+    private static final int MIN_PADDING = 8;
+    private static final byte PADDING = ' ';
+    private static final byte LINE_BREAK = '\n';
+    private static final String INDEX_SUFFIX = ".index";
+    private static final int INDEX_MAGIC = 0x50444249; // "PDBI"
+    private static final int INDEX_VERSION = 1;
+    // magic, version, data file size, file key hash, tail checksum, next id, entries, entries checksum, header checksum
+    private static final int INDEX_HEADER_SIZE = 48;
+    // id, position, size
+    private static final int INDEX_ENTRY_SIZE = 20;
+    private static final int TAIL_CHECK_SIZE = 4096;
+
+    private final Path databaseFile;
+    private final FileChannel channel;
+    private final boolean syncWrites;
+    private final RawPictureProjection projection = RawPictureProjection.create(new SimpleDateFormat(DATE_FORMAT), HEADER_COLUMNS);
+    private final Path indexFile;
+    // slots changed since the index snapshot, or all slots if there is no snapshot
+    private final Map<Long, Slot> slots = new HashMap<>();
+    // entries of the memory-mapped index snapshot, sorted by id
+    private ByteBuffer snapshotIndex = null;
+    private int snapshotEntries = 0;
+    private long count = 0;
+    private long nextId = 0;
+
+    /**
+     * Opens the datasource with the given file path as datafile, creating the file if it does not exist.
+     *
+     * @param filepath   of the file to use as database file
+     * @param syncWrites true to force each write to the storage device before it returns
+     * @throws IOException if accessing or creating the file fails
+     */
+    public SlottedFilePictureDatasource(String filepath, boolean syncWrites) throws IOException {
+        this.databaseFile = Path.of(filepath).toAbsolutePath();
+        this.indexFile = Path.of(databaseFile + INDEX_SUFFIX);
+        this.syncWrites = syncWrites;
+        this.channel = FileChannel.open(databaseFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (!loadIndexSnapshot()) {
+                buildIndex(0);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void insert(Picture picture) {
+        Objects.requireNonNull(picture, "picture must not be null");
+        picture.setId(nextId++);
+        try {
+            putSlot(picture.getId(), appendSlot(toRow(picture)));
+            sync();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "An error occurred while inserting entry.", e);
+            throw new DatasourceException("Error while inserting record", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * If the new row fits into the slot of the record, it is written in place.
+     * Otherwise, the record is moved to a new slot at the end of the file.
+     */
+    @Override
+    public synchronized void update(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        Slot slot = slot(picture.getId());
+        if (slot == null) {
+            throw new RecordNotFoundException("Record not found: " + picture.getId());
+        }
+        try {
+            byte[] row = toRow(picture);
+            if (row.length < slot.size()) {
+                LOGGER.fine(() -> "Updating id '%d' in place".formatted(picture.getId()));
+                writeSlot(slot.position(), row, slot.size());
+            } else {
+                LOGGER.fine(() -> "Moving id '%d' to a new slot".formatted(picture.getId()));
+                slots.put(picture.getId(), appendSlot(row));
+                // the new slot has to be on the storage device before the old one is blanked
+                sync();
+                blankSlot(slot);
+            }
+            sync();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "An exception occurred while updating record.", e);
+            throw new DatasourceException("Error while updating record", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void delete(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        Slot slot = slot(picture.getId());
+        if (slot == null) {
+            throw new RecordNotFoundException("Record not found: " + picture.getId());
+        }
+        try {
+            if (snapshotIndex != null) {
+                // the snapshot would still contain the deleted record after a crash, so the index is moved to memory
+                Files.deleteIfExists(indexFile);
+                slots.putAll(snapshotSlots());
+                snapshotIndex = null;
+                snapshotEntries = 0;
+            }
+            blankSlot(slot);
+            sync();
+            slots.remove(picture.getId());
+            count--;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "An exception occurred while trying to delete record", e);
+            throw new DatasourceException("Error while deleting record", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Optional<Picture> findById(long id) {
+        Slot slot = slot(id);
+        if (slot == null) {
+            return Optional.empty();
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(slot.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, slot.position() + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file in slot of id " + id);
+                }
+            }
+            return parse(new String(buffer.array(), CHARSET).strip());
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to process db file", e);
+            throw new DatasourceException("Error while reading records", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<Picture> findAll() {
+        return scan(p -> true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+        return scan(p -> p.selectLongitude() >= longitude - deviation && p.selectLongitude() <= longitude + deviation
+            && p.selectLatitude() >= latitude - deviation && p.selectLatitude() <= latitude + deviation);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the longitude and latitude of the rows are parsed.
+     */
+    @Override
+    public synchronized GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        GridHistogram histogram = new GridHistogram(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+        forEachRecord(p -> histogram.add(p.selectLongitude(), p.selectLatitude()));
+        return histogram;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the date of the rows is parsed.
+     */
+    @Override
+    public synchronized DateHistogram countByDate(Duration bucketSize) {
+        DateHistogram histogram = new DateHistogram(bucketSize);
+        forEachRecord(p -> histogram.add(p.selectDate().getTime()));
+        return histogram;
+    }
+
+    /**
+     * Saves the index snapshot and closes the data file.
+     * If saving the snapshot fails, the index is rebuilt when the datasource is opened the next time.
+     * @throws IOException if closing the file fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            saveIndexSnapshot();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Couldn't save index snapshot " + indexFile, e);
+            Files.deleteIfExists(indexFile);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private List<Picture> scan(Predicate<RawPictureProjection> filter) {
+        List<Picture> pictures = new ArrayList<>();
+        forEachRecord(p -> {
+            if (filter.test(p)) {
+                p.convertToPicture().ifPresent(pictures::add);
+            }
+        });
+        return pictures;
+    }
+
+    /**
+     * Calls the action for each record of the data file with the projection set to its row.
+     */
+    private void forEachRecord(Consumer<RawPictureProjection> action) {
+        try {
+            forEachSlot((position, line) -> {
+                if (line.complete() && !line.isEmpty()) {
+                    projection.setRow(line.split(DELIMITER));
+                    action.accept(projection);
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to process db file", e);
+            throw new DatasourceException("Error while reading records", e);
+        }
+    }
+
+    /**
+     * Reads the slots of the data file from the given position into the index.
+     */
+    private void buildIndex(long from) throws IOException {
+        long[] highestId = {nextId - 1};
+        forEachSlot(from, (position, line) -> {
+            int size = (int) (line.end() - position);
+            if (!line.complete()) {
+                if (!completeLastSlot(line)) {
+                    return;
+                }
+                size++;
+            }
+            if (!line.isEmpty()) {
+                projection.setRow(line.split(DELIMITER));
+                long id = projection.selectId();
+                Slot previous = putSlot(id, new Slot(position, size));
+                if (previous != null) {
+                    // slots moved after the index snapshot are usually blanked already, others are found twice
+                    if (previous.position() >= from) {
+                        LOGGER.warning(() -> "Found id '%d' twice, blanking the earlier slot".formatted(id));
+                    }
+                    blankSlot(previous);
+                }
+                highestId[0] = Math.max(highestId[0], id);
+            }
+        });
+        nextId = highestId[0] + 1;
+        LOGGER.fine(() -> "Indexed %d records in '%s'".formatted(count, databaseFile));
+    }
+
+    /**
+     * Returns the slot of the id, from the changes or the index snapshot, or null if the id doesn't exist.
+     */
+    private Slot slot(long id) {
+        Slot slot = slots.get(id);
+        if (slot != null) {
+            return slot;
+        }
+        int low = 0;
+        int high = snapshotEntries - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = snapshotIndex.getLong(mid * INDEX_ENTRY_SIZE);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return new Slot(snapshotIndex.getLong(mid * INDEX_ENTRY_SIZE + 8), snapshotIndex.getInt(mid * INDEX_ENTRY_SIZE + 16));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the slot of the id, counting new ids.
+     *
+     * @return the previous slot of the id, or null if it is new
+     */
+    private Slot putSlot(long id, Slot slot) {
+        Slot previous = slot(id);
+        slots.put(id, slot);
+        if (previous == null) {
+            count++;
+        }
+        return previous;
+    }
+
+    private Map<Long, Slot> snapshotSlots() {
+        Map<Long, Slot> snapshotSlots = new HashMap<>();
+        for (int i = 0; i < snapshotEntries; i++) {
+            long id = snapshotIndex.getLong(i * INDEX_ENTRY_SIZE);
+            if (!slots.containsKey(id)) {
+                snapshotSlots.put(id, new Slot(snapshotIndex.getLong(i * INDEX_ENTRY_SIZE + 8), snapshotIndex.getInt(i * INDEX_ENTRY_SIZE + 16)));
+            }
+        }
+        return snapshotSlots;
+    }
+
+    /**
+     * Maps the index snapshot, if it is valid for the data file, and reads the slots appended after the snapshot.
+     *
+     * @return true if the snapshot is used as index
+     */
+    private boolean loadIndexSnapshot() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return false;
+        }
+        MappedByteBuffer snapshot;
+        try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (indexChannel.size() < INDEX_HEADER_SIZE || indexChannel.size() > Integer.MAX_VALUE) {
+                return invalidSnapshot("invalid size");
+            }
+            // the mapping stays valid after the channel is closed
+            snapshot = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+        }
+        if (snapshot.getInt(0) != INDEX_MAGIC || snapshot.getInt(4) != INDEX_VERSION
+            || snapshot.getInt(44) != checksum(snapshot.slice(0, 44))) {
+            return invalidSnapshot("invalid header");
+        }
+        long dataFileSize = snapshot.getLong(8);
+        long entries = snapshot.getLong(32);
+        if (entries < 0 || (long) INDEX_HEADER_SIZE + entries * INDEX_ENTRY_SIZE != snapshot.capacity()) {
+            return invalidSnapshot("invalid number of entries");
+        }
+        ByteBuffer index = snapshot.slice(INDEX_HEADER_SIZE, (int) entries * INDEX_ENTRY_SIZE);
+        if (snapshot.getInt(40) != checksum(index.duplicate())) {
+            return invalidSnapshot("checksum mismatch");
+        }
+        if (channel.size() < dataFileSize || snapshot.getInt(16) != fileKeyHash() || snapshot.getInt(20) != tailChecksum(dataFileSize)) {
+            return invalidSnapshot("data file changed");
+        }
+        snapshotIndex = index;
+        snapshotEntries = (int) entries;
+        count = entries;
+        nextId = snapshot.getLong(24);
+        LOGGER.fine(() -> "Mapped index snapshot '%s' with %d records".formatted(indexFile, entries));
+        if (channel.size() > dataFileSize) {
+            LOGGER.fine(() -> "Reading slots appended after the index snapshot to '%s'".formatted(databaseFile));
+            buildIndex(dataFileSize);
+        }
+        return true;
+    }
+
+    private boolean invalidSnapshot(String reason) {
+        LOGGER.info(() -> "Ignoring index snapshot '%s': %s".formatted(indexFile, reason));
+        return false;
+    }
+
+    /**
+     * Writes the index sorted by id to a temp file, which replaces the index snapshot.
+     * The header contains the size of the data file, so appended slots can be found, and checks to detect a
+     * replaced data file.
+     */
+    private void saveIndexSnapshot() throws IOException {
+        Map<Long, Slot> index = snapshotSlots();
+        index.putAll(slots);
+        if ((long) index.size() * INDEX_ENTRY_SIZE > Integer.MAX_VALUE - INDEX_HEADER_SIZE) {
+            LOGGER.warning(() -> "Index of '%s' is too large for a snapshot".formatted(databaseFile));
+            Files.deleteIfExists(indexFile);
+            return;
+        }
+        List<Map.Entry<Long, Slot>> entries = new ArrayList<>(index.entrySet());
+        entries.sort(Map.Entry.comparingByKey());
+        Path tempFile = Files.createTempFile(indexFile.getParent(), indexFile.getFileName() + "-", ".tmp");
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            CRC32C entriesChecksum = new CRC32C();
+            DataOutputStream entryStream = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(out.position(INDEX_HEADER_SIZE))), entriesChecksum));
+            for (Map.Entry<Long, Slot> entry : entries) {
+                entryStream.writeLong(entry.getKey());
+                entryStream.writeLong(entry.getValue().position());
+                entryStream.writeInt(entry.getValue().size());
+            }
+            entryStream.flush();
+            long dataFileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            header.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(dataFileSize).putInt(fileKeyHash())
+                .putInt(tailChecksum(dataFileSize)).putLong(nextId).putLong(entries.size()).putInt((int) entriesChecksum.getValue());
+            header.putInt(checksum(header.slice(0, 44)));
+            header.flip();
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            if (syncWrites) {
+                out.force(true);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        LOGGER.fine(() -> "Saved index snapshot '%s' with %d records".formatted(indexFile, entries.size()));
+    }
+
+    /**
+     * Returns the checksum of the last bytes before the given end of the data file,
+     * which changes if the data file is replaced or truncated.
+     */
+    private int tailChecksum(long end) throws IOException {
+        ByteBuffer tail = ByteBuffer.allocate((int) Math.min(TAIL_CHECK_SIZE, end));
+        long start = end - tail.capacity();
+        while (tail.hasRemaining()) {
+            if (channel.read(tail, start + tail.position()) < 0) {
+                throw new IOException("Unexpected end of file " + databaseFile);
+            }
+        }
+        return checksum(tail.flip());
+    }
+
+    private int fileKeyHash() throws IOException {
+        return String.valueOf(Files.readAttributes(databaseFile, BasicFileAttributes.class).fileKey()).hashCode();
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Handles bytes after the last line break. If they are a valid row, e.g. written without a final line break by
+     * another program, the line break is appended. Otherwise, they are an incomplete slot of an interrupted write,
+     * which is truncated.
+     *
+     * @return true if the line is kept as slot
+     */
+    private boolean completeLastSlot(SlotLine line) throws IOException {
+        long position = line.end() - line.length();
+        try {
+            projection.setRow(line.split(DELIMITER));
+            projection.convertToPicture();
+        } catch (RuntimeException e) {
+            LOGGER.warning(() -> "Truncating incomplete slot at the end of '%s'".formatted(databaseFile));
+            channel.truncate(position);
+            return false;
+        }
+        channel.write(ByteBuffer.wrap(new byte[]{LINE_BREAK}), line.end());
+        return true;
+    }
+
+    /**
+     * Calls the consumer for each slot of the data file with its position and its content without padding.
+     * Bytes after the last line break are passed as incomplete line.
+     */
+    private void forEachSlot(SlotConsumer consumer) throws IOException {
+        forEachSlot(0, consumer);
+    }
+
+    /**
+     * Calls the consumer for each slot starting at the given position.
+     */
+    private void forEachSlot(long from, SlotConsumer consumer) throws IOException {
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(from)));
+        ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+        long position = from;
+        long offset = from;
+        int value;
+        while ((value = in.read()) >= 0) {
+            offset++;
+            if (value == LINE_BREAK) {
+                consumer.accept(position, new SlotLine(lineBytes.toString(CHARSET).strip(), offset, lineBytes.size(), true));
+                lineBytes.reset();
+                position = offset;
+            } else {
+                lineBytes.write(value);
+            }
+        }
+        if (lineBytes.size() > 0) {
+            consumer.accept(position, new SlotLine(lineBytes.toString(CHARSET).strip(), offset, lineBytes.size(), false));
+        }
+    }
+
+    private Optional<Picture> parse(String line) {
+        if (line.isEmpty()) {
+            return Optional.empty();
+        }
+        projection.setRow(line.split(DELIMITER));
+        return projection.convertToPicture();
+    }
+
+    private byte[] toRow(Picture picture) {
+        projection.setRow(new String[HEADER_COLUMNS.size()]);
+        projection.updateRowFromPicture(picture);
+        return String.join(DELIMITER, projection.getRow()).getBytes(CHARSET);
+    }
+
+    /**
+     * Appends a new slot for the row at the end of the file, reserving padding for future updates.
+     */
+    private Slot appendSlot(byte[] row) throws IOException {
+        int size = row.length + 1 + Math.max(MIN_PADDING, row.length / 4);
+        size = (size + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT * SLOT_ALIGNMENT;
+        long position = channel.size();
+        writeSlot(position, row, size);
+        return new Slot(position, size);
+    }
+
+    private void blankSlot(Slot slot) throws IOException {
+        writeSlot(slot.position(), new byte[0], slot.size());
+    }
+
+    /**
+     * Writes the row padded to the size of the slot with a single positional write.
+     */
+    private void writeSlot(long position, byte[] row, int size) throws IOException {
+        byte[] slot = Arrays.copyOf(row, size);
+        Arrays.fill(slot, row.length, size - 1, PADDING);
+        slot[size - 1] = LINE_BREAK;
+        ByteBuffer buffer = ByteBuffer.wrap(slot);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private void sync() throws IOException {
+        if (syncWrites) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Position and size in bytes of a slot in the data file, including padding and line break.
+     */
+    private record Slot(long position, int size) {
+    }
+
+    /**
+     * Content of a slot without padding, the file offset after its end, its length in bytes without the line break
+     * and whether it is terminated by a line break.
+     */
+    private record SlotLine(String content, long end, int length, boolean complete) {
+        boolean isEmpty() {
+            return content.isEmpty();
+        }
+
+        String[] split(String delimiter) {
+            return content.split(delimiter);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SlotConsumer {
+        void accept(long position, SlotLine line) throws IOException;
+    }
+}
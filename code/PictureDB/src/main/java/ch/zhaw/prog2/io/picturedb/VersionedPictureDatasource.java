@@ -0,0 +1,417 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Implements the PictureDatasource Interface storing each state of the data in an immutable version file
+ * in the format of {@link FilePictureDatasource}, so readers are isolated from concurrent writes.<br>
+ * For a data file {@code picture-data.csv}, the versions are stored as {@code picture-data.<version>.csv}.
+ * A write copies the current version to a temp file, applies the change and publishes it by moving it atomically
+ * to the name of the next version. Writes are serialized, but never wait for readers.<br>
+ * A reader pins a version with {@link #snapshot()} and reads a consistent state until it closes the snapshot, however
+ * long the reads take and however many writes are published meanwhile. The versions are reference counted:
+ * a version is deleted as soon as it is no longer current and the last snapshot pinning it is closed.
+ * The read methods of the datasource itself each use a snapshot of the current version.<br>
+ * When opened, the highest version is current, as versions are only published complete. Older versions and temp files
+ * left over by a crash are deleted. If no version exists, but the data file does, it is imported as first version.
+ */
+public class VersionedPictureDatasource implements PictureDatasource, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(VersionedPictureDatasource.class.getName());
+    private static final String CSV_SUFFIX = ".csv";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final String baseName;
+    private final Pattern versionPattern;
+    private final boolean syncWrites;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicReference<Version> current = new AtomicReference<>();
+
+    /**
+     * Opens the versions of the given data file, creating an empty first version if none exists.
+     *
+     * @param filepath   of the data file, e.g. {@code db/picture-data.csv}
+     * @param syncWrites true to force each published version to the storage device before it becomes current
+     * @throws IOException if accessing or creating the version files fails
+     */
+    public VersionedPictureDatasource(String filepath, boolean syncWrites) throws IOException {
+        Path dataFile = Path.of(filepath).toAbsolutePath();
+        String fileName = dataFile.getFileName().toString();
+        this.directory = dataFile.getParent();
+        this.baseName = fileName.endsWith(CSV_SUFFIX) ? fileName.substring(0, fileName.length() - CSV_SUFFIX.length()) : fileName;
+        this.versionPattern = Pattern.compile(Pattern.quote(baseName) + "\\.(\\d+)" + Pattern.quote(CSV_SUFFIX));
+        this.syncWrites = syncWrites;
+        Files.createDirectories(directory);
+        open(dataFile);
+    }
+
+    /**
+     * Pins the current version. The snapshot must be closed to allow the version to be deleted once it is replaced.
+     *
+     * @return snapshot of the current version
+     */
+    public Snapshot snapshot() {
+        while (true) {
+            Version version = current.get();
+            if (version == null) {
+                throw new IllegalStateException("Datasource is closed");
+            }
+            // a version replaced and released concurrently can no longer be retained, so the new current version is read
+            if (version.retain()) {
+                return new Snapshot(version);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the current version.
+     * @return current version
+     */
+    public long getVersion() {
+        Version version = current.get();
+        return version == null ? -1 : version.number;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insert(Picture picture) {
+        Objects.requireNonNull(picture, "picture must not be null");
+        write(datasource -> datasource.insert(picture));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        write(datasource -> datasource.update(picture));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete(Picture picture) throws RecordNotFoundException {
+        Objects.requireNonNull(picture, "picture must not be null");
+        write(datasource -> datasource.delete(picture));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count() {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.count();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<Picture> findById(long id) {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.findById(id);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findAll() {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.findAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.findByPosition(longitude, latitude, deviation);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.countByGrid(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DateHistogram countByDate(Duration bucketSize) {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.countByDate(bucketSize);
+        }
+    }
+
+    /**
+     * Closes the datasource. The current version file is kept, open snapshots stay readable.
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            current.set(null);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the write to a copy of the current version and publishes the copy as next version.
+     */
+    private <E extends Exception> void write(Write<E> write) throws E {
+        writeLock.lock();
+        try {
+            Version previous = current.get();
+            if (previous == null) {
+                throw new IllegalStateException("Datasource is closed");
+            }
+            Path tempFile = Files.createTempFile(directory, baseName + ".", TEMP_FILE_SUFFIX);
+            try {
+                Files.copy(previous.file, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                write.apply(new FilePictureDatasource(tempFile.toString(), DatasourceMetrics.disabled(), false));
+                if (syncWrites) {
+                    try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                }
+                Path file = versionFile(previous.number + 1);
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+                if (syncWrites) {
+                    FilePictureDatasource.syncDirectory(directory.toFile());
+                }
+                current.set(new Version(previous.number + 1, file));
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            LOGGER.fine(() -> "Published version %d of '%s'".formatted(previous.number + 1, baseName));
+            previous.release();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "An error occurred while publishing a new version.", e);
+            throw new DatasourceException("Error while writing record", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Makes the highest version current, deleting older versions and leftover temp files.
+     */
+    private void open(Path dataFile) throws IOException {
+        long highest = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, baseName + ".*")) {
+            for (Path file : files) {
+                Matcher matcher = versionPattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    highest = Math.max(highest, Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        // temp files of writes are named <base>.*.tmp, their rewrites db-<base>.*.tmp
+        for (String glob : new String[]{baseName + ".*", "db-" + baseName + ".*" + TEMP_FILE_SUFFIX}) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    Matcher matcher = versionPattern.matcher(name);
+                    if (matcher.matches() && Long.parseLong(matcher.group(1)) < highest || name.endsWith(TEMP_FILE_SUFFIX)) {
+                        LOGGER.info(() -> "Deleting old version or leftover temp file '%s'".formatted(file));
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+        if (highest < 0) {
+            highest = 1;
+            Path file = versionFile(highest);
+            if (Files.exists(dataFile)) {
+                LOGGER.info(() -> "Importing '%s' as first version".formatted(dataFile));
+                Files.copy(dataFile, file);
+            } else {
+                Files.createFile(file);
+            }
+        }
+        current.set(new Version(highest, versionFile(highest)));
+    }
+
+    private Path versionFile(long version) {
+        return directory.resolve(baseName + "." + version + CSV_SUFFIX);
+    }
+
+    /**
+     * A version file with the number of references: one of the datasource while it is current, and one of each
+     * snapshot pinning it. The file is deleted when the last reference is released.
+     */
+    private static final class Version {
+        private final long number;
+        private final Path file;
+        private final FilePictureDatasource datasource;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Version(long number, Path file) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.datasource = new FilePictureDatasource(file.toString(), DatasourceMetrics.disabled(), false);
+        }
+
+        /**
+         * Adds a reference, unless the version is already released.
+         */
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                LOGGER.fine(() -> "Deleting unused version file '%s'".formatted(file));
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Couldn't delete version file " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read-only view of a pinned version. All reads see the same state, regardless of concurrent writes.
+     * Closing the snapshot releases the version.
+     */
+    public static final class Snapshot implements AutoCloseable {
+        private final Version version;
+        private boolean closed = false;
+
+        private Snapshot(Version version) {
+            this.version = version;
+        }
+
+        /**
+         * Returns the number of the pinned version.
+         * @return version number
+         */
+        public long getVersion() {
+            return version.number;
+        }
+
+        /**
+         * Returns the number of records of the version.
+         * @return number of records
+         */
+        public long count() {
+            return datasource().count();
+        }
+
+        /**
+         * Returns the record with the given id in the version.
+         * @param id of the record
+         * @return the record, or empty if the version doesn't contain it
+         */
+        public Optional<Picture> findById(long id) {
+            return datasource().findById(id);
+        }
+
+        /**
+         * Returns all records of the version.
+         * @return records of the version
+         */
+        public Collection<Picture> findAll() {
+            return datasource().findAll();
+        }
+
+        /**
+         * Returns the records of the version within the given deviation of the position.
+         * @param longitude of the position
+         * @param latitude of the position
+         * @param deviation maximum deviation of longitude and latitude
+         * @return matching records of the version
+         */
+        public Collection<Picture> findByPosition(float longitude, float latitude, float deviation) {
+            return datasource().findByPosition(longitude, latitude, deviation);
+        }
+
+        /**
+         * Counts the records of the version per cell of a grid, see {@link PictureDatasource#countByGrid}.
+         * @param minLongitude western border of the box
+         * @param minLatitude southern border of the box
+         * @param maxLongitude eastern border of the box
+         * @param maxLatitude northern border of the box
+         * @param columns number of cells in longitude direction
+         * @param rows number of cells in latitude direction
+         * @return number of records of the version per cell
+         */
+        public GridHistogram countByGrid(float minLongitude, float minLatitude, float maxLongitude, float maxLatitude, int columns, int rows) {
+            return datasource().countByGrid(minLongitude, minLatitude, maxLongitude, maxLatitude, columns, rows);
+        }
+
+        /**
+         * Counts the records of the version per date bucket, see {@link PictureDatasource#countByDate}.
+         * @param bucketSize size of the buckets
+         * @return number of records of the version per bucket
+         */
+        public DateHistogram countByDate(Duration bucketSize) {
+            return datasource().countByDate(bucketSize);
+        }
+
+        /**
+         * Releases the version.
+         */
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                version.release();
+            }
+        }
+
+        private synchronized FilePictureDatasource datasource() {
+            if (closed) {
+                throw new IllegalStateException("Snapshot is closed");
+            }
+            return version.datasource;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Write<E extends Exception> {
+        void apply(FilePictureDatasource datasource) throws E;
+    }
+}
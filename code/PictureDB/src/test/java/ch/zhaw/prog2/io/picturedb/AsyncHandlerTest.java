@@ -0,0 +1,160 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncHandlerTest {
+
+    /**
+     * Target collecting the published records, optionally waiting for a latch before publishing.
+     */
+    private static class CollectingHandler extends Handler {
+        private final List<LogRecord> records = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch released;
+        private volatile boolean closed = false;
+
+        CollectingHandler(CountDownLatch released) {
+            this.released = released;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static Thread start(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.start();
+        return thread;
+    }
+
+    private static LogRecord record(String message) {
+        return new LogRecord(Level.INFO, message);
+    }
+
+    @Test
+    void publishAllRecordsOnClose() throws InterruptedException {
+        CollectingHandler target = new CollectingHandler(new CountDownLatch(0));
+        AsyncHandler handler = new AsyncHandler(target, 16, 4, AsyncHandler.DropPolicy.BLOCK);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(start(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    handler.publish(record(thread + ":" + i));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        handler.close();
+        assertTrue(target.closed, "Target must be closed");
+        assertEquals(4000, target.records.size(), "All records must be published before close returns");
+        for (int t = 0; t < 4; t++) {
+            String prefix = t + ":";
+            List<String> messages = target.records.stream().map(LogRecord::getMessage).filter(m -> m.startsWith(prefix)).toList();
+            for (int i = 0; i < messages.size(); i++) {
+                assertEquals(prefix + i, messages.get(i), "Records of a thread must keep their order");
+            }
+        }
+        handler.publish(record("after close"));
+        assertEquals(4000, target.records.size(), "Records after close must be ignored");
+    }
+
+    @Test
+    void closeWhilePublishing() throws InterruptedException {
+        CollectingHandler target = new CollectingHandler(new CountDownLatch(0));
+        AsyncHandler handler = new AsyncHandler(target, 8, 4, AsyncHandler.DropPolicy.BLOCK);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> published = Collections.synchronizedList(new ArrayList<>());
+        Thread producer = start(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                String message = "record " + i;
+                published.add(message);
+                handler.publish(record(message));
+                started.countDown();
+            }
+        });
+        started.await();
+        handler.close();
+        int received = target.records.size();
+        producer.join();
+        assertEquals(received, target.records.size(), "No record must be published after close returned");
+        // the records received are exactly the first ones published, without gaps
+        for (int i = 0; i < received; i++) {
+            assertEquals(published.get(i), target.records.get(i).getMessage());
+        }
+    }
+
+    @Test
+    void dropNewestWhenFull() throws InterruptedException {
+        CountDownLatch released = new CountDownLatch(1);
+        CollectingHandler target = new CollectingHandler(released);
+        AsyncHandler handler = new AsyncHandler(target, 2, 1, AsyncHandler.DropPolicy.DROP_NEWEST);
+        for (int i = 0; i < 10; i++) {
+            handler.publish(record("record " + i));
+        }
+        // at most one record taken by the blocked background thread and two queued
+        assertTrue(handler.getDroppedRecords() >= 7, "Dropped " + handler.getDroppedRecords());
+        released.countDown();
+        handler.close();
+        List<LogRecord> records = target.records;
+        assertEquals(10 - handler.getDroppedRecords(), records.size() - 1);
+        LogRecord warning = records.get(records.size() - 1);
+        assertEquals(Level.WARNING, warning.getLevel());
+        assertTrue(warning.getMessage().contains(String.valueOf(handler.getDroppedRecords())), warning.getMessage());
+    }
+
+    @Test
+    void inferSourceOnLoggingThread() {
+        CollectingHandler target = new CollectingHandler(new CountDownLatch(0));
+        AsyncHandler handler = new AsyncHandler(target, 16, 4, AsyncHandler.DropPolicy.BLOCK);
+        Logger logger = Logger.getLogger(AsyncHandlerTest.class.getName() + ".source");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        try {
+            logger.info("source");
+        } finally {
+            logger.removeHandler(handler);
+        }
+        handler.close();
+        assertEquals(AsyncHandlerTest.class.getName(), target.records.get(0).getSourceClassName());
+        assertEquals("inferSourceOnLoggingThread", target.records.get(0).getSourceMethodName());
+    }
+
+    @Test
+    void closeWithoutRecords() {
+        CollectingHandler target = new CollectingHandler(new CountDownLatch(0));
+        AsyncHandler handler = new AsyncHandler(target, 16, 4, AsyncHandler.DropPolicy.DROP_OLDEST);
+        handler.close();
+        handler.close();
+        assertTrue(target.closed);
+        assertTrue(target.records.isEmpty());
+    }
+}
@@ -0,0 +1,135 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static ch.zhaw.prog2.io.picturedb.TestPictures.picture;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterPictureDatasourceTest {
+    // offset of the number of words in the filter file, after magic, stamp, capacity, hash count and size
+    private static final int WORD_COUNT_OFFSET = 32;
+
+    @TempDir
+    Path directory;
+
+    private Path dataFile() {
+        return directory.resolve("pictures.csv");
+    }
+
+    private Path filterFile() {
+        return directory.resolve("pictures.csv.bloom");
+    }
+
+    private BloomFilterPictureDatasource open() throws IOException {
+        return new BloomFilterPictureDatasource(new FilePictureDatasource(dataFile().toString()));
+    }
+
+    @Test
+    void noFalseNegatives() {
+        IdBloomFilter filter = new IdBloomFilter(10_000, 0.01);
+        for (long id = 0; id < 10_000; id++) {
+            filter.add(id * 7);
+        }
+        int falsePositives = 0;
+        for (long id = 0; id < 10_000; id++) {
+            assertTrue(filter.mightContain(id * 7), "False negative for " + id * 7);
+            if (filter.mightContain(id * 7 + 1)) {
+                falsePositives++;
+            }
+        }
+        assertEquals(10_000, filter.getSize());
+        assertTrue(falsePositives < 300, "Too many false positives: " + falsePositives);
+    }
+
+    @Test
+    void findRecordsAfterRebuildAtCapacity() throws IOException, RecordNotFoundException {
+        try (BloomFilterPictureDatasource datasource = open()) {
+            // the filter is sized for at least 1024 ids, more inserts rebuild it
+            for (int i = 0; i < 1100; i++) {
+                datasource.insert(picture(-1, "picture-" + i));
+            }
+            for (long id = 0; id < 1100; id += 10) {
+                datasource.delete(picture(id, "deleted"));
+            }
+            for (long id = 0; id < 1100; id++) {
+                assertEquals(id % 10 != 0, datasource.findById(id).isPresent(), "id " + id);
+            }
+            assertEquals(990, datasource.count());
+            datasource.update(picture(1099, "updated"));
+            assertEquals("updated", datasource.findById(1099).orElseThrow().getTitle());
+            assertThrows(RecordNotFoundException.class, () -> datasource.update(picture(5000, "missing")));
+            assertThrows(RecordNotFoundException.class, () -> datasource.delete(picture(5000, "missing")));
+            assertTrue(datasource.findById(5000).isEmpty());
+        }
+        try (BloomFilterPictureDatasource reopened = open()) {
+            assertEquals("picture-1", reopened.findById(1).orElseThrow().getTitle());
+            assertEquals("updated", reopened.findById(1099).orElseThrow().getTitle());
+        }
+    }
+
+    @Test
+    void rebuildFilterOfChangedDataFile() throws IOException {
+        try (BloomFilterPictureDatasource datasource = open()) {
+            datasource.insert(picture(-1, "a"));
+        }
+        assertTrue(Files.exists(filterFile()));
+        // records written without the decorator aren't in the saved filter
+        new FilePictureDatasource(dataFile().toString()).append(List.of(picture(500, "b"), picture(501, "c")));
+        try (BloomFilterPictureDatasource reopened = open()) {
+            assertEquals("b", reopened.findById(500).orElseThrow().getTitle());
+            assertEquals("c", reopened.findById(501).orElseThrow().getTitle());
+            assertEquals("a", reopened.findById(0).orElseThrow().getTitle());
+        }
+    }
+
+    @Test
+    void ignoreCorruptFilter() throws IOException {
+        IdBloomFilter filter = new IdBloomFilter(100, 0.01);
+        filter.add(42);
+        filter.save(filterFile(), 7);
+        IdBloomFilter loaded = IdBloomFilter.load(filterFile(), 7);
+        assertNotNull(loaded);
+        assertTrue(loaded.mightContain(42));
+        assertEquals(1, loaded.getSize());
+        assertNull(IdBloomFilter.load(filterFile(), 8), "Filter of another stamp must not be used");
+
+        // a huge number of words must be rejected before allocating them
+        try (FileChannel channel = FileChannel.open(filterFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE - 16), WORD_COUNT_OFFSET);
+        }
+        assertNull(IdBloomFilter.load(filterFile(), 7));
+
+        filter.save(filterFile(), 7);
+        byte[] bytes = Files.readAllBytes(filterFile());
+        Files.write(filterFile(), Arrays.copyOf(bytes, bytes.length - 1));
+        assertNull(IdBloomFilter.load(filterFile(), 7), "Truncated filter must not be used");
+        Files.write(filterFile(), new byte[3]);
+        assertNull(IdBloomFilter.load(filterFile(), 7));
+        assertNull(IdBloomFilter.load(directory.resolve("missing.bloom"), 7));
+    }
+
+    @Test
+    void rebuildCorruptFilter() throws IOException {
+        try (BloomFilterPictureDatasource datasource = open()) {
+            datasource.insert(picture(-1, "a"));
+            datasource.insert(picture(-1, "b"));
+        }
+        try (FileChannel channel = FileChannel.open(filterFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, -1), WORD_COUNT_OFFSET);
+        }
+        try (BloomFilterPictureDatasource reopened = open()) {
+            assertEquals("a", reopened.findById(0).orElseThrow().getTitle());
+            assertEquals("b", reopened.findById(1).orElseThrow().getTitle());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static ch.zhaw.prog2.io.picturedb.TestPictures.picture;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarPictureDatasourceTest {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    @TempDir
+    Path directory;
+
+    private static List<Long> ids(Collection<Picture> pictures) {
+        return pictures.stream().map(Picture::getId).toList();
+    }
+
+    private static void assertPicture(Picture expected, Picture actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getUrl(), actual.getUrl());
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getLongitude(), actual.getLongitude());
+        assertEquals(expected.getLatitude(), actual.getLatitude());
+    }
+
+    @Test
+    void saveAndLoad() throws IOException, RecordNotFoundException {
+        ColumnarPictureDatasource datasource = new ColumnarPictureDatasource();
+        for (int i = 0; i < 5; i++) {
+            datasource.insert(picture(i, "picture-" + i));
+        }
+        datasource.delete(picture(2, "deleted"));
+        // a URL without a path and a title used only once
+        Picture noPath = new Picture(0, URI.create("http://test.url").toURL(), new Date(1_600_000_000_000L), "unique", 1, 2);
+        datasource.update(noPath);
+        String filepath = directory.resolve("pictures.csv").toString();
+        datasource.save(filepath);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of("pictures.csv"), files.map(file -> file.getFileName().toString()).toList(), "Temp file must be moved");
+        }
+
+        ColumnarPictureDatasource loaded = new ColumnarPictureDatasource(filepath);
+        assertEquals(4, loaded.count());
+        assertEquals(List.of(0L, 1L, 3L, 4L), ids(loaded.findAll()));
+        assertPicture(noPath, loaded.findById(0).orElseThrow());
+        assertPicture(datasource.findById(4).orElseThrow(), loaded.findById(4).orElseThrow());
+        assertEquals(List.of(0L, 1L, 3L, 4L), ids(new FilePictureDatasource(filepath).findAll()),
+            "Saved file must be readable by FilePictureDatasource");
+        Picture next = picture("next");
+        loaded.insert(next);
+        assertEquals(5, next.getId());
+    }
+
+    @Test
+    void sortUnsortedFileAndRemoveDuplicates() throws IOException {
+        String filepath = directory.resolve("pictures.csv").toString();
+        List<Picture> pictures = List.of(picture(7, "seven"), picture(3, "three"), picture(30, "thirty"), picture(3, "three_again"),
+            picture(0, "zero"), picture(12, "twelve"), picture(5, "five"), picture(21, "twenty-one"), picture(1, "one"),
+            picture(17, "seventeen"), picture(9, "nine"), picture(25, "twenty-five"), picture(2, "two"), picture(14, "fourteen"),
+            picture(8, "eight"), picture(19, "nineteen"), picture(4, "four"), picture(30, "thirty_again"));
+        new FilePictureDatasource(filepath).append(pictures);
+
+        ColumnarPictureDatasource datasource = new ColumnarPictureDatasource(filepath);
+        List<Long> expected = pictures.stream().map(Picture::getId).distinct().sorted().toList();
+        assertEquals(expected, ids(datasource.findAll()));
+        assertEquals(expected.size(), datasource.count());
+        for (Picture picture : pictures) {
+            Picture found = datasource.findById(picture.getId()).orElseThrow();
+            // the values of a row must stay together while sorting
+            assertTrue(found.getTitle().startsWith(picture.getTitle().split("_")[0]), "Row mixed up: " + found.getTitle());
+            assertEquals(picture.getDate(), found.getDate());
+        }
+        assertTrue(datasource.findById(6).isEmpty());
+    }
+
+    @Test
+    void invalidFile() throws IOException {
+        Path file = directory.resolve("pictures.csv");
+        Files.writeString(file, "1;not a date;1;2;title;http://test.url/a.img\n");
+        assertThrows(IOException.class, () -> new ColumnarPictureDatasource(file.toString()));
+    }
+
+    @Test
+    void findAfterDelete() throws RecordNotFoundException {
+        ColumnarPictureDatasource datasource = new ColumnarPictureDatasource();
+        for (int i = 0; i < 100; i++) {
+            datasource.insert(picture("picture-" + i));
+        }
+        for (long id = 0; id < 100; id += 3) {
+            datasource.delete(picture(id, "deleted"));
+        }
+        for (long id = 0; id < 100; id++) {
+            assertEquals(id % 3 != 0, datasource.findById(id).isPresent(), "id " + id);
+        }
+        assertTrue(datasource.findById(-1).isEmpty());
+        assertTrue(datasource.findById(100).isEmpty());
+        assertThrows(RecordNotFoundException.class, () -> datasource.delete(picture(3, "deleted")));
+        assertThrows(RecordNotFoundException.class, () -> datasource.update(picture(3, "deleted")));
+        assertEquals(66, datasource.count());
+        assertEquals(66, datasource.findAll().size());
+        assertTrue(datasource.findByTitle("picture-3").isEmpty());
+        assertEquals(List.of(4L), ids(datasource.findByTitle("picture-4")));
+        // deleted rows keep their ids, new ids continue after the last row
+        datasource.delete(picture(97, "deleted"));
+        datasource.delete(picture(98, "deleted"));
+        Picture next = picture("next");
+        datasource.insert(next);
+        assertEquals(100, next.getId());
+    }
+
+    @Test
+    void rowsAcrossChunks() throws RecordNotFoundException {
+        ColumnarPictureDatasource datasource = new ColumnarPictureDatasource();
+        int rows = 2 * CHUNK_SIZE + 10;
+        for (int i = 0; i < rows; i++) {
+            datasource.insert(picture(i, "picture-" + i));
+        }
+        assertEquals(rows, datasource.count());
+        for (long id : new long[] {0, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 2 * CHUNK_SIZE, rows - 1}) {
+            Picture found = datasource.findById(id).orElseThrow();
+            assertPicture(picture(id, "picture-" + id), found);
+        }
+        datasource.delete(picture(CHUNK_SIZE, "deleted"));
+        datasource.update(picture(CHUNK_SIZE - 1, "updated"));
+        assertTrue(datasource.findById(CHUNK_SIZE).isEmpty());
+        assertEquals("updated", datasource.findById(CHUNK_SIZE - 1).orElseThrow().getTitle());
+
+        long expected = datasource.findAll().stream()
+            .filter(p -> Math.abs(p.getLongitude() - 10) <= 1 && Math.abs(p.getLatitude() - 10) <= 1).count();
+        assertEquals(expected, datasource.findByPosition(10, 10, 1).size());
+        assertEquals(rows - 1, datasource.countByGrid(-180, -90, 180, 90, 4, 4).getTotal());
+        assertEquals(rows - 1, datasource.countByDate(Duration.ofDays(1)).getTotal());
+        // titles past the capacity of the dictionary are stored in the heap
+        assertEquals(List.of((long) rows - 1), ids(datasource.findByTitle("picture-" + (rows - 1))));
+    }
+
+    @Test
+    void encodedAndUnencodedValues() throws IOException, RecordNotFoundException {
+        ColumnarPictureDatasource datasource = new ColumnarPictureDatasource();
+        int rows = CHUNK_SIZE + 10;
+        for (int i = 0; i < rows; i++) {
+            // distinct titles and URL prefixes, so the dictionaries overflow into the heap
+            datasource.insert(new Picture(URI.create("http://test.url/" + i + "/picture.img").toURL(), new Date(), "title-" + i, 1, 2));
+        }
+        datasource.insert(new Picture(URI.create("http://test.url").toURL(), new Date(), "title-0", 1, 2));
+        for (long id : new long[] {0, CHUNK_SIZE - 1, CHUNK_SIZE, rows - 1}) {
+            Picture picture = datasource.findById(id).orElseThrow();
+            assertEquals("title-" + id, picture.getTitle());
+            assertEquals("http://test.url/" + id + "/picture.img", picture.getUrl().toExternalForm());
+        }
+        // a URL without a path is split after the scheme
+        assertEquals("http://test.url", datasource.findById(rows).orElseThrow().getUrl().toExternalForm());
+
+        assertEquals(List.of(0L, (long) rows), ids(datasource.findByTitle("title-0")), "Encoded title");
+        assertEquals(List.of((long) rows - 1), ids(datasource.findByTitle("title-" + (rows - 1))), "Title in the heap");
+        assertTrue(datasource.findByTitle("title-" + rows).isEmpty());
+        assertTrue(datasource.findByTitle("").isEmpty());
+
+        // an update to an encoded title must be found by its code, the old heap title no longer
+        Picture updated = datasource.findById(rows - 1).orElseThrow();
+        datasource.update(new Picture(updated.getId(), updated.getUrl(), updated.getDate(), "title-1", 1, 2));
+        assertEquals(List.of(1L, (long) rows - 1), ids(datasource.findByTitle("title-1")));
+        assertTrue(datasource.findByTitle("title-" + (rows - 1)).isEmpty());
+
+        String filepath = directory.resolve("pictures.csv").toString();
+        datasource.save(filepath);
+        ColumnarPictureDatasource loaded = new ColumnarPictureDatasource(filepath);
+        assertEquals(datasource.count(), loaded.count());
+        assertEquals("http://test.url/" + CHUNK_SIZE + "/picture.img", loaded.findById(CHUNK_SIZE).orElseThrow().getUrl().toExternalForm());
+        assertEquals(List.of((long) CHUNK_SIZE + 5), ids(loaded.findByTitle("title-" + (CHUNK_SIZE + 5))));
+    }
+}
@@ -0,0 +1,184 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static ch.zhaw.prog2.io.picturedb.TestPictures.picture;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedPictureDatasourceTest {
+    private static final int BLOCK_RECORDS = 256;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    @TempDir
+    Path directory;
+
+    private Path dataFile() {
+        return directory.resolve("pictures.pdbc");
+    }
+
+    private CompressedPictureDatasource open() throws IOException {
+        return new CompressedPictureDatasource(dataFile().toString(), false);
+    }
+
+    private static List<Picture> pictures(int count) {
+        List<Picture> pictures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            pictures.add(picture(-1, "picture-" + i));
+        }
+        return pictures;
+    }
+
+    private static List<Long> ids(Collection<Picture> pictures) {
+        return pictures.stream().map(Picture::getId).toList();
+    }
+
+    @Test
+    void findByIdAcrossBlocks() throws IOException {
+        try (CompressedPictureDatasource datasource = open()) {
+            datasource.insertAll(pictures(2 * BLOCK_RECORDS + 10));
+            assertEquals(3, datasource.getBlockCount());
+            assertEquals(2 * BLOCK_RECORDS + 10, datasource.count());
+            for (long id : new long[] {0, BLOCK_RECORDS - 1, BLOCK_RECORDS, 2 * BLOCK_RECORDS, 2 * BLOCK_RECORDS + 9}) {
+                assertEquals("picture-" + id, datasource.findById(id).orElseThrow().getTitle());
+            }
+            assertTrue(datasource.findById(-1).isEmpty());
+            assertTrue(datasource.findById(2 * BLOCK_RECORDS + 10).isEmpty());
+            assertEquals(LongStream.range(0, 2 * BLOCK_RECORDS + 10).boxed().toList(), ids(datasource.findAll()));
+            long expected = datasource.findAll().stream()
+                .filter(p -> Math.abs(p.getLongitude() - 10) <= 2 && Math.abs(p.getLatitude() - 10) <= 2).count();
+            assertEquals(expected, datasource.findByPosition(10, 10, 2).size());
+            assertEquals(2 * BLOCK_RECORDS + 10, datasource.countByGrid(-180, -90, 180, 90, 4, 4).getTotal());
+            assertEquals(2 * BLOCK_RECORDS + 10, datasource.countByDate(Duration.ofDays(1)).getTotal());
+        }
+        try (CompressedPictureDatasource reopened = open()) {
+            assertEquals(3, reopened.getBlockCount());
+            assertEquals(2 * BLOCK_RECORDS + 10, reopened.count());
+            Picture next = picture(-1, "next");
+            reopened.insert(next);
+            assertEquals(2 * BLOCK_RECORDS + 10, next.getId());
+        }
+    }
+
+    @Test
+    void mergeSmallBlocksAtTheEnd() throws IOException {
+        try (CompressedPictureDatasource datasource = open()) {
+            for (Picture picture : pictures(BLOCK_RECORDS - 1)) {
+                datasource.insert(picture);
+            }
+            assertEquals(BLOCK_RECORDS - 1, datasource.getBlockCount());
+            datasource.insert(picture(-1, "full"));
+            assertEquals(1, datasource.getBlockCount(), "Tail blocks must be merged into a full block");
+            for (Picture picture : pictures(5)) {
+                datasource.insert(picture);
+            }
+            assertEquals(6, datasource.getBlockCount(), "Full blocks must not be merged again");
+            assertEquals(BLOCK_RECORDS + 5, datasource.count());
+            assertEquals(LongStream.range(0, BLOCK_RECORDS + 5).boxed().toList(), ids(datasource.findAll()));
+        }
+    }
+
+    @Test
+    void updateAndDeleteRewriteOnlyTheirBlock() throws IOException, RecordNotFoundException {
+        try (CompressedPictureDatasource datasource = open()) {
+            datasource.insertAll(pictures(BLOCK_RECORDS));
+            datasource.insert(picture(-1, "alone"));
+            assertEquals(2, datasource.getBlockCount());
+
+            datasource.update(picture(7, "updated"));
+            assertEquals("updated", datasource.findById(7).orElseThrow().getTitle());
+            datasource.delete(picture(0, "deleted"));
+            assertTrue(datasource.findById(0).isEmpty());
+            // deleting the only record of a block removes the block
+            datasource.delete(picture(BLOCK_RECORDS, "alone"));
+            assertEquals(1, datasource.getBlockCount());
+            assertEquals(BLOCK_RECORDS - 1, datasource.count());
+            assertThrows(RecordNotFoundException.class, () -> datasource.delete(picture(0, "deleted")));
+            assertThrows(RecordNotFoundException.class, () -> datasource.update(picture(BLOCK_RECORDS, "alone")));
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(1, files.count(), "Temp files must be replaced");
+            }
+        }
+        try (CompressedPictureDatasource reopened = open()) {
+            assertEquals(BLOCK_RECORDS - 1, reopened.count());
+            assertEquals("updated", reopened.findById(7).orElseThrow().getTitle());
+            assertTrue(reopened.findById(0).isEmpty());
+        }
+    }
+
+    @Test
+    void truncateTornLastBlock() throws IOException {
+        try (CompressedPictureDatasource datasource = open()) {
+            datasource.insertAll(pictures(BLOCK_RECORDS));
+        }
+        long size = Files.size(dataFile());
+        byte[] block = Files.readAllBytes(dataFile());
+        // incomplete block header
+        Files.write(dataFile(), new byte[] {0, 0, 1}, StandardOpenOption.APPEND);
+        try (CompressedPictureDatasource reopened = open()) {
+            assertEquals(size, Files.size(dataFile()));
+            assertEquals(BLOCK_RECORDS, reopened.count());
+        }
+        // complete header, but the compressed data is cut off
+        Files.write(dataFile(), Arrays.copyOfRange(block, FILE_HEADER_SIZE, block.length - 10), StandardOpenOption.APPEND);
+        try (CompressedPictureDatasource reopened = open()) {
+            assertEquals(size, Files.size(dataFile()));
+            assertEquals(1, reopened.getBlockCount());
+            Picture next = picture(-1, "next");
+            reopened.insert(next);
+            assertEquals(BLOCK_RECORDS, next.getId());
+        }
+    }
+
+    @Test
+    void truncateBlockShorterThanItsHeader() throws IOException {
+        try (CompressedPictureDatasource datasource = open()) {
+            datasource.insertAll(pictures(10));
+        }
+        // the checksum is valid, but the data ends before the uncompressed length in the header
+        try (FileChannel channel = FileChannel.open(dataFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 1 << 20), FILE_HEADER_SIZE + 4);
+        }
+        try (CompressedPictureDatasource reopened = open()) {
+            assertEquals(0, reopened.count());
+            assertEquals(FILE_HEADER_SIZE, Files.size(dataFile()));
+        }
+    }
+
+    @Test
+    void rejectOtherFiles() throws IOException {
+        Files.writeString(dataFile(), "0;2020-01-01 00:00:00;1;2;title;http://test.url/a.img\n");
+        assertThrows(IOException.class, this::open);
+    }
+
+    @Test
+    void copyOfKeepsIds() throws IOException {
+        String csv = directory.resolve("pictures.csv").toString();
+        FilePictureDatasource source = new FilePictureDatasource(csv);
+        // unsorted ids with gaps
+        source.append(List.of(picture(5, "five"), picture(1, "one"), picture(300, "three-hundred"), picture(2, "two")));
+        String filepath = dataFile().toString();
+        try (CompressedPictureDatasource copy = CompressedPictureDatasource.copyOf(source, filepath, false)) {
+            assertEquals(List.of(1L, 2L, 5L, 300L), ids(copy.findAll()));
+            assertEquals("three-hundred", copy.findById(300).orElseThrow().getTitle());
+            Picture next = picture(-1, "next");
+            copy.insert(next);
+            assertEquals(301, next.getId());
+        }
+        assertThrows(IOException.class, () -> CompressedPictureDatasource.copyOf(source, filepath, false));
+    }
+}
@@ -0,0 +1,217 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutorAsyncDatasourceTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Datasource tracking the number of concurrent reads and writes.
+     * Each call waits until the gate is opened.
+     */
+    private static class TrackingDatasource implements Datasource<Picture> {
+        private final AtomicInteger readers = new AtomicInteger();
+        private final AtomicInteger writers = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private final List<String> calls = new ArrayList<>();
+        private volatile boolean overlappingWrite = false;
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+        private volatile Throwable failure;
+
+        private <R> R read(R result) {
+            int active = readers.incrementAndGet();
+            maxActive.accumulateAndGet(active + writers.get(), Math::max);
+            overlappingWrite |= writers.get() > 0;
+            try {
+                await();
+                return result;
+            } finally {
+                readers.decrementAndGet();
+            }
+        }
+
+        private void write(String name) throws RecordNotFoundException {
+            int active = writers.incrementAndGet();
+            overlappingWrite |= active > 1 || readers.get() > 0;
+            maxActive.accumulateAndGet(active + readers.get(), Math::max);
+            try {
+                synchronized (calls) {
+                    calls.add(name);
+                }
+                await();
+                if (failure instanceof RecordNotFoundException e) {
+                    throw e;
+                } else if (failure instanceof RuntimeException e) {
+                    throw e;
+                } else if (failure instanceof Error e) {
+                    throw e;
+                }
+            } finally {
+                writers.decrementAndGet();
+            }
+        }
+
+        private void await() {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void insert(Picture record) {
+            try {
+                write("insert " + record.getTitle());
+            } catch (RecordNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void update(Picture record) throws RecordNotFoundException {
+            write("update " + record.getTitle());
+        }
+
+        @Override
+        public void delete(Picture record) throws RecordNotFoundException {
+            write("delete " + record.getTitle());
+        }
+
+        @Override
+        public long count() {
+            return read(42L);
+        }
+
+        @Override
+        public Optional<Picture> findById(long id) {
+            return read(Optional.empty());
+        }
+
+        @Override
+        public Collection<Picture> findAll() {
+            return read(List.of());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static Picture picture(String title) {
+        return new Picture(null, title);
+    }
+
+    private static <R> R get(CompletableFuture<R> future) throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void readsRunConcurrently() throws Exception {
+        TrackingDatasource datasource = new TrackingDatasource();
+        datasource.gate = new CountDownLatch(1);
+        ExecutorAsyncDatasource<Picture> async = new ExecutorAsyncDatasource<>(datasource, executor, 4, 8);
+        List<CompletableFuture<Long>> counts = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            counts.add(async.count());
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (datasource.readers.get() < 4 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(4, datasource.readers.get(), "Reads must run at the same time");
+        datasource.gate.countDown();
+        for (CompletableFuture<Long> count : counts) {
+            assertEquals(Long.valueOf(42), get(count));
+        }
+    }
+
+    @Test
+    void writesRunExclusively() throws Exception {
+        TrackingDatasource datasource = new TrackingDatasource();
+        ExecutorAsyncDatasource<Picture> async = new ExecutorAsyncDatasource<>(datasource, executor, 4, 16);
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(i % 4 == 0 ? async.insert(picture("p" + i)) : async.findAll());
+        }
+        for (CompletableFuture<?> future : futures) {
+            get(future);
+        }
+        assertFalse(datasource.overlappingWrite, "Writes must not overlap with other operations");
+        assertTrue(datasource.maxActive.get() <= 4, "At most maxConcurrent operations: " + datasource.maxActive.get());
+        assertEquals(50, datasource.calls.size());
+    }
+
+    @Test
+    void writesOfOneCallerKeepOrderWithSingleSlot() throws Exception {
+        TrackingDatasource datasource = new TrackingDatasource();
+        Picture picture = picture("a");
+        ExecutorAsyncDatasource<Picture> async = new ExecutorAsyncDatasource<>(datasource, executor, 1, 1);
+        CompletableFuture<Picture> insert = async.insert(picture);
+        CompletableFuture<Void> update = async.update(picture);
+        CompletableFuture<Void> delete = async.delete(picture);
+        assertSame(picture, get(insert));
+        get(update);
+        get(delete);
+        assertEquals(List.of("insert a", "update a", "delete a"), datasource.calls);
+    }
+
+    @Test
+    void propagateExceptions() throws Exception {
+        TrackingDatasource datasource = new TrackingDatasource();
+        ExecutorAsyncDatasource<Picture> async = new ExecutorAsyncDatasource<>(datasource, executor, 1, 2);
+
+        datasource.failure = new RecordNotFoundException("not found");
+        ExecutionException notFound = assertThrows(ExecutionException.class, () -> get(async.update(picture("a"))));
+        assertSame(datasource.failure, notFound.getCause());
+
+        datasource.failure = new DatasourceException("broken");
+        ExecutionException broken = assertThrows(ExecutionException.class, () -> get(async.delete(picture("a"))));
+        assertSame(datasource.failure, broken.getCause());
+
+        // an error must not leave the future incomplete or leak the permits
+        datasource.failure = new AssertionError("error");
+        ExecutionException error = assertThrows(ExecutionException.class, () -> get(async.delete(picture("a"))));
+        assertSame(datasource.failure, error.getCause());
+
+        datasource.failure = null;
+        for (int i = 0; i < 4; i++) {
+            get(async.delete(picture("after")));
+        }
+    }
+
+    @Test
+    void rejectedOperationsFail() throws Exception {
+        ExecutorService shutDown = Executors.newSingleThreadExecutor();
+        shutDown.shutdown();
+        ExecutorAsyncDatasource<Picture> async = new ExecutorAsyncDatasource<>(new TrackingDatasource(), shutDown, 1, 1);
+        for (int i = 0; i < 3; i++) {
+            ExecutionException rejected = assertThrows(ExecutionException.class, () -> get(async.count()));
+            assertInstanceOf(DatasourceException.class, rejected.getCause(), "Rejection must release the pending slot");
+        }
+    }
+
+    @Test
+    void invalidLimits() {
+        TrackingDatasource datasource = new TrackingDatasource();
+        assertThrows(IllegalArgumentException.class, () -> new ExecutorAsyncDatasource<>(datasource, executor, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ExecutorAsyncDatasource<>(datasource, executor, 2, 1));
+    }
+}
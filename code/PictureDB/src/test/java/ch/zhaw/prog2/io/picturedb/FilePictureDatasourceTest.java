@@ -3,6 +3,7 @@ package ch.zhaw.prog2.io.picturedb;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.IOException;
@@ -11,7 +12,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -29,6 +34,8 @@ class FilePictureDatasourceTest {
     private static final long INEXISTENT_ID = 0L;
     public static final String TEST_PICTURE_URL = "http://test.url/hallo.img";
     public static final String TEST_PICTURE_TITLE = "Test picture";
+    // last modification of the files left over by a crash before the tests started
+    private static final long CRASH_TIME = Instant.parse("2020-01-01T00:00:00Z").toEpochMilli();
 
 
     private final DateFormat df = new SimpleDateFormat(DATE_FORMAT);
@@ -100,6 +107,20 @@ class FilePictureDatasourceTest {
         }
     }
 
+    @Test
+    void insertAll() throws IOException {
+        List<Picture> testPictures = List.of(
+            createPicture(TEST_PICTURE_URL, TEST_PICTURE_TITLE + " 1"),
+            createPicture(TEST_PICTURE_URL, TEST_PICTURE_TITLE + " 2"));
+        long linesBefore = countLines();
+        ((FilePictureDatasource) datasource).insertAll(testPictures);
+        assertEquals(HIGHEST_ID + 1, testPictures.get(0).getId(), "Id must be 1 larger than current highest");
+        assertEquals(HIGHEST_ID + 2, testPictures.get(1).getId(), "Ids must be consecutive");
+        assertEquals(linesBefore + 2, countLines(), "Both records must be appended");
+        assertEquals(pictureToCsvLine(testPictures.get(0)), readLineWithId(HIGHEST_ID + 1));
+        assertEquals(pictureToCsvLine(testPictures.get(1)), readLineWithId(HIGHEST_ID + 2));
+    }
+
     @Test
     void insertNull() {
         assertThrows(NullPointerException.class, () -> datasource.insert(null));
@@ -224,6 +245,17 @@ class FilePictureDatasourceTest {
         }
     }
 
+    @Test
+    void findAllRecordsCacheLookups() throws IOException {
+        DatasourceMetrics metrics = new DatasourceMetrics("test");
+        datasource = new FilePictureDatasource(dbPath.toString(), metrics);
+        datasource.insert(createPicture(TEST_PICTURE_URL, TEST_PICTURE_TITLE));
+        datasource.insert(createPicture(TEST_PICTURE_URL, TEST_PICTURE_TITLE));
+        int count = datasource.findAll().size();
+        assertEquals(2L * count, metrics.getCacheHits() + metrics.getCacheMisses(), "Each url and title must be looked up");
+        assertTrue(metrics.getCacheHits() > 0, "Repeated url and title must be cache hits");
+    }
+
     @Test
     void findByPosition() {
         Collection<Picture> pictures = datasource.findByPosition(-75, 41, 4);
@@ -234,6 +266,231 @@ class FilePictureDatasourceTest {
         assertEquals(0, pictures.size(), "Found items not to be found");
     }
 
+    @Test
+    void countByGridAndDate() {
+        Collection<Picture> pictures = datasource.findAll();
+        GridHistogram grid = datasource.countByGrid(-180, -90, 180, 90, 4, 2);
+        assertEquals(pictures.size(), grid.getTotal(), "Not all pictures counted in grid");
+        for (Picture picture : pictures) {
+            int column = (int) ((picture.getLongitude() + 180) / 90);
+            int row = (int) ((picture.getLatitude() + 90) / 90);
+            assertTrue(grid.getCount(column, row) > 0, "Picture not counted in its cell: " + picture);
+        }
+        assertEquals(0, datasource.countByGrid(50, 20, 60, 30, 1, 1).getTotal(), "Counted pictures outside of box");
+        GridHistogram notANumber = grid.emptyCopy();
+        notANumber.add(Float.NaN, 0);
+        notANumber.add(0, Float.NaN);
+        assertEquals(0, notANumber.getTotal(), "Counted position which is not a number");
+
+        DateHistogram dates = datasource.countByDate(Duration.ofDays(1));
+        assertEquals(pictures.size(), dates.getTotal(), "Not all pictures counted in date histogram");
+        for (Picture picture : pictures) {
+            long dayStart = Math.floorDiv(picture.getDate().getTime(), Duration.ofDays(1).toMillis()) * Duration.ofDays(1).toMillis();
+            assertTrue(dates.getCounts().containsKey(Instant.ofEpochMilli(dayStart)), "Day of picture not counted: " + picture);
+        }
+    }
+
+    @Test
+    void findAllSorted() {
+        Comparator<Picture> byTitle = Comparator.comparing(Picture::getTitle);
+        List<Picture> expected = new ArrayList<>(datasource.findAll());
+        expected.sort(byTitle);
+        FilePictureDatasource fileDatasource = (FilePictureDatasource) datasource;
+        // tiny memory budget, forces one sorted run per record
+        try (Stream<Picture> sorted = fileDatasource.findAllSorted(byTitle, 1)) {
+            assertEquals(expected.stream().map(Picture::getId).toList(), sorted.map(Picture::getId).toList());
+        }
+        try (Stream<Picture> sorted = fileDatasource.findAllSorted(byTitle, Long.MAX_VALUE)) {
+            assertEquals(expected.stream().map(Picture::getId).toList(), sorted.map(Picture::getId).toList());
+        }
+        assertEquals(expected.subList(0, 3).stream().map(Picture::getId).toList(),
+            fileDatasource.findTop(3, byTitle).stream().map(Picture::getId).toList());
+        assertEquals(expected.size(), fileDatasource.findTop(Integer.MAX_VALUE - 1, byTitle).size());
+    }
+
+    @Test
+    void findAllSortedInLevels(@TempDir Path runDirectory) throws IOException {
+        FilePictureDatasource fileDatasource = (FilePictureDatasource) datasource;
+        List<Picture> pictures = new ArrayList<>();
+        // more runs than two levels of 64 runs can merge at once, with many records comparing equal
+        for (int i = 0; i < 64 * 64 + 70; i++) {
+            pictures.add(createPicture(TEST_PICTURE_URL, "Title " + i % 5));
+        }
+        fileDatasource.insertAll(pictures);
+        Comparator<Picture> byTitle = Comparator.comparing(Picture::getTitle);
+        List<Picture> expected = new ArrayList<>(datasource.findAll());
+        expected.sort(byTitle);
+        try (Stream<Picture> sorted = fileDatasource.findAllSorted(byTitle, 1, runDirectory)) {
+            assertEquals(expected.stream().map(Picture::getId).toList(), sorted.map(Picture::getId).toList());
+        }
+        try (Stream<Path> runs = Files.list(runDirectory)) {
+            assertEquals(0, runs.count(), "Runs must be deleted");
+        }
+    }
+
+    @Test
+    void findPage() throws RecordNotFoundException {
+        FilePictureDatasource fileDatasource = (FilePictureDatasource) datasource;
+        List<Long> expected = datasource.findAll().stream().map(Picture::getId).toList();
+        List<Long> paged = new ArrayList<>();
+        PicturePage page = fileDatasource.findPage(null, 2);
+        paged.addAll(page.getPictures().stream().map(Picture::getId).toList());
+        while (page.hasNext()) {
+            page = fileDatasource.findPage(page.getNextCursor().orElseThrow(), 2);
+            assertFalse(page.getPictures().isEmpty(), "Only the last page may be empty");
+            paged.addAll(page.getPictures().stream().map(Picture::getId).toList());
+        }
+        assertEquals(expected, paged);
+
+        // deleting the last record of a page moves the following records, the next page must still be complete
+        page = fileDatasource.findPage(null, 1);
+        datasource.delete(page.getPictures().get(0));
+        page = fileDatasource.findPage(page.getNextCursor().orElseThrow(), 2);
+        assertEquals(expected.subList(1, 3), page.getPictures().stream().map(Picture::getId).toList());
+        assertThrows(IllegalArgumentException.class, () -> fileDatasource.findPage("invalid", 2));
+    }
+
+    @Test
+    void recoverTempFiles() throws IOException {
+        // a write interrupted before the atomic move leaves a temp file next to the complete data file
+        Path leftoverFile = dbPath.resolveSibling("db-" + dbPath.getFileName() + "-1.tmp");
+        Files.copy(dbPath, leftoverFile);
+        assertTrue(leftoverFile.toFile().setLastModified(CRASH_TIME));
+        // temp file of a write of another instance still running
+        Path runningFile = dbPath.resolveSibling("db-" + dbPath.getFileName() + "-2.tmp");
+        Files.copy(dbPath, runningFile);
+        // temp file of an older version, which can not be attributed to the existing data file
+        Path legacyFile = dbPath.resolveSibling("db-4711.tmp");
+        Files.writeString(legacyFile, "other data file");
+        assertTrue(legacyFile.toFile().setLastModified(CRASH_TIME));
+
+        datasource = new FilePictureDatasource(dbPath.toString());
+        assertFalse(Files.exists(leftoverFile), "Leftover temp file must be deleted");
+        assertTrue(Files.exists(runningFile), "Temp file of a running write must be kept");
+        assertTrue(Files.exists(legacyFile), "Temp file of an older version must be kept if the data file exists");
+        assertEquals(countLines(), datasource.count());
+        Files.delete(runningFile);
+        Files.delete(legacyFile);
+    }
+
+    @Test
+    void recoverLegacyTempFile() throws IOException {
+        // older versions deleted the data file before renaming their temp file, named db-<random number>.tmp
+        Path olderFile = dbPath.resolveSibling("db-123.tmp");
+        Path interruptedFile = dbPath.resolveSibling("db-8047203648172356.tmp");
+        // a newer temp file of another data file, whose rows are not records
+        Path otherFile = dbPath.resolveSibling("db-456.tmp");
+        Files.writeString(olderFile, readLineNo(1) + System.lineSeparator());
+        Files.move(dbPath, interruptedFile);
+        Files.writeString(otherFile, "other data file");
+        assertTrue(olderFile.toFile().setLastModified(CRASH_TIME - 1000));
+        assertTrue(interruptedFile.toFile().setLastModified(CRASH_TIME));
+        assertTrue(otherFile.toFile().setLastModified(CRASH_TIME + 1000));
+
+        datasource = new FilePictureDatasource(dbPath.toString());
+        assertTrue(Files.exists(dbPath), "Data file must be restored from temp file");
+        assertFalse(Files.exists(interruptedFile), "Restored temp file must be moved");
+        assertTrue(Files.exists(otherFile), "Temp file of another data file must not be restored");
+        assertEquals(countLines(), datasource.count());
+        assertEquals(HIGHEST_ID, ((FilePictureDatasource) datasource).highestId());
+        Files.delete(olderFile);
+        Files.delete(otherFile);
+    }
+
+    @Test
+    void publishByPosition() {
+        List<Picture> received = new ArrayList<>();
+        boolean[] completed = {false};
+        ((FilePictureDatasource) datasource).publishByPosition(-75, 41, 4, Runnable::run).subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Picture picture) {
+                received.add(picture);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                fail("Publisher failed", throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed[0] = true;
+            }
+        });
+        assertTrue(completed[0], "Publisher must complete");
+        assertEquals(datasource.findByPosition(-75, 41, 4).size(), received.size(), "Not correct amount of items published");
+    }
+
+    @Test
+    void publishAllCancel() {
+        List<Picture> received = new ArrayList<>();
+        ((FilePictureDatasource) datasource).publishAll(Runnable::run).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(1);
+                subscription.cancel();
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Picture picture) {
+                received.add(picture);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                fail("Publisher failed", throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                fail("Cancelled publisher must not complete");
+            }
+        });
+        assertEquals(1, received.size(), "Only requested items must be published");
+    }
+
+    @Test
+    void publishAllRejected() {
+        List<Throwable> errors = new ArrayList<>();
+        ((FilePictureDatasource) datasource).publishAll(task -> {
+            throw new RejectedExecutionException("rejected");
+        }).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(1);
+                subscription.request(1);
+                subscription.cancel();
+            }
+
+            @Override
+            public void onNext(Picture picture) {
+                fail("Rejected publisher must not publish");
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                fail("Rejected publisher must not complete");
+            }
+        });
+        assertEquals(1, errors.size(), "Rejection must be signalled exactly once");
+        assertInstanceOf(RejectedExecutionException.class, errors.get(0));
+    }
+
 
     /*
      * Helper methods
@@ -0,0 +1,228 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import ch.zhaw.prog2.io.picturedb.GeoTiledPictureDatasource.TileKey;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeoTiledPictureDatasourceTest {
+    @TempDir
+    Path directory;
+
+    private GeoTiledPictureDatasource open(long splitThreshold) throws IOException {
+        return new GeoTiledPictureDatasource(directory.toString(), splitThreshold);
+    }
+
+    private static Picture picture(String title, float longitude, float latitude) {
+        try {
+            return new Picture(URI.create("http://test.url/" + title + ".img").toURL(), new Date(), title, longitude, latitude);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Picture moved(Picture picture, float longitude, float latitude) {
+        return new Picture(picture.getId(), picture.getUrl(), picture.getDate(), picture.getTitle(), longitude, latitude);
+    }
+
+    private List<String> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).filter(name -> name.startsWith(prefix)).sorted().toList();
+        }
+    }
+
+    private static List<Long> ids(Collection<Picture> pictures) {
+        return pictures.stream().map(Picture::getId).sorted().toList();
+    }
+
+    /**
+     * Creates a datasource with the four tiles of level 1 by inserting one picture into each quadrant.
+     */
+    private GeoTiledPictureDatasource openQuadrants() throws IOException {
+        GeoTiledPictureDatasource datasource = open(3);
+        datasource.insert(picture("south-west", -10, -10));
+        datasource.insert(picture("south-east", 10, -10));
+        datasource.insert(picture("north-west", -10, 10));
+        datasource.insert(picture("north-east", 10, 10));
+        assertEquals(List.of("tile-1-0-0.csv", "tile-1-0-1.csv", "tile-1-1-0.csv", "tile-1-1-1.csv"), files("tile-"));
+        return datasource;
+    }
+
+    @Test
+    void splitDenseAreasIntoSmallTiles() throws IOException {
+        GeoTiledPictureDatasource datasource = open(10);
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            // dense cluster around Zurich and a few points spread over the world
+            datasource.insert(i % 10 == 0
+                ? picture("world-" + i, random.nextFloat() * 360 - 180, random.nextFloat() * 180 - 90)
+                : picture("zurich-" + i, 8.5f + random.nextFloat() * 0.1f, 47.3f + random.nextFloat() * 0.1f));
+        }
+        assertTrue(datasource.getTileCount() > 4, "Tiles must be split");
+        assertEquals(datasource.getTileCount(), files("tile-").size(), "Split tiles must be deleted");
+        assertTrue(files("tile-").stream().anyMatch(name -> name.startsWith("tile-1") || name.startsWith("tile-2")),
+            "Sparse areas keep large tiles: " + files("tile-"));
+        assertEquals(200, datasource.count());
+        for (long id = 0; id < 200; id++) {
+            assertTrue(datasource.findById(id).isPresent(), "Missing id " + id);
+        }
+
+        GeoTiledPictureDatasource reopened = open(10);
+        assertEquals(datasource.getTileCount(), reopened.getTileCount());
+        assertEquals(ids(datasource.findAll()), ids(reopened.findAll()));
+        Picture next = picture("next", 0, 0);
+        reopened.insert(next);
+        assertEquals(200, next.getId(), "Ids must continue after the highest id");
+    }
+
+    @Test
+    void findByPositionAcrossTileBorders() throws IOException {
+        GeoTiledPictureDatasource datasource = openQuadrants();
+        // points on and next to the borders of the level 1 tiles at longitude 0 and latitude 0
+        float[][] positions = {{0, 0}, {-0.5f, -0.5f}, {0.5f, -0.5f}, {-0.5f, 0.5f}, {0.5f, 0.5f}, {0, 1}, {-1, 0}, {1.5f, 0}};
+        for (float[] position : positions) {
+            datasource.insert(picture("border", position[0], position[1]));
+        }
+        List<Picture> all = List.copyOf(datasource.findAll());
+        for (float deviation : new float[] {0, 0.5f, 1, 20}) {
+            List<Long> expected = ids(all.stream()
+                .filter(p -> Math.abs(p.getLongitude()) <= deviation && Math.abs(p.getLatitude()) <= deviation).toList());
+            assertEquals(expected, ids(datasource.findByPosition(0, 0, deviation)), "deviation " + deviation);
+        }
+        assertEquals(12, datasource.findByPosition(0, 0, 20).size());
+        // only the tiles overlapping the box are counted
+        assertEquals(12, datasource.countByGrid(-180, -90, 180, 90, 2, 2).getTotal());
+        assertEquals(1, datasource.countByGrid(5, 5, 15, 15, 1, 1).getTotal());
+        assertEquals(12, datasource.countByDate(Duration.ofDays(1)).getTotal());
+    }
+
+    @Test
+    void updateMovesRecordToTileOfNewPosition() throws IOException, RecordNotFoundException {
+        GeoTiledPictureDatasource datasource = openQuadrants();
+        Picture picture = datasource.findById(0).orElseThrow();
+        datasource.update(moved(picture, 20, 20));
+        assertEquals(4, datasource.count());
+        assertEquals(20, datasource.findById(0).orElseThrow().getLongitude());
+        assertEquals(List.of(), files("move-"), "Completed move must remove its marker");
+        assertEquals(List.of(0L, 3L), ids(datasource.findByPosition(15, 15, 10)));
+        assertTrue(datasource.findByPosition(-10, -10, 1).isEmpty());
+
+        GeoTiledPictureDatasource reopened = open(3);
+        assertEquals(4, reopened.count());
+        assertEquals(20, reopened.findById(0).orElseThrow().getLongitude());
+    }
+
+    @Test
+    void recoverInterruptedMove() throws IOException {
+        GeoTiledPictureDatasource datasource = openQuadrants();
+        Picture picture = datasource.findById(0).orElseThrow();
+        // crash after the record was appended to the new tile, but before it was deleted from the old one
+        new FilePictureDatasource(directory.resolve("tile-1-1-1.csv").toString()).append(List.of(moved(picture, 20, 20)));
+        Files.writeString(directory.resolve("move-0.txt"), "tile-1-1-1.csv");
+        // the marker decides, not the modification time
+        Files.setLastModifiedTime(directory.resolve("tile-1-1-1.csv"), FileTime.fromMillis(1_000_000_000_000L));
+
+        GeoTiledPictureDatasource reopened = open(3);
+        assertEquals(4, reopened.count());
+        assertEquals(4, reopened.findAll().size(), "Stale copy must be removed");
+        assertEquals(20, reopened.findById(0).orElseThrow().getLongitude());
+        assertTrue(new FilePictureDatasource(directory.resolve("tile-1-0-0.csv").toString()).findById(0).isEmpty());
+        assertEquals(List.of(), files("move-"));
+    }
+
+    @Test
+    void recoverInterruptedMoveWithoutMarker() throws IOException {
+        GeoTiledPictureDatasource datasource = openQuadrants();
+        Picture picture = datasource.findById(3).orElseThrow();
+        new FilePictureDatasource(directory.resolve("tile-1-0-0.csv").toString()).append(List.of(moved(picture, -20, -20)));
+        Files.setLastModifiedTime(directory.resolve("tile-1-1-1.csv"), FileTime.fromMillis(1_000_000_000_000L));
+
+        GeoTiledPictureDatasource reopened = open(3);
+        assertEquals(4, reopened.findAll().size());
+        assertEquals(-20, reopened.findById(3).orElseThrow().getLongitude(), "Copy of the tile written last is kept");
+    }
+
+    @Test
+    void removeTilesOfInterruptedSplit() throws IOException {
+        GeoTiledPictureDatasource datasource = open(5);
+        for (int i = 0; i < 5; i++) {
+            datasource.insert(picture("root-" + i, i, i));
+        }
+        assertEquals(List.of("tile-0-0-0.csv"), files("tile-"));
+        // crash while writing the children: one child complete, a grandchild left over from an earlier split
+        Path child = directory.resolve("tile-1-1-1.csv");
+        Files.createFile(child);
+        new FilePictureDatasource(child.toString()).append(List.copyOf(datasource.findByPosition(2, 2, 2)));
+        Files.createFile(directory.resolve("tile-2-2-2.csv"));
+
+        GeoTiledPictureDatasource reopened = open(5);
+        assertEquals(List.of("tile-0-0-0.csv"), files("tile-"), "Tiles of the interrupted split must be removed");
+        assertEquals(5, reopened.count());
+        assertEquals(ids(datasource.findAll()), ids(reopened.findAll()));
+    }
+
+    @Test
+    void useIdSnapshotsOfUnchangedTiles() throws IOException {
+        GeoTiledPictureDatasource datasource = openQuadrants();
+        datasource.close();
+        assertEquals(4, files("tile-").stream().filter(name -> name.endsWith(".ids")).count(), "Id snapshots must be saved on close");
+        // an id only in the snapshot shows that the tile file is not read
+        Path tileFile = directory.resolve(TileKey.of(1, -10, -10).fileName());
+        IdSnapshot.save(tileFile, new long[] {0, 1000});
+        try (GeoTiledPictureDatasource reopened = open(3)) {
+            assertEquals(5, reopened.count());
+            Picture picture = picture("next", 10, 10);
+            reopened.insert(picture);
+            assertEquals(1001, picture.getId());
+        }
+        // a record appended by another writer makes the snapshot stale
+        Picture appended = picture("appended", -20, -20);
+        appended.setId(7);
+        new FilePictureDatasource(tileFile.toString()).append(List.of(appended));
+        try (GeoTiledPictureDatasource reopened = open(3)) {
+            assertEquals(6, reopened.count());
+            assertEquals("appended", reopened.findById(7).orElseThrow().getTitle());
+            assertTrue(reopened.findById(1000).isEmpty());
+        }
+    }
+
+    @Test
+    void missingRecords() throws IOException {
+        GeoTiledPictureDatasource datasource = openQuadrants();
+        Picture missing = picture("missing", 0, 0);
+        missing.setId(99);
+        assertTrue(datasource.findById(99).isEmpty());
+        assertThrows(RecordNotFoundException.class, () -> datasource.update(missing));
+        assertThrows(RecordNotFoundException.class, () -> datasource.delete(missing));
+        assertThrows(IllegalArgumentException.class, () -> open(0));
+    }
+
+    @Test
+    void tileKeyMapping() {
+        assertEquals(new TileKey(1, 1, 1), TileKey.of(1, 0, 0));
+        assertEquals(new TileKey(1, 0, 0), TileKey.of(1, -0.001f, -0.001f));
+        // positions at the upper border belong to the last cell
+        assertEquals(new TileKey(2, 3, 3), TileKey.of(2, 180, 90));
+        assertEquals(new TileKey(1, 0, 1), new TileKey(2, 1, 3).parent());
+        assertNull(new TileKey(0, 0, 0).parent());
+        assertTrue(TileKey.of(1, 10, 10).overlaps(-1, -1, 1, 1));
+        assertFalse(TileKey.of(1, 10, 10).overlaps(-2, -2, -1, -1));
+        assertEquals(List.of(0, 1, 0, 1), new TileKey(0, 0, 0).children().stream()
+            .map(TileKey::x).toList());
+    }
+}
@@ -0,0 +1,118 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitPictureDatasourceTest {
+    @TempDir
+    Path tempDir;
+    FilePictureDatasource fileDatasource;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fileDatasource = new FilePictureDatasource(tempDir.resolve("pictures.csv").toString());
+    }
+
+    private static Picture picture(String title) {
+        URL url;
+        try {
+            url = URI.create("http://test.url/" + title + ".img").toURL();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Picture(url, title);
+    }
+
+    private static Thread start(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    void concurrentInsertsGetUniqueIds() throws InterruptedException {
+        List<Picture> inserted = Collections.synchronizedList(new ArrayList<>());
+        try (GroupCommitPictureDatasource datasource = new GroupCommitPictureDatasource(fileDatasource, 16, 8)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                threads.add(start(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        Picture picture = picture("t" + thread + "-" + i);
+                        datasource.insert(picture);
+                        inserted.add(picture);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(200, datasource.count());
+        }
+        Set<Long> ids = new HashSet<>();
+        for (Picture picture : inserted) {
+            assertTrue(ids.add(picture.getId()), "Duplicate id " + picture.getId());
+            assertEquals(picture.getTitle(), fileDatasource.findById(picture.getId()).orElseThrow().getTitle());
+        }
+    }
+
+    @Test
+    void closeCompletesAllPendingInserts() throws InterruptedException, ExecutionException, TimeoutException {
+        for (int round = 0; round < 20; round++) {
+            GroupCommitPictureDatasource datasource = new GroupCommitPictureDatasource(fileDatasource, 4, 2);
+            List<CompletableFuture<Picture>> futures = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                threads.add(start(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        futures.add(datasource.insertAsync(picture("pending")));
+                    }
+                }));
+            }
+            Thread.sleep(round % 5);
+            datasource.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long written = 0;
+            for (CompletableFuture<Picture> future : futures) {
+                try {
+                    Picture picture = future.get(10, TimeUnit.SECONDS);
+                    assertTrue(fileDatasource.findById(picture.getId()).isPresent(), "Completed insert must be written");
+                    written++;
+                } catch (ExecutionException e) {
+                    assertInstanceOf(DatasourceException.class, e.getCause());
+                }
+            }
+            assertEquals(100, futures.size());
+            assertTrue(written <= fileDatasource.count());
+        }
+    }
+
+    @Test
+    void insertAfterCloseFails() {
+        GroupCommitPictureDatasource datasource = new GroupCommitPictureDatasource(fileDatasource);
+        datasource.insert(picture("before"));
+        datasource.close();
+        datasource.close();
+        assertThrows(DatasourceException.class, () -> datasource.insert(picture("after")));
+        assertEquals(1, fileDatasource.count());
+    }
+}
@@ -0,0 +1,75 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void countSmallValuesExactly() {
+        for (int value = 0; value < 64; value++) {
+            assertEquals(value, LatencyHistogram.bucketIndex(value));
+            assertEquals(value, LatencyHistogram.bucketUpperBound(value));
+        }
+    }
+
+    @Test
+    void bucketBoundaries() {
+        // 64 starts the first bucket of width 2
+        assertEquals(64, LatencyHistogram.bucketIndex(64));
+        assertEquals(64, LatencyHistogram.bucketIndex(65));
+        assertEquals(65, LatencyHistogram.bucketIndex(66));
+        assertEquals(65, LatencyHistogram.bucketUpperBound(64));
+        // 128 starts the first bucket of width 4
+        assertEquals(95, LatencyHistogram.bucketIndex(127));
+        assertEquals(127, LatencyHistogram.bucketUpperBound(95));
+        assertEquals(96, LatencyHistogram.bucketIndex(128));
+        assertEquals(131, LatencyHistogram.bucketUpperBound(96));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void relativeErrorAtMostOneThirtySecond() {
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(upper >= value, "Upper bound " + upper + " below " + value);
+            assertTrue((double) (upper - value) / value <= 1.0 / 32, "Error too large for " + value);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < value, "Previous bucket contains " + value);
+            }
+        }
+    }
+
+    @Test
+    void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value * 1000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50_500, histogram.getMean(), 0.001);
+        assertEquals(100_000, histogram.getMax());
+        assertEquals(100_000, histogram.getPercentile(100));
+        assertEquals(1000, histogram.getPercentile(0), 1000 / 32.0);
+        assertEquals(50_000, histogram.getPercentile(50), 50_000 / 32.0);
+        assertEquals(99_000, histogram.getPercentile(99), 99_000 / 32.0);
+        assertTrue(histogram.getPercentile(50) >= 50_000, "Percentile is the upper bound of the bucket");
+    }
+
+    @Test
+    void emptyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0.0, histogram.getMean());
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getPercentile(50), "Negative values are recorded as 0");
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+}
@@ -0,0 +1,67 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.SimpleDateFormat;
+
+import static ch.zhaw.prog2.io.picturedb.FilePictureDatasource.DATE_FORMAT;
+import static ch.zhaw.prog2.io.picturedb.FilePictureDatasource.HEADER_COLUMNS;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RawPictureProjectionTest {
+    private static String[] row(long id, String title, String url) {
+        // new string instances, as split returns them for every row
+        return new String[] {String.valueOf(id), "2020-01-01 12:00:00", "1.5", "2.5", new String(title), new String(url)};
+    }
+
+    @Test
+    void convertRow() throws Exception {
+        RawPictureProjection projection = RawPictureProjection.create(new SimpleDateFormat(DATE_FORMAT), HEADER_COLUMNS);
+        assertThrows(IllegalStateException.class, projection::selectId);
+        projection.setRow(row(7, "title", "http://test.url/a.img"));
+        Picture picture = projection.convertToPicture().orElseThrow();
+        assertEquals(7, picture.getId());
+        assertEquals("title", picture.getTitle());
+        assertEquals("http://test.url/a.img", picture.getUrl().toExternalForm());
+        assertEquals(1.5f, picture.getLongitude());
+        assertEquals(2.5f, picture.getLatitude());
+        assertEquals(new SimpleDateFormat(DATE_FORMAT).parse("2020-01-01 12:00:00"), picture.getDate());
+
+        projection.setRow(new String[HEADER_COLUMNS.size()]);
+        projection.updateRowFromPicture(picture);
+        assertArrayEquals(row(7, "title", "http://test.url/a.img"), projection.getRow());
+    }
+
+    @Test
+    void shareRepeatedValues() {
+        RawPictureProjection projection = RawPictureProjection.create(new SimpleDateFormat(DATE_FORMAT), HEADER_COLUMNS);
+        projection.setRow(row(1, "title", "http://test.url/a.img"));
+        Picture first = projection.convertToPicture().orElseThrow();
+        projection.setRow(row(2, "title", "http://test.url/a.img"));
+        Picture second = projection.convertToPicture().orElseThrow();
+        assertSame(first.getUrl(), second.getUrl());
+        assertSame(first.getTitle(), second.getTitle());
+
+        // projections don't share values with each other
+        RawPictureProjection other = RawPictureProjection.create(new SimpleDateFormat(DATE_FORMAT), HEADER_COLUMNS);
+        other.setRow(row(3, "title", "http://test.url/a.img"));
+        assertNotSame(first.getUrl(), other.convertToPicture().orElseThrow().getUrl());
+    }
+
+    @Test
+    void limitSharedValues() {
+        RawPictureProjection projection = RawPictureProjection.create(new SimpleDateFormat(DATE_FORMAT), HEADER_COLUMNS);
+        for (int i = 0; i < 5000; i++) {
+            projection.setRow(row(i, "title-" + i, "http://test.url/" + i + ".img"));
+            Picture picture = projection.convertToPicture().orElseThrow();
+            assertEquals("title-" + i, picture.getTitle());
+            assertEquals("http://test.url/" + i + ".img", picture.getUrl().toExternalForm());
+        }
+        // values after the limit are still converted correctly, but not shared
+        projection.setRow(row(1, "title-4999", "http://test.url/4999.img"));
+        Picture first = projection.convertToPicture().orElseThrow();
+        projection.setRow(row(2, "title-4999", "http://test.url/4999.img"));
+        assertNotSame(first.getUrl(), projection.convertToPicture().orElseThrow().getUrl());
+        assertEquals(first.getTitle(), projection.convertToPicture().orElseThrow().getTitle());
+    }
+}
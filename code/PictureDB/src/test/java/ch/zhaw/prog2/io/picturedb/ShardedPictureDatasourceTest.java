@@ -0,0 +1,182 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import ch.zhaw.prog2.io.picturedb.ShardedPictureDatasource.Partitioning;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedPictureDatasourceTest {
+    @TempDir
+    Path directory;
+
+    private ShardedPictureDatasource open(Partitioning partitioning, int initialShards, long splitThreshold) throws IOException {
+        return new ShardedPictureDatasource(directory.toString(), partitioning, initialShards, splitThreshold);
+    }
+
+    private static Picture picture(int number) {
+        try {
+            return new Picture(URI.create("http://test.url/" + number + ".img").toURL(), new Date(),
+                "Picture " + number, number % 90, number % 45);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long shardFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("shard-")).count();
+        }
+    }
+
+    @Test
+    void splitRangeShards() throws IOException, RecordNotFoundException {
+        ShardedPictureDatasource datasource = open(Partitioning.RANGE, 1, 10);
+        List<Picture> pictures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Picture picture = picture(i);
+            datasource.insert(picture);
+            assertEquals(i, picture.getId());
+            pictures.add(picture);
+        }
+        assertTrue(datasource.getShardCount() > 1, "Shard must be split");
+        assertEquals(datasource.getShardCount(), shardFiles(), "Split shard files must be deleted");
+        assertEquals(50, datasource.count());
+        // range shards are scanned in the order of their ids
+        assertEquals(pictures.stream().map(Picture::getId).toList(), datasource.findAll().stream().map(Picture::getId).toList());
+        for (Picture picture : pictures) {
+            assertEquals(picture.getTitle(), datasource.findById(picture.getId()).orElseThrow().getTitle());
+        }
+
+        Picture original = pictures.get(3);
+        datasource.update(new Picture(original.getId(), original.getUrl(), original.getDate(), "updated",
+            original.getLongitude(), original.getLatitude()));
+        datasource.delete(pictures.get(40));
+        assertEquals("updated", datasource.findById(3).orElseThrow().getTitle());
+        assertTrue(datasource.findById(40).isEmpty());
+        assertEquals(49, datasource.count());
+    }
+
+    @Test
+    void splitHashShards() throws IOException {
+        ShardedPictureDatasource datasource = open(Partitioning.HASH, 3, 20);
+        assertEquals(4, datasource.getShardCount(), "Initial shards are rounded up to a power of two");
+        for (int i = 0; i < 200; i++) {
+            datasource.insert(picture(i));
+        }
+        assertTrue(datasource.getShardCount() > 4, "Shards must be split");
+        assertEquals(200, datasource.count());
+        for (long id = 0; id < 200; id++) {
+            assertTrue(datasource.findById(id).isPresent(), "Missing id " + id);
+        }
+        assertEquals(datasource.findByPosition(10, 10, 5).size(),
+            datasource.findAll().stream().filter(p -> Math.abs(p.getLongitude() - 10) <= 5 && Math.abs(p.getLatitude() - 10) <= 5).count());
+    }
+
+    @Test
+    void reopenFromManifest() throws IOException {
+        ShardedPictureDatasource datasource = open(Partitioning.RANGE, 1, 5);
+        for (int i = 0; i < 20; i++) {
+            datasource.insert(picture(i));
+        }
+        int shards = datasource.getShardCount();
+
+        // the partitioning of the manifest wins over the given one
+        ShardedPictureDatasource reopened = open(Partitioning.HASH, 8, 5);
+        assertEquals(shards, reopened.getShardCount());
+        assertEquals(20, reopened.count());
+        Picture picture = picture(20);
+        reopened.insert(picture);
+        assertEquals(20, picture.getId(), "Ids must continue after the highest id");
+    }
+
+    @Test
+    void idsOutsideAllShards() throws IOException {
+        ShardedPictureDatasource datasource = open(Partitioning.RANGE, 1, 10);
+        datasource.insert(picture(0));
+        assertTrue(datasource.findById(-1).isEmpty());
+        assertTrue(datasource.findById(Long.MAX_VALUE).isEmpty());
+        Picture missing = picture(1);
+        missing.setId(-5);
+        assertThrows(RecordNotFoundException.class, () -> datasource.update(missing));
+        assertThrows(RecordNotFoundException.class, () -> datasource.delete(missing));
+        missing.setId(Long.MAX_VALUE);
+        assertThrows(RecordNotFoundException.class, () -> datasource.delete(missing));
+        missing.setId(7);
+        assertThrows(RecordNotFoundException.class, () -> datasource.update(missing));
+    }
+
+    @Test
+    void concurrentInsertsWhileSplitting() throws IOException, InterruptedException {
+        ShardedPictureDatasource datasource = open(Partitioning.RANGE, 1, 25);
+        List<Long> ids = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    Picture picture = picture(thread * 100 + i);
+                    datasource.insert(picture);
+                    ids.add(picture.getId());
+                }
+            });
+            writer.start();
+            threads.add(writer);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(200, ids.size());
+        assertEquals(200, datasource.count());
+        for (long id : ids) {
+            assertTrue(datasource.findById(id).isPresent(), "Missing id " + id);
+        }
+        assertEquals(datasource.getShardCount(), shardFiles(), "Discarded splits must not leave shard files");
+    }
+
+    @Test
+    void useIdSnapshotsOfUnchangedShards() throws IOException {
+        ShardedPictureDatasource datasource = open(Partitioning.RANGE, 1, 100);
+        for (int i = 0; i < 10; i++) {
+            datasource.insert(picture(i));
+        }
+        datasource.close();
+        Path shardFile = directory.resolve("shard-0.csv");
+        assertTrue(Files.exists(directory.resolve("shard-0.csv.ids")), "Id snapshot must be saved on close");
+        // an id only in the snapshot shows that the shard file is not read
+        IdSnapshot.save(shardFile, new long[] {0, 1, 2, 1000});
+        try (ShardedPictureDatasource reopened = open(Partitioning.RANGE, 1, 100)) {
+            Picture picture = picture(10);
+            reopened.insert(picture);
+            assertEquals(1001, picture.getId());
+        }
+        // a record appended by another writer makes the snapshot stale
+        Picture appended = picture(11);
+        appended.setId(5000);
+        new FilePictureDatasource(shardFile.toString()).append(List.of(appended));
+        try (ShardedPictureDatasource reopened = open(Partitioning.RANGE, 1, 100)) {
+            assertEquals(12, reopened.count());
+            Picture picture = picture(12);
+            reopened.insert(picture);
+            assertEquals(5001, picture.getId());
+        }
+    }
+
+    @Test
+    void invalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> open(Partitioning.RANGE, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> open(Partitioning.RANGE, 1, 1));
+    }
+}
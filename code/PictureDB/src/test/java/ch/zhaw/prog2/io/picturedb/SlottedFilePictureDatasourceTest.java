@@ -0,0 +1,242 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static ch.zhaw.prog2.io.picturedb.TestPictures.picture;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlottedFilePictureDatasourceTest {
+    @TempDir
+    Path directory;
+    Path dataFile;
+    Path indexFile;
+
+    @BeforeEach
+    void setUp() {
+        dataFile = directory.resolve("pictures.csv");
+        indexFile = directory.resolve("pictures.csv.index");
+    }
+
+    private SlottedFilePictureDatasource open() throws IOException {
+        return new SlottedFilePictureDatasource(dataFile.toString(), false);
+    }
+
+    private static Picture renamed(Picture picture, String title) {
+        return new Picture(picture.getId(), picture.getUrl(), picture.getDate(), title, picture.getLongitude(), picture.getLatitude());
+    }
+
+    private List<String> lines() throws IOException {
+        return Files.readAllLines(dataFile, StandardCharsets.UTF_8);
+    }
+
+    private SlottedFilePictureDatasource openWithRecords(int records) throws IOException {
+        SlottedFilePictureDatasource datasource = open();
+        for (int i = 0; i < records; i++) {
+            datasource.insert(picture("picture-" + i));
+        }
+        return datasource;
+    }
+
+    @Test
+    void updateInPlace() throws IOException, RecordNotFoundException {
+        try (SlottedFilePictureDatasource datasource = openWithRecords(3)) {
+            long size = Files.size(dataFile);
+            datasource.update(renamed(datasource.findById(1).orElseThrow(), "short"));
+            assertEquals(size, Files.size(dataFile), "Row fitting into the slot must be written in place");
+            assertEquals("short", datasource.findById(1).orElseThrow().getTitle());
+            assertEquals(3, lines().size());
+            assertEquals(List.of("picture-0", "short", "picture-2"), datasource.findAll().stream().map(Picture::getTitle).toList());
+        }
+    }
+
+    @Test
+    void moveRecordOutgrowingItsSlot() throws IOException, RecordNotFoundException {
+        String longTitle = "a much longer title, which does not fit into the padding of the slot any more";
+        try (SlottedFilePictureDatasource datasource = openWithRecords(3)) {
+            long size = Files.size(dataFile);
+            datasource.update(renamed(datasource.findById(0).orElseThrow(), longTitle));
+            assertTrue(Files.size(dataFile) > size, "Moved record must be appended");
+            assertTrue(lines().get(0).isBlank(), "Old slot must be blanked");
+            assertEquals(longTitle, datasource.findById(0).orElseThrow().getTitle());
+            assertEquals(3, datasource.count());
+            assertEquals(3, datasource.findAll().size());
+        }
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals(3, reopened.count());
+            assertEquals(longTitle, reopened.findById(0).orElseThrow().getTitle());
+        }
+    }
+
+    @Test
+    void keepLaterSlotOfInterruptedMove() throws IOException {
+        try (SlottedFilePictureDatasource datasource = openWithRecords(2)) {
+            datasource.findById(0).orElseThrow();
+        }
+        Files.delete(indexFile);
+        // crash after the new slot was written, but before the old one was blanked
+        new FilePictureDatasource(dataFile.toString()).append(List.of(renamed(picture(0, "x"), "moved")));
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals(2, reopened.count());
+            assertEquals("moved", reopened.findById(0).orElseThrow().getTitle());
+            assertTrue(lines().get(0).isBlank(), "Earlier slot must be blanked");
+            assertEquals(2, reopened.findAll().size());
+        }
+    }
+
+    @Test
+    void deleteBlanksSlot() throws IOException, RecordNotFoundException {
+        try (SlottedFilePictureDatasource datasource = openWithRecords(3)) {
+            datasource.delete(datasource.findById(1).orElseThrow());
+            assertTrue(lines().get(1).isBlank());
+            assertTrue(datasource.findById(1).isEmpty());
+            assertEquals(2, datasource.count());
+            assertThrows(RecordNotFoundException.class, () -> datasource.delete(picture(1, "deleted")));
+            assertThrows(RecordNotFoundException.class, () -> datasource.update(picture(1, "deleted")));
+            Picture next = picture("next");
+            datasource.insert(next);
+            assertEquals(3, next.getId());
+        }
+    }
+
+    @Test
+    void openFileOfFilePictureDatasource() throws IOException {
+        new FilePictureDatasource(dataFile.toString()).append(List.of(picture(0, "file-0"), picture(1, "file-1"), picture(2, "file-2")));
+        try (SlottedFilePictureDatasource datasource = open()) {
+            assertEquals(3, datasource.count());
+            assertEquals("file-2", datasource.findById(2).orElseThrow().getTitle());
+            assertEquals(1, datasource.findByPosition(1, 1, 0.5f).size());
+        }
+    }
+
+    @Test
+    void truncateTornTail() throws IOException {
+        try (SlottedFilePictureDatasource datasource = openWithRecords(2)) {
+            datasource.findById(0).orElseThrow();
+        }
+        Files.delete(indexFile);
+        long size = Files.size(dataFile);
+        // a write cut within the date
+        String row = lines().get(1).strip().replace("picture-1", "torn").replaceFirst("^1;", "2;");
+        Files.writeString(dataFile, row.substring(0, row.indexOf(';') + 8), StandardOpenOption.APPEND);
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals(size, Files.size(dataFile), "Torn slot must be truncated");
+            assertEquals(2, reopened.count());
+            assertTrue(reopened.findById(2).isEmpty());
+            Picture next = picture("next");
+            reopened.insert(next);
+            assertEquals(2, next.getId());
+        }
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals("next", reopened.findById(2).orElseThrow().getTitle());
+        }
+    }
+
+    @Test
+    void completeRowWithoutLineBreak() throws IOException {
+        // written by another program without a final line break
+        new FilePictureDatasource(dataFile.toString()).append(List.of(picture(0, "file-0"), picture(1, "file-1")));
+        String content = Files.readString(dataFile, StandardCharsets.UTF_8).stripTrailing();
+        Files.writeString(dataFile, content);
+        try (SlottedFilePictureDatasource datasource = open()) {
+            assertEquals(content + "\n", Files.readString(dataFile, StandardCharsets.UTF_8), "Line break must be appended");
+            assertEquals(2, datasource.count());
+            assertEquals("file-1", datasource.findById(1).orElseThrow().getTitle());
+            Picture next = picture("next");
+            datasource.insert(next);
+            assertEquals(2, next.getId());
+        }
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals(3, reopened.count());
+            assertEquals("file-1", reopened.findById(1).orElseThrow().getTitle());
+            assertEquals("next", reopened.findById(2).orElseThrow().getTitle());
+        }
+    }
+
+    @Test
+    void useIndexSnapshot() throws IOException, RecordNotFoundException {
+        try (SlottedFilePictureDatasource datasource = openWithRecords(100)) {
+            datasource.update(renamed(datasource.findById(5).orElseThrow(), "in place"));
+        }
+        assertTrue(Files.exists(indexFile), "Snapshot must be saved on close");
+        // slots appended after the snapshot, e.g. by a process that crashed before saving the snapshot
+        new FilePictureDatasource(dataFile.toString()).append(List.of(picture(100, "appended"), renamed(picture(7, "x"), "moved")));
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals(101, reopened.count());
+            assertEquals("in place", reopened.findById(5).orElseThrow().getTitle());
+            assertEquals("appended", reopened.findById(100).orElseThrow().getTitle());
+            assertEquals("moved", reopened.findById(7).orElseThrow().getTitle());
+            assertEquals("picture-99", reopened.findById(99).orElseThrow().getTitle());
+            assertTrue(reopened.findById(101).isEmpty());
+            Picture next = picture("next");
+            reopened.insert(next);
+            assertEquals(101, next.getId());
+        }
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals(102, reopened.count());
+            assertEquals(102, reopened.findAll().size());
+        }
+    }
+
+    @Test
+    void ignoreCorruptIndexSnapshot() throws IOException {
+        openWithRecords(10).close();
+        byte[] snapshot = Files.readAllBytes(indexFile);
+        // corrupt an entry, which is only detected by the checksum
+        snapshot[snapshot.length - 1] ^= 1;
+        Files.write(indexFile, snapshot);
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals(10, reopened.count());
+            for (long id = 0; id < 10; id++) {
+                assertEquals("picture-" + id, reopened.findById(id).orElseThrow().getTitle());
+            }
+        }
+        Files.write(indexFile, new byte[10]);
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals(10, reopened.count());
+        }
+    }
+
+    @Test
+    void ignoreIndexSnapshotOfReplacedDataFile() throws IOException {
+        openWithRecords(10).close();
+        Path snapshot = Files.copy(indexFile, directory.resolve("saved.index"));
+        // replace the data file with one of the same size, but other slots
+        Files.delete(dataFile);
+        try (SlottedFilePictureDatasource other = openWithRecords(10)) {
+            other.findById(0).orElseThrow();
+        }
+        List<String> otherLines = lines();
+        Files.writeString(dataFile, String.join("\n", otherLines.subList(5, 10)) + "\n" + String.join("\n", otherLines.subList(0, 5)) + "\n");
+        Files.copy(snapshot, indexFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        try (SlottedFilePictureDatasource reopened = open()) {
+            for (long id = 0; id < 10; id++) {
+                assertEquals("picture-" + id, reopened.findById(id).orElseThrow().getTitle(), "Stale snapshot used for " + id);
+            }
+        }
+    }
+
+    @Test
+    void deleteInvalidatesIndexSnapshot() throws IOException, RecordNotFoundException {
+        openWithRecords(10).close();
+        SlottedFilePictureDatasource datasource = open();
+        datasource.delete(datasource.findById(3).orElseThrow());
+        assertFalse(Files.exists(indexFile), "Snapshot still containing the deleted record must be deleted");
+        assertTrue(datasource.findById(3).isEmpty());
+        assertEquals("picture-4", datasource.findById(4).orElseThrow().getTitle());
+        assertEquals(9, datasource.count());
+        datasource.close();
+        try (SlottedFilePictureDatasource reopened = open()) {
+            assertEquals(9, reopened.count());
+            assertTrue(reopened.findById(3).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.util.Date;
+
+/**
+ * Creates pictures for the datasource tests. The values are derived from the id and the title, so a picture read
+ * back can be compared to a new one created with the same arguments.
+ */
+final class TestPictures {
+    private TestPictures() {
+    }
+
+    /**
+     * Creates a picture with the given id. The date has whole seconds, so it survives the date format of the data file.
+     *
+     * @param id    of the picture, -1 for a new picture
+     * @param title of the picture, used in the URL, so it must not contain spaces
+     * @return the picture
+     */
+    static Picture picture(long id, String title) {
+        try {
+            return new Picture(id, URI.create("http://test.url/" + title + ".img").toURL(), new Date(1_600_000_000_000L + id * 1000),
+                title, id % 90, id % 45);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a new picture without id.
+     */
+    static Picture picture(String title) {
+        return picture(-1, title);
+    }
+}
@@ -0,0 +1,147 @@
+package ch.zhaw.prog2.io.picturedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import ch.zhaw.prog2.io.picturedb.VersionedPictureDatasource.Snapshot;
+
+import static ch.zhaw.prog2.io.picturedb.TestPictures.picture;
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionedPictureDatasourceTest {
+    @TempDir
+    Path directory;
+
+    private VersionedPictureDatasource open() throws IOException {
+        return new VersionedPictureDatasource(directory.resolve("pictures.csv").toString(), false);
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static List<String> titles(Collection<Picture> pictures) {
+        return pictures.stream().map(Picture::getTitle).toList();
+    }
+
+    @Test
+    void snapshotIsolatedFromWrites() throws IOException, RecordNotFoundException {
+        try (VersionedPictureDatasource datasource = open()) {
+            datasource.insert(picture("a"));
+            datasource.insert(picture("b"));
+            try (Snapshot snapshot = datasource.snapshot()) {
+                datasource.update(picture(1, "b2"));
+                datasource.delete(picture(0, "a"));
+                datasource.insert(picture("c"));
+
+                assertEquals(3, snapshot.getVersion());
+                assertEquals(List.of("a", "b"), titles(snapshot.findAll()));
+                assertEquals("a", snapshot.findById(0).orElseThrow().getTitle());
+                assertEquals("b", snapshot.findById(1).orElseThrow().getTitle());
+                assertTrue(snapshot.findById(2).isEmpty());
+                assertEquals(2, snapshot.count());
+                assertEquals(2, snapshot.findByPosition(-1, -1, 0).size());
+
+                assertEquals(6, datasource.getVersion());
+                assertEquals(List.of("b2", "c"), titles(datasource.findAll()));
+                assertTrue(datasource.findById(0).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    void deleteVersionsAfterLastSnapshotIsClosed() throws IOException {
+        try (VersionedPictureDatasource datasource = open()) {
+            datasource.insert(picture("a"));
+            datasource.insert(picture("b"));
+            assertEquals(List.of("pictures.3.csv"), files(), "Replaced versions without snapshots must be deleted");
+
+            Snapshot first = datasource.snapshot();
+            Snapshot second = datasource.snapshot();
+            datasource.insert(picture("c"));
+            assertEquals(List.of("pictures.3.csv", "pictures.4.csv"), files());
+            first.close();
+            first.close();
+            assertEquals(List.of("pictures.3.csv", "pictures.4.csv"), files(), "Version must be kept while pinned");
+            assertEquals(2, second.count());
+            second.close();
+            assertEquals(List.of("pictures.4.csv"), files());
+            assertThrows(IllegalStateException.class, second::findAll);
+
+            // a snapshot of the current version doesn't delete it when closed
+            datasource.snapshot().close();
+            assertEquals(List.of("pictures.4.csv"), files());
+            assertEquals(3, datasource.count());
+        }
+    }
+
+    @Test
+    void failedWriteKeepsVersion() throws IOException {
+        try (VersionedPictureDatasource datasource = open()) {
+            datasource.insert(picture("a"));
+            assertThrows(RecordNotFoundException.class, () -> datasource.update(picture(5, "missing")));
+            assertThrows(RecordNotFoundException.class, () -> datasource.delete(picture(5, "missing")));
+            assertEquals(2, datasource.getVersion());
+            assertEquals(List.of("pictures.2.csv"), files(), "Temp file of the failed write must be deleted");
+        }
+    }
+
+    @Test
+    void cleanUpAfterCrash() throws IOException {
+        try (VersionedPictureDatasource datasource = open()) {
+            datasource.insert(picture("a"));
+            datasource.insert(picture("b"));
+        }
+        // an old version pinned when the process crashed, and temp files of interrupted writes
+        Files.copy(directory.resolve("pictures.3.csv"), directory.resolve("pictures.2.csv"));
+        Files.writeString(directory.resolve("pictures.123.tmp"), "partial");
+        Files.writeString(directory.resolve("db-pictures.4.csv-456.tmp"), "partial");
+        Files.writeString(directory.resolve("other.1.csv"), "");
+
+        try (VersionedPictureDatasource reopened = open()) {
+            assertEquals(3, reopened.getVersion());
+            assertEquals(List.of("other.1.csv", "pictures.3.csv"), files());
+            assertEquals(List.of("a", "b"), titles(reopened.findAll()));
+            reopened.insert(picture("c"));
+            assertEquals(4, reopened.getVersion());
+            assertEquals(2, reopened.findById(2).orElseThrow().getId());
+        }
+    }
+
+    @Test
+    void importDataFile() throws IOException {
+        Path dataFile = directory.resolve("pictures.csv");
+        new FilePictureDatasource(dataFile.toString()).append(List.of(picture(3, "imported"), picture(7, "also-imported")));
+        try (VersionedPictureDatasource datasource = open()) {
+            assertEquals(1, datasource.getVersion());
+            assertEquals(List.of("imported", "also-imported"), titles(datasource.findAll()));
+            Picture next = picture("next");
+            datasource.insert(next);
+            assertEquals(8, next.getId());
+        }
+        assertTrue(Files.exists(dataFile), "Imported data file must be kept");
+    }
+
+    @Test
+    void closedDatasource() throws IOException {
+        VersionedPictureDatasource datasource = open();
+        datasource.insert(picture("a"));
+        Snapshot snapshot = datasource.snapshot();
+        datasource.close();
+        assertEquals(-1, datasource.getVersion());
+        assertThrows(IllegalStateException.class, () -> datasource.insert(picture("b")));
+        assertThrows(IllegalStateException.class, datasource::snapshot);
+        assertEquals(1, snapshot.count(), "Open snapshots stay readable");
+        snapshot.close();
+        assertEquals(List.of("pictures.2.csv"), files(), "Current version must be kept");
+    }
+}
@@ -0,0 +1,201 @@
+package ch.zhaw.prog2.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Detects the charset of text data by inspecting a sample of its bytes.<br>
+ * The detection is done in the following order:<br>
+ * - byte order mark (BOM) for UTF-8, UTF-16 and UTF-32<br>
+ * - pure US-ASCII, checked eight bytes at a time<br>
+ * - valid UTF-8 multibyte sequences<br>
+ * - windows-1252 if printable characters of the range 0x80-0x9F are used, ISO-8859-1 otherwise<br>
+ * The sample is never decoded, so no trial decoding of the whole file is required.
+ */
+public final class CharsetDetector {
+    // Default number of bytes read from the start of a file to detect its charset
+    public static final int DEFAULT_SAMPLE_SIZE = 64 * 1024;
+
+    // high bit of each byte in a long word
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    // view to read eight bytes of a byte array as one long
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+    private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+    private static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+
+    /**
+     * Result of a detection.
+     * @param charset detected charset
+     * @param ascii true if the sample only contains US-ASCII characters, so it can be copied without transcoding
+     */
+    public record Detection(Charset charset, boolean ascii) { }
+
+    private CharsetDetector() {
+    }
+
+    /**
+     * Detects the charset of a file using a sample of {@link #DEFAULT_SAMPLE_SIZE} bytes from the start of the file.
+     * @param file file to detect the charset of
+     * @return detection result
+     * @throws IOException if the file can not be read
+     */
+    public static Detection detect(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] sample = in.readNBytes(DEFAULT_SAMPLE_SIZE);
+            boolean complete = in.read() < 0;
+            return detect(sample, sample.length, complete);
+        }
+    }
+
+    /**
+     * Detects the charset of the given byte sample.
+     * @param sample bytes to inspect
+     * @param length number of valid bytes in the sample
+     * @param complete true if the sample contains the whole data, false if it was cut off.
+     *                 A cut off multibyte sequence at the end of an incomplete sample is not treated as invalid.
+     * @return detection result
+     */
+    public static Detection detect(byte[] sample, int length, boolean complete) {
+        Detection bom = detectBom(sample, length);
+        if (bom != null) {
+            return bom;
+        }
+        int firstNonAscii = indexOfNonAscii(sample, 0, length);
+        if (firstNonAscii == length) {
+            return new Detection(StandardCharsets.US_ASCII, true);
+        }
+        if (isValidUtf8(sample, firstNonAscii, length, complete)) {
+            return new Detection(StandardCharsets.UTF_8, false);
+        }
+        return new Detection(usesWindows1252Range(sample, firstNonAscii, length) ? WINDOWS_1252 : StandardCharsets.ISO_8859_1, false);
+    }
+
+    /**
+     * Checks if the given range only contains US-ASCII characters.
+     * @param bytes bytes to check
+     * @param from index of first byte (inclusive)
+     * @param to index of last byte (exclusive)
+     * @return true if all bytes are in the range 0x00-0x7F
+     */
+    public static boolean isAscii(byte[] bytes, int from, int to) {
+        return indexOfNonAscii(bytes, from, to) == to;
+    }
+
+    /**
+     * Returns the index of the first byte with the high bit set.
+     * Checks eight bytes at a time, using one long compare for each word.
+     */
+    private static int indexOfNonAscii(byte[] bytes, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            if (((long) LONG_VIEW.get(bytes, i) & HIGH_BITS) != 0) {
+                break;
+            }
+        }
+        for (; i < to; i++) {
+            if (bytes[i] < 0) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static Detection detectBom(byte[] b, int length) {
+        if (length >= 4 && b[0] == 0 && b[1] == 0 && (b[2] & 0xFF) == 0xFE && (b[3] & 0xFF) == 0xFF) {
+            return new Detection(UTF_32BE, false);
+        }
+        if (length >= 4 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xFE && b[2] == 0 && b[3] == 0) {
+            return new Detection(UTF_32LE, false);
+        }
+        if (length >= 3 && (b[0] & 0xFF) == 0xEF && (b[1] & 0xFF) == 0xBB && (b[2] & 0xFF) == 0xBF) {
+            return new Detection(StandardCharsets.UTF_8, false);
+        }
+        if (length >= 2 && (b[0] & 0xFF) == 0xFE && (b[1] & 0xFF) == 0xFF) {
+            return new Detection(StandardCharsets.UTF_16BE, false);
+        }
+        if (length >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xFE) {
+            return new Detection(StandardCharsets.UTF_16LE, false);
+        }
+        return null;
+    }
+
+    /**
+     * Validates the UTF-8 encoding of the given range.
+     * Overlong encodings, surrogates and code points above U+10FFFF are rejected.
+     */
+    private static boolean isValidUtf8(byte[] b, int from, int to, boolean complete) {
+        int i = from;
+        while (i < to) {
+            int lead = b[i] & 0xFF;
+            if (lead < 0x80) {
+                // skip ASCII runs word by word
+                i = indexOfNonAscii(b, i, to);
+                continue;
+            }
+            int size;
+            int min;
+            int max = 0xBF;
+            if (lead >= 0xC2 && lead <= 0xDF) {
+                size = 2;
+                min = 0x80;
+            } else if (lead >= 0xE0 && lead <= 0xEF) {
+                size = 3;
+                min = lead == 0xE0 ? 0xA0 : 0x80;
+                max = lead == 0xED ? 0x9F : 0xBF;
+            } else if (lead >= 0xF0 && lead <= 0xF4) {
+                size = 4;
+                min = lead == 0xF0 ? 0x90 : 0x80;
+                max = lead == 0xF4 ? 0x8F : 0xBF;
+            } else {
+                return false;
+            }
+            if (i + size > to) {
+                // sequence cut off at the end of the sample
+                return !complete && isContinuation(b, i + 1, to, min, max);
+            }
+            if (!isContinuation(b, i + 1, i + size, min, max)) {
+                return false;
+            }
+            i += size;
+        }
+        return true;
+    }
+
+    private static boolean isContinuation(byte[] b, int from, int to, int firstMin, int firstMax) {
+        for (int i = from; i < to; i++) {
+            int value = b[i] & 0xFF;
+            if (i == from ? value < firstMin || value > firstMax : value < 0x80 || value > 0xBF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * ISO-8859-1 maps the range 0x80-0x9F to C1 control characters, which are hardly ever used in text.
+     * windows-1252 maps most of them to printable characters (e.g. the euro sign or typographic quotes),
+     * except for 0x81, 0x8D, 0x8F, 0x90 and 0x9D which are undefined.
+     */
+    private static boolean usesWindows1252Range(byte[] b, int from, int to) {
+        boolean printable = false;
+        for (int i = from; i < to; i++) {
+            int value = b[i] & 0xFF;
+            if (value >= 0x80 && value <= 0x9F) {
+                if (value == 0x81 || value == 0x8D || value == 0x8F || value == 0x90 || value == 0x9D) {
+                    return false;
+                }
+                printable = true;
+            }
+        }
+        return printable;
+    }
+}
@@ -1,6 +1,9 @@
 package ch.zhaw.prog2.io;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 
@@ -92,9 +95,7 @@ public class FileCopy {
         Objects.requireNonNull(sourceDir, "Source directory must not be null");
         for (File file : sourceDir.listFiles()) {
             try (FileInputStream inputStream = new FileInputStream(file);
-                 FileOutputStream outputStream = new FileOutputStream("copy-bin-" + file.getName());
-                 FileReader reader = new FileReader(file);
-                 FileWriter writer = new FileWriter("copy-char-" + file.getName()))
+                 FileOutputStream outputStream = new FileOutputStream("copy-bin-" + file.getName()))
             {
                 int byteValue;
                 System.out.println("Binary copy.");
@@ -102,8 +103,21 @@ public class FileCopy {
                     outputStream.write(byteValue);
                 }
                 // or use: inputStream.transferTo(outputStream);
+            }
+
+            // detect the charset from a sample of the file, instead of using the platform default of FileReader
+            CharsetDetector.Detection detection = CharsetDetector.detect(file.toPath());
+            if (detection.ascii()) {
+                // US-ASCII is encoded the same in all supported charsets, so no transcoding is required
+                System.out.println("Character-oriented copy (US-ASCII, copied byte by byte).");
+                Files.copy(file.toPath(), Path.of("copy-char-" + file.getName()), StandardCopyOption.REPLACE_EXISTING);
+                continue;
+            }
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), detection.charset());
+                 Writer writer = new OutputStreamWriter(new FileOutputStream("copy-char-" + file.getName()), detection.charset()))
+            {
                 int charValue;
-                System.out.println("Character-oriented copy.");
+                System.out.format("Character-oriented copy (%s).%n", detection.charset());
                 while ((charValue = reader.read()) >= 0) {
                     writer.write(charValue);
                 }
@@ -0,0 +1,80 @@
+package ch.zhaw.prog2.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CharsetDetectorTest {
+    private static final String TEXT = "Grüezi mitenand, das kostet 5 €.";
+
+    private static CharsetDetector.Detection detect(byte[] sample) {
+        return CharsetDetector.detect(sample, sample.length, true);
+    }
+
+    private static byte[] withBom(byte[] bom, byte[] text) {
+        byte[] bytes = Arrays.copyOf(bom, bom.length + text.length);
+        System.arraycopy(text, 0, bytes, bom.length, text.length);
+        return bytes;
+    }
+
+    @Test
+    void detectByteOrderMarks() {
+        byte[] utf8Bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] utf16BeBom = {(byte) 0xFE, (byte) 0xFF};
+        byte[] utf16LeBom = {(byte) 0xFF, (byte) 0xFE};
+        assertEquals(StandardCharsets.UTF_8, detect(withBom(utf8Bom, TEXT.getBytes(StandardCharsets.UTF_8))).charset());
+        assertEquals(StandardCharsets.UTF_16BE, detect(withBom(utf16BeBom, TEXT.getBytes(StandardCharsets.UTF_16BE))).charset());
+        assertEquals(StandardCharsets.UTF_16LE, detect(withBom(utf16LeBom, TEXT.getBytes(StandardCharsets.UTF_16LE))).charset());
+        // a BOM is detected even if the rest of the sample is pure ASCII
+        CharsetDetector.Detection detection = detect(withBom(utf8Bom, "abc".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(StandardCharsets.UTF_8, detection.charset());
+        assertFalse(detection.ascii());
+    }
+
+    @Test
+    void detectAscii() {
+        // longer than a word, so both the word-at-a-time and the byte loop are used
+        byte[] ascii = "plain ASCII text\r\n\twith 0123456789".getBytes(StandardCharsets.US_ASCII);
+        CharsetDetector.Detection detection = detect(ascii);
+        assertEquals(StandardCharsets.US_ASCII, detection.charset());
+        assertTrue(detection.ascii());
+        assertTrue(detect(new byte[0]).ascii(), "Empty data is ASCII");
+        for (int i = 0; i < ascii.length; i++) {
+            byte[] nonAscii = ascii.clone();
+            nonAscii[i] = (byte) 0xE9;
+            assertFalse(CharsetDetector.isAscii(nonAscii, 0, nonAscii.length), "Non-ASCII byte at " + i);
+        }
+    }
+
+    @Test
+    void detectUtf8() {
+        assertEquals(StandardCharsets.UTF_8, detect(TEXT.getBytes(StandardCharsets.UTF_8)).charset());
+        assertEquals(StandardCharsets.UTF_8, detect("emoji 😀".getBytes(StandardCharsets.UTF_8)).charset());
+    }
+
+    @Test
+    void invalidUtf8FallsBackToSingleByteCharset() {
+        Charset windows1252 = Charset.forName("windows-1252");
+        // the euro sign is 0x80 in windows-1252, a C1 control char in ISO-8859-1
+        assertEquals(windows1252, detect(TEXT.getBytes(windows1252)).charset());
+        // ü is 0xFC, which is no valid UTF-8 lead byte
+        assertEquals(StandardCharsets.ISO_8859_1, detect("Grüezi".getBytes(StandardCharsets.ISO_8859_1)).charset());
+        // overlong encoding of '/' and encoded surrogate are invalid UTF-8
+        assertNotEquals(StandardCharsets.UTF_8, detect(new byte[]{'a', (byte) 0xC0, (byte) 0xAF}).charset());
+        assertNotEquals(StandardCharsets.UTF_8, detect(new byte[]{'a', (byte) 0xED, (byte) 0xA0, (byte) 0x80}).charset());
+        // 0x81 is undefined in windows-1252
+        assertEquals(StandardCharsets.ISO_8859_1, detect(new byte[]{'a', (byte) 0x80, (byte) 0x81}).charset());
+    }
+
+    @Test
+    void cutOffSequenceAtEndOfSample() {
+        byte[] utf8 = "Grüezi €".getBytes(StandardCharsets.UTF_8);
+        int length = utf8.length - 1; // cuts the euro sign
+        assertEquals(StandardCharsets.UTF_8, CharsetDetector.detect(utf8, length, false).charset());
+        assertNotEquals(StandardCharsets.UTF_8, CharsetDetector.detect(utf8, length, true).charset());
+    }
+}